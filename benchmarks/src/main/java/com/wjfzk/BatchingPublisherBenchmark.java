@@ -0,0 +1,210 @@
+package com.wjfzk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The server's publish path: request threads handing encoded rides to {@link BatchingPublisher},
+ * which batches them onto confirm-mode channels, against the original {@link ChannelPoolPublisher}
+ * doing one unconfirmed publish per ride on a pooled channel. Both publish to an
+ * {@link InProcessTransport} wrapped in {@link RoundTripTransport}, which charges each publish a
+ * socket write and each confirm wait a broker round trip; without those the in-process confirms
+ * would be free. Each invocation publishes {@link #WINDOW} rides and waits for all of them, like a
+ * request thread pool with that many requests in flight. A subscriber acks every message so the
+ * queue does not grow over the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchingPublisherBenchmark {
+    private static final int WINDOW = 256;
+    private static final String QUEUE = "bench_rides";
+    private static final int BUFFER_CAPACITY = 65536;
+    private static final int PUBLISHER_THREADS = 2;
+    private static final long LINGER_MS = 1;
+    private static final long CONFIRM_TIMEOUT_MS = 5000;
+    private static final int CHANNEL_POOL_CAPACITY = 300;
+    // 同机房到 broker 的一次往返，以及一帧写 socket 的 CPU 开销
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final long WRITE_NANOS = TimeUnit.MICROSECONDS.toNanos(5);
+
+    // pool 是原来的通道池；batch-N 是批大小为 N 的 BatchingPublisher
+    @Param({"pool", "batch-1", "batch-64"})
+    public String publisherKind;
+
+    private InProcessTransport transport;
+    private MessageTransport.Subscription subscription;
+    private RidePublisher publisher;
+
+    @State(Scope.Thread)
+    public static class Rides {
+        final byte[][] bodies = new byte[WINDOW][];
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Void>[] futures = new CompletableFuture[WINDOW];
+
+        @Setup(Level.Trial)
+        public void generate() {
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < WINDOW; i++) {
+                bodies[i] = LiftRideCodec.encode(new LiftRide(random.nextInt(10) + 1, 2025, random.nextInt(3) + 1,
+                        random.nextInt(100_000) + 1, random.nextInt(40) + 1, random.nextInt(360) + 1)
+                        .setEventID(random.nextLong(1, LiftRide.MAX_EVENT_ID)));
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        transport = new InProcessTransport(new InProcessBroker(Long.MAX_VALUE));
+        transport.declareQueue(QUEUE);
+        // 队列此时为空，subscribe 返回前不会有投递，handler 里可以直接用 subscription
+        subscription = transport.subscribe(List.of(QUEUE), 0,
+                message -> subscription.ack(message.deliveryTag(), false));
+        MessageTransport remote = new RoundTripTransport(transport, WRITE_NANOS, ROUND_TRIP_NANOS);
+        RideRouter router = new RideRouter(new QueuePartitions("", QUEUE, 1));
+        if (publisherKind.equals("pool")) {
+            publisher = new ChannelPoolPublisher(remote, router, CHANNEL_POOL_CAPACITY);
+        } else if (publisherKind.startsWith("batch-")) {
+            int batchSize = Integer.parseInt(publisherKind.substring("batch-".length()));
+            publisher = new BatchingPublisher(remote, router,
+                    BUFFER_CAPACITY, PUBLISHER_THREADS, batchSize, LINGER_MS, CONFIRM_TIMEOUT_MS);
+        } else {
+            throw new IllegalArgumentException("Unknown publisher: " + publisherKind);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        publisher.close();
+        subscription.close();
+        transport.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public void publishWindow(Rides rides) {
+        for (int i = 0; i < WINDOW; i++) {
+            rides.futures[i] = publisher.publish(rides.bodies[i], LiftRideCodec.CONTENT_TYPE_BINARY);
+        }
+        CompletableFuture.allOf(rides.futures).join();
+    }
+
+    @Benchmark
+    @Threads(16)
+    @OperationsPerInvocation(WINDOW)
+    public void publishWindow16Threads(Rides rides) {
+        publishWindow(rides);
+    }
+
+    /**
+     * Delegates to the in-process transport, but makes publishing cost what it does over a socket:
+     * each publish spins for a frame write, and each confirm wait parks for a round trip.
+     */
+    static final class RoundTripTransport implements MessageTransport {
+        private final MessageTransport delegate;
+        private final long writeNanos;
+        private final long roundTripNanos;
+
+        RoundTripTransport(MessageTransport delegate, long writeNanos, long roundTripNanos) {
+            this.delegate = delegate;
+            this.writeNanos = writeNanos;
+            this.roundTripNanos = roundTripNanos;
+        }
+
+        @Override
+        public void declareQueue(String queue) throws IOException {
+            delegate.declareQueue(queue);
+        }
+
+        @Override
+        public void declareExchange(String exchange) throws IOException {
+            delegate.declareExchange(exchange);
+        }
+
+        @Override
+        public void bindQueue(String queue, String exchange, String routingKey) throws IOException {
+            delegate.bindQueue(queue, exchange, routingKey);
+        }
+
+        @Override
+        public long queueDepth(String queue) throws IOException {
+            return delegate.queueDepth(queue);
+        }
+
+        @Override
+        public PublishChannel openPublishChannel(String exchange, boolean confirms) throws IOException {
+            PublishChannel channel = delegate.openPublishChannel(exchange, confirms);
+            return new PublishChannel() {
+                @Override
+                public void publish(String routingKey, byte[] body, String contentType) throws IOException {
+                    // 写 socket 占 CPU，用自旋而不是 park
+                    long end = System.nanoTime() + writeNanos;
+                    while (System.nanoTime() < end) {
+                        Thread.onSpinWait();
+                    }
+                    channel.publish(routingKey, body, contentType);
+                }
+
+                @Override
+                public void waitForConfirms(long timeoutMillis)
+                        throws IOException, InterruptedException, TimeoutException {
+                    // 等 broker 的 ack 不占 CPU
+                    long end = System.nanoTime() + roundTripNanos;
+                    for (long left = roundTripNanos; left > 0; left = end - System.nanoTime()) {
+                        LockSupport.parkNanos(left);
+                    }
+                    channel.waitForConfirms(timeoutMillis);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return channel.isOpen();
+                }
+
+                @Override
+                public void close() {
+                    channel.close();
+                }
+            };
+        }
+
+        @Override
+        public Subscription subscribe(List<String> queues, int prefetch, DeliveryHandler handler) throws IOException {
+            return delegate.subscribe(queues, prefetch, handler);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.wjfzk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summarizing a large request log: {@link ClientLatencyAnalyzer} streaming the binary log and the
+ * CSV log into histograms, against the original analyzer that split every CSV line and sorted a
+ * {@code List<Long>} of all latencies. The log is written once per trial, one request every
+ * 100 µs with log-normally distributed latencies; pass {@code -p records=10000000} for a
+ * larger one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ClientLatencyAnalyzerBenchmark {
+    @Param({"1000000"})
+    public int records;
+
+    private Path binaryLog;
+    private Path csvLog;
+
+    @Setup(Level.Trial)
+    public void writeLogs() throws IOException {
+        binaryLog = Files.createTempFile("bench-latency", ".bin");
+        csvLog = Files.createTempFile("bench-latency", ".csv");
+        SplittableRandom random = new SplittableRandom(42);
+        try (RequestLog log = new RequestLog(binaryLog)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                long startNanos = start + i * 100_000L;
+                // 中位数约 20ms 的对数正态分布
+                long latencyNanos = (long) (20e6 * Math.exp(0.6 * nextGaussian(random)));
+                log.record(startNanos, startNanos + latencyNanos, i % 100 == 0 ? 503 : 201, RequestLog.METHOD_POST);
+            }
+        }
+        RequestLog.toCsv(binaryLog, csvLog);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLogs() throws IOException {
+        Files.deleteIfExists(binaryLog);
+        Files.deleteIfExists(csvLog);
+    }
+
+    @Benchmark
+    public ClientLatencyAnalyzer histogramsFromBinary() throws IOException {
+        ClientLatencyAnalyzer analyzer = new ClientLatencyAnalyzer();
+        analyzer.read(binaryLog);
+        return analyzer;
+    }
+
+    @Benchmark
+    public ClientLatencyAnalyzer histogramsFromCsv() throws IOException {
+        ClientLatencyAnalyzer analyzer = new ClientLatencyAnalyzer();
+        analyzer.read(csvLog);
+        return analyzer;
+    }
+
+    // 改造前的分析：逐行 split，装箱进 List<Long> 后整体排序取分位数
+    @Benchmark
+    public long legacySortCsv() throws IOException {
+        List<Long> latencies = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(csvLog)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length < 4) {
+                    continue;
+                }
+                Long.parseLong(parts[0]);
+                latencies.add(Long.parseLong(parts[2]));
+            }
+        }
+        Collections.sort(latencies);
+        return latencies.get(latencies.size() / 2) + latencies.get((int) (latencies.size() * 0.99));
+    }
+
+    private static double nextGaussian(SplittableRandom random) {
+        // Box-Muller
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+}
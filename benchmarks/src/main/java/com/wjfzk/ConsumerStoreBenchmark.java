@@ -0,0 +1,137 @@
+package com.wjfzk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The consumer's per-message work ({@code storeMessage}): decode, claim the eventID in the
+ * deduplicator, append to the sink behind the read aggregates, and flush and commit once per
+ * batch, as each consumer channel does. Run at 1 to 64 threads sharing one sink, deduplicator and
+ * aggregates to show where the shared structures start to contend. Sinks are recreated every
+ * iteration so the heap and the segment directory do not grow across the run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsumerStoreBenchmark {
+    private static final int BATCH_SIZE = 50;
+    private static final int MAX_SKIER_ID = SkierRideStore.DEFAULT_MAX_SKIER_ID;
+    private static final long EVENT_ID_BOUND = LiftRide.MAX_EVENT_ID;
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({"memory", "segment"})
+        public String store;
+
+        @Param({"true", "false"})
+        public boolean dedup;
+
+        RideSink sink;
+        EventDeduplicator deduplicator;
+        private Path directory;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            RideAggregates aggregates = new RideAggregates();
+            RideSink base;
+            if ("segment".equals(store)) {
+                directory = Files.createTempDirectory("bench-rides");
+                base = new SegmentRideSink(directory, 64 * 1024 * 1024, MAX_SKIER_ID);
+            } else {
+                base = new MemoryRideSink(new SkierRideStore());
+            }
+            sink = aggregates.wrap(base);
+            deduplicator = dedup ? new EventDeduplicator(1_000_000, 1e-6, 10 * 60 * 1000) : null;
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            sink.close();
+            if (directory != null) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Channel {
+        final SplittableRandom random = new SplittableRandom();
+        final byte[] message = new byte[LiftRideCodec.V2_LENGTH];
+        final LiftRide ride = new LiftRide();
+        final long[] claimed = new long[BATCH_SIZE];
+        int claimedCount;
+        int batched;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public LiftRide store01Thread(Store store, Channel channel) throws IOException {
+        return storeMessage(store, channel);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public LiftRide store04Threads(Store store, Channel channel) throws IOException {
+        return storeMessage(store, channel);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public LiftRide store16Threads(Store store, Channel channel) throws IOException {
+        return storeMessage(store, channel);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public LiftRide store64Threads(Store store, Channel channel) throws IOException {
+        return storeMessage(store, channel);
+    }
+
+    private static LiftRide storeMessage(Store store, Channel channel) throws IOException {
+        SplittableRandom random = channel.random;
+        // 服务端写出的二进制消息；eventID 每条不同，去重器走的是正常的新事件路径
+        LiftRideCodec.encode(random.nextInt(10) + 1, 2025, 1, random.nextInt(MAX_SKIER_ID) + 1,
+                random.nextInt(40) + 1, random.nextInt(360) + 1, random.nextLong(1, EVENT_ID_BOUND),
+                channel.message, 0);
+        Consumer.decode(channel.message, LiftRideCodec.CONTENT_TYPE_BINARY, channel.ride);
+        if (store.deduplicator == null || store.deduplicator.tryClaim(channel.ride.getEventID())) {
+            if (store.deduplicator != null) {
+                channel.claimed[channel.claimedCount++] = channel.ride.getEventID();
+            }
+            store.sink.append(channel.ride);
+        }
+        if (++channel.batched == BATCH_SIZE) {
+            store.sink.flush();
+            if (store.deduplicator != null) {
+                store.deduplicator.commit(channel.claimed, channel.claimedCount);
+            }
+            channel.claimedCount = 0;
+            channel.batched = 0;
+        }
+        return channel.ride;
+    }
+}
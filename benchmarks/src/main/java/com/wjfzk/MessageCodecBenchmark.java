@@ -0,0 +1,59 @@
+package com.wjfzk;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue message serialization: Gson JSON (the original format) against the fixed-width
+ * {@link LiftRideCodec} binary format, and decoding both the way the consumer does. The server's
+ * hand-written JSON fallback is measured by {@link RideRequestParserBenchmark#parseJsonMessage}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+    private final Gson gson = new Gson();
+    private final LiftRide ride = new LiftRide(7, 2025, 123, 54321, 17, 217).setEventID(123456789012345678L);
+    private final LiftRide decoded = new LiftRide();
+    private final byte[] binary = LiftRideCodec.encode(ride);
+    private final byte[] json = gson.toJson(ride).getBytes(StandardCharsets.UTF_8);
+    private final byte[] out = new byte[LiftRideCodec.V2_LENGTH];
+
+    @Benchmark
+    public byte[] encodeGson() {
+        return gson.toJson(ride).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        LiftRideCodec.encode(ride.getResortID(), ride.getSeasonID(), ride.getDayID(), ride.getSkierID(),
+                ride.getLiftID(), ride.getTime(), ride.getEventID(), out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public LiftRide decodeJson() {
+        Consumer.decode(json, LiftRideCodec.CONTENT_TYPE_JSON, decoded);
+        return decoded;
+    }
+
+    @Benchmark
+    public LiftRide decodeBinary() {
+        Consumer.decode(binary, LiftRideCodec.CONTENT_TYPE_BINARY, decoded);
+        return decoded;
+    }
+}
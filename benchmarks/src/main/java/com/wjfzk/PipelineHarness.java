@@ -0,0 +1,203 @@
+package com.wjfzk;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the whole ingest pipeline in one JVM with no network besides loopback: {@code SkierServlet}
+ * in an embedded Tomcat, the {@link Consumer}, and the open-loop load client, with the servlet and
+ * the consumer talking through {@link InProcessBroker#shared()}. Each {@link LoadPhase} reports
+ * what the client saw (HTTP throughput and latency) next to what made it through the pipeline:
+ * rides acked by the consumer per second and the publish-to-ack latency.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.wjfzk.PipelineHarness
+ * </pre>
+ * {@code -Dharness.load} takes a {@link LoadPhase#parse} spec; other knobs are
+ * {@code harness.partitions} (queue partitions, applied to both sides),
+ * {@code harness.port} (0 picks a free port), {@code harness.maxInFlight},
+ * {@code harness.warmupSeconds}, {@code harness.drainSeconds}, {@code harness.seed} and
+ * {@code harness.results}. Servlet settings go in as {@code -Dskier.*} and consumer settings as
+ * {@code -Dconsumer.*}, as in a normal deployment; the workload profile is {@code -Dclient.profile.*}.
+ */
+public class PipelineHarness {
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping()
+            .serializeSpecialFloatingPointValues().create();
+    private static final int LATENCY_PRECISION_BITS = 8;
+
+    private static final String LOAD_SPEC = System.getProperty("harness.load", "step:2000:10000:2000:20");
+    private static final String PARTITIONS = System.getProperty("harness.partitions", "1");
+    private static final int PORT = Integer.getInteger("harness.port", 0);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("harness.maxInFlight", 2000);
+    private static final int WARMUP_SECONDS = Integer.getInteger("harness.warmupSeconds", 10);
+    // 客户端发完后等待消费端处理完积压的最长时间
+    private static final int DRAIN_SECONDS = Integer.getInteger("harness.drainSeconds", 60);
+    private static final long SEED = Long.getLong("harness.seed", System.nanoTime());
+    private static final String RESULTS_FILE = System.getProperty("harness.results", "pipeline_results.json");
+
+    private final Consumer consumer;
+    private final String baseUrl;
+    private final RequestLog requestLog;
+    private final WorkloadProfile profile;
+    private final SplittableRandom seeds = new SplittableRandom(SEED);
+    // 当前阶段的 publish 到 ack 延迟（微秒），由 ack 线程并发写入，用自身加锁
+    private volatile LogLinearHistogram pipelineLatency = new LogLinearHistogram(LATENCY_PRECISION_BITS);
+    private final List<PhaseReport> phases = new ArrayList<>();
+
+    PipelineHarness(Consumer consumer, String baseUrl, RequestLog requestLog, WorkloadProfile profile) {
+        this.consumer = consumer;
+        this.baseUrl = baseUrl;
+        this.requestLog = requestLog;
+        this.profile = profile;
+        InProcessBroker.shared().setAckListener(nanos -> {
+            LogLinearHistogram histogram = pipelineLatency;
+            synchronized (histogram) {
+                histogram.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<LoadPhase> load = LoadPhase.parse(LOAD_SPEC);
+        Path workDir = Files.createTempDirectory("pipeline-harness");
+        // 两端都走进程内队列；查询接口和快照与吞吐无关，默认关闭
+        defaultProperty("skier.transport", "inprocess");
+        defaultProperty("skier.spill.enabled", "false");
+        defaultProperty("skier.queue.partitions", PARTITIONS);
+        defaultProperty("consumer.transport", "inprocess");
+        defaultProperty("consumer.partitions", PARTITIONS);
+        defaultProperty("consumer.store.dir", workDir.resolve("rides").toString());
+        defaultProperty("consumer.snapshot.enabled", "false");
+        defaultProperty("consumer.http.port", "0");
+
+        Consumer consumer = new Consumer();
+        consumer.startConsuming();
+        Tomcat tomcat = startServer(workDir);
+        String baseUrl = "http://localhost:" + tomcat.getConnector().getLocalPort();
+        System.out.println("Pipeline harness: server at " + baseUrl + ", work dir " + workDir + ", seed " + SEED);
+
+        try (RequestLog requestLog = new RequestLog(workDir.resolve("requests.bin"))) {
+            WorkloadProfile profile = WorkloadProfile.fromSystemProperties();
+            System.out.println("Workload profile: " + profile);
+            PipelineHarness harness = new PipelineHarness(consumer, baseUrl, requestLog, profile);
+            if (WARMUP_SECONDS > 0) {
+                double rate = Math.max(1, load.get(0).fromRate);
+                harness.runPhase(new LoadPhase("warmup", rate, rate, WARMUP_SECONDS));
+            }
+            for (LoadPhase phase : load) {
+                harness.runPhase(phase);
+            }
+            harness.writeReport(Paths.get(RESULTS_FILE));
+        } finally {
+            // 先停消费端：它的线程是由 Tomcat 线程按需创建的，带着 webapp 的类加载器，
+            // Tomcat 停止时若仍在运行会被当成泄漏
+            consumer.stopConsuming();
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    private static void defaultProperty(String name, String value) {
+        if (System.getProperty(name) == null) {
+            System.setProperty(name, value);
+        }
+    }
+
+    /** SkierServlet lives in the default package, so it is created by name rather than imported. */
+    private static Tomcat startServer(Path workDir) throws Exception {
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(workDir.resolve("tomcat").toString());
+        tomcat.setPort(PORT);
+        Context context = tomcat.addContext("", workDir.toAbsolutePath().toString());
+        Servlet servlet = (Servlet) Class.forName("SkierServlet").getDeclaredConstructor().newInstance();
+        Wrapper wrapper = Tomcat.addServlet(context, "SkierServlet", servlet);
+        wrapper.setAsyncSupported(true);
+        wrapper.setLoadOnStartup(1);
+        context.addServletMappingDecoded("/skiers/*", "SkierServlet");
+        tomcat.getConnector();
+        tomcat.start();
+        return tomcat;
+    }
+
+    private void runPhase(LoadPhase phase) throws InterruptedException {
+        System.out.println("--- Phase " + phase + " ---");
+        LogLinearHistogram latency = new LogLinearHistogram(LATENCY_PRECISION_BITS);
+        pipelineLatency = latency;
+        long settledBefore = consumer.settledCount();
+        long start = System.nanoTime();
+        SkierLiftGenerator generator = new SkierLiftGenerator(seeds.split(), profile);
+        OpenLoopLoadGenerator.Result client =
+                new OpenLoopLoadGenerator(baseUrl, phase.schedule(generator), MAX_IN_FLIGHT, requestLog).run();
+        // 每个 201 都对应一条已入队的消息，等消费端全部处理完再计时
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        while (consumer.settledCount() - settledBefore < client.successful && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long consumed = consumer.settledCount() - settledBefore;
+        PhaseReport report;
+        synchronized (latency) {
+            report = new PhaseReport(phase, client, consumed, seconds, latency);
+        }
+        phases.add(report);
+        System.out.printf("Phase %s: offered %.0f/s, HTTP %.0f/s (p99 %.1f ms), pipeline %.0f events/s, "
+                        + "publish-to-ack p50 %.2f ms p99 %.2f ms%s%n",
+                phase.name, report.offeredRate, client.throughput, client.p99Ms, report.eventsPerSecond,
+                report.pipelineP50Ms, report.pipelineP99Ms,
+                consumed < client.successful ? String.format(" (%d not consumed within %d s)",
+                        client.successful - consumed, DRAIN_SECONDS) : "");
+    }
+
+    private void writeReport(Path file) {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            gson.toJson(phases, out);
+            System.out.println("Wrote per-phase results to " + file);
+        } catch (IOException e) {
+            System.out.println("Error writing " + file + ": " + e.getMessage());
+        }
+    }
+
+    static class PhaseReport {
+        final LoadPhase phase;
+        final double offeredRate;
+        final OpenLoopLoadGenerator.Result client;
+        // 阶段开始到消费端处理完最后一条的事件数与耗时
+        final long eventsConsumed;
+        final double seconds;
+        final double eventsPerSecond;
+        final double pipelineMeanMs;
+        final double pipelineP50Ms;
+        final double pipelineP99Ms;
+        final double pipelineP999Ms;
+        final double pipelineMaxMs;
+
+        PhaseReport(LoadPhase phase, OpenLoopLoadGenerator.Result client, long eventsConsumed, double seconds,
+                    LogLinearHistogram latency) {
+            this.phase = phase;
+            this.offeredRate = (phase.fromRate + phase.toRate) / 2;
+            this.client = client;
+            this.eventsConsumed = eventsConsumed;
+            this.seconds = seconds;
+            this.eventsPerSecond = seconds > 0 ? eventsConsumed / seconds : 0;
+            this.pipelineMeanMs = latency.mean() / 1000.0;
+            this.pipelineP50Ms = latency.valueAtPercentile(50) / 1000.0;
+            this.pipelineP99Ms = latency.valueAtPercentile(99) / 1000.0;
+            this.pipelineP999Ms = latency.valueAtPercentile(99.9) / 1000.0;
+            this.pipelineMaxMs = latency.max() / 1000.0;
+        }
+    }
+}
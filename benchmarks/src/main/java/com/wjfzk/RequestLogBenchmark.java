@@ -0,0 +1,86 @@
+package com.wjfzk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording one response: {@link RequestLog}'s per-thread binary buffers against the original
+ * client path, a {@code printf} plus {@code flush} to a shared CSV writer under a global lock.
+ * Measured with 1 and 16 recording threads, like the client's worker pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestLogBenchmark {
+    private static final Object LEGACY_LOCK = new Object();
+
+    private Path binaryFile;
+    private Path csvFile;
+    private RequestLog requestLog;
+    private PrintWriter csvWriter;
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        binaryFile = Files.createTempFile("bench-requests", ".bin");
+        csvFile = Files.createTempFile("bench-requests", ".csv");
+        requestLog = new RequestLog(binaryFile);
+        csvWriter = new PrintWriter(new FileWriter(csvFile.toFile(), true));
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        requestLog.close();
+        csvWriter.close();
+        Files.deleteIfExists(binaryFile);
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Benchmark
+    public void requestLog() {
+        long start = System.nanoTime();
+        requestLog.record(start, start + 12_345_678, 201, RequestLog.METHOD_POST);
+    }
+
+    @Benchmark
+    public void legacyPrintf() {
+        long startMillis = System.currentTimeMillis();
+        long latency = 12;
+        synchronized (LEGACY_LOCK) {
+            csvWriter.printf("%d,POST,%d,%d,%.2f%n", startMillis, latency, 201, 1000.0 / latency);
+            csvWriter.flush();
+        }
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void requestLog16Threads() {
+        requestLog();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void legacyPrintf16Threads() {
+        legacyPrintf();
+    }
+}
@@ -0,0 +1,99 @@
+package com.wjfzk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The consumer's lanes storing rides with everything they share switched on: the snapshot append
+ * lock, the deduplicator and the aggregates' change log. Each invocation hands {@link #WINDOW}
+ * rides of random skiers to the lanes and waits until all are settled, so the numbers show how
+ * far storing scales with the lane count before the shared structures serialize it. The store is
+ * recreated every iteration so the heap does not grow across the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RideLanesBenchmark {
+    private static final int WINDOW = 4096;
+    private static final int BATCH_SIZE = 50;
+    private static final int CHANGE_LOG_CAPACITY = 65536;
+    private static final int MAX_SKIER_ID = SkierRideStore.DEFAULT_MAX_SKIER_ID;
+
+    @Param({"1", "4", "16"})
+    public int lanes;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final byte[][] bodies = new byte[WINDOW][LiftRideCodec.V2_LENGTH];
+    private final int[] skierIds = new int[WINDOW];
+    private ScheduledExecutorService timer;
+    private RideSink sink;
+    private RideLanes rideLanes;
+    private volatile CountDownLatch pending;
+    private final RideLanes.Owner owner = (task, outcome) -> pending.countDown();
+
+    @Setup(Level.Trial)
+    public void startTimer() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Setup(Level.Iteration)
+    public void open() {
+        RideAggregates aggregates = new RideAggregates();
+        aggregates.trackChanges(CHANGE_LOG_CAPACITY);
+        sink = aggregates.wrap(new MemoryRideSink(new SkierRideStore()));
+        EventDeduplicator deduplicator = new EventDeduplicator(1_000_000, 1e-6, 10 * 60 * 1000);
+        rideLanes = new RideLanes(lanes, BATCH_SIZE, 1, timer, sink, deduplicator,
+                new ReentrantReadWriteLock().readLock());
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        rideLanes.close();
+        sink.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopTimer() {
+        timer.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public void storeWindow() throws InterruptedException {
+        // 上一轮的消息都已结算，可以复用消息体；eventID 每条不同，去重器走的是正常的新事件路径
+        for (int i = 0; i < WINDOW; i++) {
+            skierIds[i] = random.nextInt(MAX_SKIER_ID) + 1;
+            LiftRideCodec.encode(random.nextInt(10) + 1, 2025, 1, skierIds[i], random.nextInt(40) + 1,
+                    random.nextInt(360) + 1, random.nextLong(1, LiftRide.MAX_EVENT_ID), bodies[i], 0);
+        }
+        pending = new CountDownLatch(WINDOW);
+        for (int i = 0; i < WINDOW; i++) {
+            rideLanes.submit(skierIds[i], new RideLanes.Task(owner, i,
+                    new MessageTransport.Message(i + 1, bodies[i], LiftRideCodec.CONTENT_TYPE_BINARY)));
+        }
+        pending.await();
+    }
+}
@@ -0,0 +1,92 @@
+package com.wjfzk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path validation and body parsing of {@code POST /skiers/...} as {@code SkierServlet} does it
+ * with {@link RideRequestParser}, against the original split/regex/Gson-tree handling.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RideRequestParserBenchmark {
+    private static final String PATH = "/7/seasons/2025/days/123/skiers/54321";
+    private static final byte[] BODY = "{\"liftID\":17,\"time\":217,\"eventID\":123456789012345678}"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final String DAY_PATTERN = "^([1-9]|[1-9][0-9]|[12][0-9][0-9]|3[0-5][0-9]|36[0-6])$";
+
+    private final RideRequestParser parser = new RideRequestParser();
+    private final ByteArrayInputStream body = new ByteArrayInputStream(BODY);
+    private final Gson gson = new Gson();
+
+    @Benchmark
+    public String parsePath() {
+        return parser.parsePath(PATH);
+    }
+
+    @Benchmark
+    public byte[] parseBinaryMessage() throws IOException {
+        return parseAndWrite(true);
+    }
+
+    @Benchmark
+    public byte[] parseJsonMessage() throws IOException {
+        return parseAndWrite(false);
+    }
+
+    private byte[] parseAndWrite(boolean preferBinary) throws IOException {
+        body.reset();
+        if (parser.parsePath(PATH) != null || parser.readBody(body) != null || parser.parseBody() != null) {
+            throw new IllegalStateException("benchmark request rejected");
+        }
+        parser.writeMessage(preferBinary);
+        return parser.copyMessage();
+    }
+
+    // 改造前的 SkierServlet：split 校验路径、正则校验 dayID、读成 String 后用 Gson 建树再序列化
+    @Benchmark
+    public byte[] legacySplitAndGsonTree() throws IOException {
+        String[] segments = PATH.split("/");
+        if (segments.length != 8 || !segments[5].matches(DAY_PATTERN)) {
+            throw new IllegalStateException("benchmark request rejected");
+        }
+        int resortId = Integer.parseInt(segments[1]);
+        int skierId = Integer.parseInt(segments[7]);
+        body.reset();
+        StringBuilder builder = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.append(line);
+            }
+        }
+        JsonObject payload = gson.fromJson(builder.toString(), JsonObject.class);
+        payload.addProperty("resortID", resortId);
+        payload.addProperty("dayID", segments[5]);
+        payload.addProperty("skierID", skierId);
+        payload.addProperty("seasonID", RideRequestParser.FIXED_SEASON_ID);
+        payload.addProperty("time", payload.get("time").getAsString());
+        payload.addProperty("liftID", payload.get("liftID").getAsInt());
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+package com.wjfzk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Consumer startup: rebuilding the {@link SegmentRideSink} indexes and the read aggregates by
+ * scanning every segment, against loading them from a {@link ConsumerSnapshot} taken at the end
+ * of the store. The store and snapshot are written once per trial. The page cache is warm after
+ * the first iteration, so these are warm-restart times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SegmentRecoveryBenchmark {
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_SKIER_ID = SkierRideStore.DEFAULT_MAX_SKIER_ID;
+
+    @Param({"1000000", "10000000"})
+    public int rides;
+
+    private Path directory;
+    private Path snapshotFile;
+
+    @Setup(Level.Trial)
+    public void writeStore() throws IOException {
+        directory = Files.createTempDirectory("bench-recovery");
+        snapshotFile = directory.resolve("consumer.snapshot");
+        RideAggregates aggregates = new RideAggregates();
+        SplittableRandom random = new SplittableRandom(42);
+        LiftRide ride = new LiftRide();
+        try (SegmentRideSink sink = new SegmentRideSink(directory, SEGMENT_BYTES, MAX_SKIER_ID)) {
+            RideSink wrapped = aggregates.wrap(sink);
+            for (int i = 0; i < rides; i++) {
+                ride.set(random.nextInt(10) + 1, 2025, random.nextInt(3) + 1, random.nextInt(MAX_SKIER_ID) + 1,
+                        random.nextInt(40) + 1, random.nextInt(360) + 1);
+                wrapped.append(ride);
+            }
+            wrapped.flush();
+            ConsumerSnapshot.write(snapshotFile,
+                    ConsumerSnapshot.copy(null, ConsumerSnapshot.STORE_SEGMENT, sink.rideCount(), sink, aggregates, null));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteStore() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long fullScan() throws IOException {
+        RideAggregates aggregates = new RideAggregates();
+        try (SegmentRideSink sink = new SegmentRideSink(directory, SEGMENT_BYTES, MAX_SKIER_ID, aggregates::add)) {
+            return sink.rideCount();
+        }
+    }
+
+    @Benchmark
+    public long fromSnapshot() throws IOException {
+        ConsumerSnapshot snapshot = ConsumerSnapshot.open(snapshotFile);
+        RideAggregates aggregates = new RideAggregates();
+        aggregates.restoreSnapshot(snapshot.aggregates());
+        try (SegmentRideSink sink = new SegmentRideSink(directory, SEGMENT_BYTES, MAX_SKIER_ID, aggregates::add,
+                snapshot.store(), snapshot.checkpoint())) {
+            return sink.rideCount();
+        }
+    }
+}
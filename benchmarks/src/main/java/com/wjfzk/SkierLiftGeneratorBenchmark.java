@@ -0,0 +1,121 @@
+package com.wjfzk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event generation for the load client: every worker drawing from its own
+ * {@link SkierLiftGenerator} against the original design, one producer thread feeding all workers
+ * through a shared {@link LinkedBlockingQueue}. Measured at 1, 4 and 16 worker threads, for the
+ * uniform profile and a Zipfian one whose sampling does a binary search per key.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SkierLiftGeneratorBenchmark {
+    private static final int QUEUE_CAPACITY = 10000;
+
+    @State(Scope.Benchmark)
+    public static class Profile {
+        @Param({"uniform", "zipf"})
+        public String skiers;
+
+        WorkloadProfile profile;
+
+        @Setup(Level.Trial)
+        public void create() {
+            profile = new WorkloadProfile("zipf".equals(skiers) ? "zipf:1.1" : "uniform", 100000, "uniform", 40,
+                    10, 1, "uniform");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        SkierLiftGenerator generator;
+
+        @Setup(Level.Trial)
+        public void create(Profile profile) {
+            generator = new SkierLiftGenerator(new SplittableRandom(), profile.profile);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedQueue {
+        final BlockingQueue<SkierLiftEvent> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private Thread producer;
+
+        @Setup(Level.Trial)
+        public void start(Profile profile) {
+            SkierLiftGenerator generator = new SkierLiftGenerator(new SplittableRandom(), profile.profile);
+            producer = new Thread(() -> {
+                try {
+                    while (true) {
+                        queue.put(generator.next());
+                    }
+                } catch (InterruptedException e) {
+                    // 试验结束
+                }
+            }, "event-producer");
+            producer.setDaemon(true);
+            producer.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            producer.interrupt();
+        }
+    }
+
+    @Benchmark
+    public SkierLiftEvent perWorker(Worker worker) {
+        return worker.generator.next();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public SkierLiftEvent perWorker4Threads(Worker worker) {
+        return worker.generator.next();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public SkierLiftEvent perWorker16Threads(Worker worker) {
+        return worker.generator.next();
+    }
+
+    @Benchmark
+    public SkierLiftEvent sharedQueue(SharedQueue shared) throws InterruptedException {
+        return shared.queue.take();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public SkierLiftEvent sharedQueue4Threads(SharedQueue shared) throws InterruptedException {
+        return shared.queue.take();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public SkierLiftEvent sharedQueue16Threads(SharedQueue shared) throws InterruptedException {
+        return shared.queue.take();
+    }
+}
@@ -0,0 +1,153 @@
+package com.wjfzk;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dense, lock-striped {@link SkierRideStore} against the original
+ * {@code ConcurrentHashMap<Integer, List<Integer>>} of synchronized lists.
+ *
+ * <p>The {@code append*} benchmarks time {@link #APPENDS} appends per thread of random skiers and
+ * lifts; both stores are recreated every iteration, so they never hold more than that. The
+ * {@code retained*} benchmarks fill each store with the same {@link #RIDES} rides and report, as
+ * {@code retainedBytes}, how much the heap grew across the fill, measured after a full GC. They
+ * run a single measurement iteration; with {@code -i} they would report the sum over iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = SkierRideStoreBenchmark.APPENDS)
+@Measurement(iterations = 10, batchSize = SkierRideStoreBenchmark.APPENDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SkierRideStoreBenchmark {
+    static final int APPENDS = 1_000_000;
+    // 10 万个 skier，平均每人 100 次
+    static final int RIDES = 10_000_000;
+    private static final int MAX_SKIER_ID = SkierRideStore.DEFAULT_MAX_SKIER_ID;
+
+    private SkierRideStore store;
+    private ConcurrentHashMap<Integer, List<Integer>> boxed;
+
+    @State(Scope.Thread)
+    public static class Rides {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    /** The same rides for both stores, generated once so they are part of the baseline heap. */
+    @State(Scope.Benchmark)
+    public static class FixedRides {
+        final int[] skierIds = new int[RIDES];
+        final int[] liftIds = new int[RIDES];
+
+        @Setup(Level.Trial)
+        public void generate() {
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < RIDES; i++) {
+                skierIds[i] = random.nextInt(MAX_SKIER_ID) + 1;
+                liftIds[i] = random.nextInt(40) + 1;
+            }
+        }
+    }
+
+    // JMH 把各测量轮的 EVENTS 计数相加，所以 retained* 只测一轮
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedBytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            retainedBytes = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        store = new SkierRideStore();
+        boxed = new ConcurrentHashMap<>();
+    }
+
+    @Benchmark
+    public SkierRideStore appendDense(Rides rides) {
+        store.append(rides.random.nextInt(MAX_SKIER_ID) + 1, rides.random.nextInt(40) + 1);
+        return store;
+    }
+
+    @Benchmark
+    public List<Integer> appendBoxedMap(Rides rides) {
+        List<Integer> list = boxed.computeIfAbsent(rides.random.nextInt(MAX_SKIER_ID) + 1,
+                k -> Collections.synchronizedList(new ArrayList<>()));
+        list.add(rides.random.nextInt(40) + 1);
+        return list;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public SkierRideStore appendDense8Threads(Rides rides) {
+        return appendDense(rides);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<Integer> appendBoxedMap8Threads(Rides rides) {
+        return appendBoxedMap(rides);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 1, batchSize = 1)
+    @Measurement(iterations = 1, batchSize = 1)
+    public long retainedDense(FixedRides rides, Footprint footprint) {
+        long before = usedHeapAfterGc();
+        SkierRideStore filled = new SkierRideStore();
+        for (int i = 0; i < RIDES; i++) {
+            filled.append(rides.skierIds[i], rides.liftIds[i]);
+        }
+        footprint.retainedBytes = usedHeapAfterGc() - before;
+        Reference.reachabilityFence(filled);
+        return filled.totalRides();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 1, batchSize = 1)
+    @Measurement(iterations = 1, batchSize = 1)
+    public int retainedBoxedMap(FixedRides rides, Footprint footprint) {
+        long before = usedHeapAfterGc();
+        ConcurrentHashMap<Integer, List<Integer>> filled = new ConcurrentHashMap<>();
+        for (int i = 0; i < RIDES; i++) {
+            filled.computeIfAbsent(rides.skierIds[i], k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(rides.liftIds[i]);
+        }
+        footprint.retainedBytes = usedHeapAfterGc() - before;
+        Reference.reachabilityFence(filled);
+        return filled.size();
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        // 两次 full GC：第一次可能只回收了一部分
+        memory.gc();
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
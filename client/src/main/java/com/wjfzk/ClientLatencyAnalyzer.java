@@ -1,69 +1,179 @@
 package com.wjfzk;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
+// 请求日志流式汇总为微秒精度的直方图（全部、按状态码、按秒），内存只随运行秒数增长
+// 可合并多台客户端的日志：java -cp client.jar com.wjfzk.ClientLatencyAnalyzer a.bin b.bin [--series out.csv]
+// 读二进制 RequestLog 格式和旧的 CSV（毫秒精度）
 public class ClientLatencyAnalyzer {
-  public static void latencyComputation(String logFile, int totalRequests) {
-    List<Long> latencies = new ArrayList<>();
-    long totalLatency = 0;
-    long minLatency = Long.MAX_VALUE;
-    long maxLatency = Long.MIN_VALUE;
-    long globalStartTime = Long.MAX_VALUE; // 记录所有请求中最早的开始时间
-    long globalEndTime = Long.MIN_VALUE;   // 记录所有请求中最晚的结束时间
+  // 总体与按状态码的直方图误差 < 0.8%；每秒的直方图用更粗的精度（< 3.2%）节省内存
+  private static final int OVERALL_PRECISION_BITS = 8;
+  private static final int PER_SECOND_PRECISION_BITS = 6;
+  private static final int READ_BUFFER_BYTES = 1 << 20;
 
-    try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] parts = line.split(",");
-        if (parts.length < 4) {
-            continue;
-        }
-        long startTime = Long.parseLong(parts[0]);
-        long latency = Long.parseLong(parts[2]);
-        long endTime = startTime + latency;
+  private final LogLinearHistogram overall = new LogLinearHistogram(OVERALL_PRECISION_BITS);
+  private final Map<Integer, LogLinearHistogram> byStatus = new TreeMap<>();
+  private final Map<Long, Second> bySecond = new TreeMap<>();
+  private long firstStartMicros = Long.MAX_VALUE;
+  private long lastEndMicros = Long.MIN_VALUE;
 
-        // 更新全局开始和结束时间
-        globalStartTime = Math.min(globalStartTime, startTime);
-        globalEndTime = Math.max(globalEndTime, endTime);
+  public static void main(String[] args) throws IOException {
+    ClientLatencyAnalyzer analyzer = new ClientLatencyAnalyzer();
+    String series = null;
+    for (int i = 0; i < args.length; i++) {
+      if ("--series".equals(args[i]) && i + 1 < args.length) {
+        series = args[++i];
+      } else {
+        analyzer.read(Paths.get(args[i]));
+      }
+    }
+    analyzer.printSummary();
+    if (series != null) {
+      analyzer.writeSeries(Paths.get(series));
+    }
+  }
 
-        latencies.add(latency);
-        minLatency = Math.min(minLatency, latency);
-        maxLatency = Math.max(maxLatency, latency);
-        totalLatency += latency;
+  // 保留客户端原来的调用入口
+  public static void latencyComputation(String... logFiles) {
+    ClientLatencyAnalyzer analyzer = new ClientLatencyAnalyzer();
+    try {
+      for (String logFile : logFiles) {
+        analyzer.read(Paths.get(logFile));
       }
     } catch (IOException e) {
       e.printStackTrace();
     }
+    analyzer.printSummary();
+  }
 
-    if (latencies.isEmpty()) {
-      System.out.println("No latency data found!");
-      return;
+  // 时间为 epoch 起的微秒数
+  public void record(long startMicros, long latencyMicros, int status) {
+    overall.record(latencyMicros);
+    byStatus.computeIfAbsent(status, k -> new LogLinearHistogram(OVERALL_PRECISION_BITS)).record(latencyMicros);
+    Second second = bySecond.computeIfAbsent(startMicros / 1_000_000, k -> new Second());
+    second.latency.record(latencyMicros);
+    if (status < 200 || status >= 300) {
+      second.errors++;
     }
+    firstStartMicros = Math.min(firstStartMicros, startMicros);
+    lastEndMicros = Math.max(lastEndMicros, startMicros + latencyMicros);
+  }
 
-    Collections.sort(latencies);
-    double meanLatency = totalLatency / (double) totalRequests;
-    long medianLatency = latencies.get(latencies.size() / 2);
-    long p99Latency = latencies.get((int) (latencies.size() * 0.99));
+  public void read(Path logFile) throws IOException {
+    if (logFile.getFileName().toString().endsWith(".csv")) {
+      readCsv(logFile);
+    } else {
+      readBinary(logFile);
+    }
+  }
 
-    // 计算全局壁钟时间，单位毫秒
-    long totalWallTime = globalEndTime - globalStartTime;
-    // 计算整体吞吐量（请求数/秒）
-    double overallThroughput = totalRequests / (totalWallTime / 1000.0);
+  private void readBinary(Path logFile) throws IOException {
+    try (FileChannel in = FileChannel.open(logFile, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+      RequestLog.checkHeader(in, logFile);
+      while (in.read(buffer) > 0) {
+        buffer.flip();
+        while (buffer.remaining() >= RequestLog.RECORD_BYTES) {
+          long startNanos = buffer.getLong();
+          long latencyNanos = buffer.getLong();
+          int status = buffer.getInt();
+          buffer.getInt(); // method
+          record(TimeUnit.NANOSECONDS.toMicros(startNanos), TimeUnit.NANOSECONDS.toMicros(latencyNanos), status);
+        }
+        buffer.compact();
+      }
+    }
+  }
 
-    // Call the method to print stats
+  // 旧格式：startMillis,METHOD,latencyMillis,status,throughput；逐字符解析，不用 split
+  private void readCsv(Path logFile) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(logFile)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int c1 = line.indexOf(',');
+        int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+        int c3 = c2 < 0 ? -1 : line.indexOf(',', c2 + 1);
+        int c4 = c3 < 0 ? -1 : line.indexOf(',', c3 + 1);
+        if (c3 < 0) {
+          continue;
+        }
+        long startMillis = parseLong(line, 0, c1);
+        long latencyMillis = parseLong(line, c2 + 1, c3);
+        int status = (int) parseLong(line, c3 + 1, c4 < 0 ? line.length() : c4);
+        if (startMillis < 0 || latencyMillis < 0 || status < 0) {
+          continue;
+        }
+        record(startMillis * 1000, latencyMillis * 1000, status);
+      }
+    }
+  }
+
+  private static long parseLong(String s, int from, int to) {
+    if (from >= to) {
+      return -1;
+    }
+    long value = 0;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  public void printSummary() {
+    if (overall.totalCount() == 0) {
+      System.out.println("No latency data found!");
+      return;
+    }
+    double wallSeconds = (lastEndMicros - firstStartMicros) / 1e6;
     System.out.println();
     System.out.println("======= Client Part2 Output ======= ");
-    System.out.printf("Mean Response Time: %.2f ms%n", meanLatency);
-    System.out.printf("Median Response Time: %d ms%n", medianLatency);
-    System.out.printf("Min Response Time: %d ms%n", minLatency);
-    System.out.printf("Max Response Time: %d ms%n", maxLatency);
-    System.out.printf("Response Time at 99th Percentile: %d ms%n", p99Latency);
-    System.out.printf("Overall Throughput (from logs): %.2f requests/sec%n", overallThroughput);
+    System.out.println("Requests analyzed: " + overall.totalCount());
+    System.out.printf("Mean Response Time: %.3f ms%n", overall.mean() / 1000.0);
+    System.out.printf("Median Response Time: %.3f ms%n", overall.valueAtPercentile(50) / 1000.0);
+    System.out.printf("Min Response Time: %.3f ms%n", overall.min() / 1000.0);
+    System.out.printf("Max Response Time: %.3f ms%n", overall.max() / 1000.0);
+    System.out.printf("Response Time at 99th Percentile: %.3f ms%n", overall.valueAtPercentile(99) / 1000.0);
+    System.out.printf("Response Time at 99.9th Percentile: %.3f ms%n", overall.valueAtPercentile(99.9) / 1000.0);
+    System.out.printf("Overall Throughput (from logs): %.2f requests/sec%n", overall.totalCount() / wallSeconds);
+    System.out.println("By status:       count      p50 ms      p99 ms      max ms");
+    for (Map.Entry<Integer, LogLinearHistogram> entry : byStatus.entrySet()) {
+      LogLinearHistogram h = entry.getValue();
+      System.out.printf("  %3d  %14d  %10.3f  %10.3f  %10.3f%n", entry.getKey(), h.totalCount(),
+          h.valueAtPercentile(50) / 1000.0, h.valueAtPercentile(99) / 1000.0, h.max() / 1000.0);
+    }
   }
 
+  // 每秒一行 CSV：请求数、错误数和延迟分位数（ms）
+  public void writeSeries(Path file) throws IOException {
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+      out.println("epochSecond,requests,errors,p50Ms,p90Ms,p99Ms,maxMs");
+      for (Map.Entry<Long, Second> entry : bySecond.entrySet()) {
+        LogLinearHistogram h = entry.getValue().latency;
+        out.printf("%d,%d,%d,%.3f,%.3f,%.3f,%.3f%n", entry.getKey(), h.totalCount(), entry.getValue().errors,
+            h.valueAtPercentile(50) / 1000.0, h.valueAtPercentile(90) / 1000.0,
+            h.valueAtPercentile(99) / 1000.0, h.max() / 1000.0);
+      }
+    }
+    System.out.println("Wrote per-second series for " + bySecond.size() + " seconds to " + file);
+  }
+
+  private static class Second {
+    final LogLinearHistogram latency = new LogLinearHistogram(PER_SECOND_PRECISION_BITS);
+    long errors;
+  }
 }
@@ -1,16 +1,18 @@
 package com.wjfzk;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -22,28 +24,53 @@ import java.util.concurrent.atomic.AtomicInteger;
         private final AtomicInteger failedCounts;
         private final Integer requestPerThread;
         private final CountDownLatch countDownLatch;
-        private final String LOG_FILE = "request_logs.csv";
+        private final RequestLog requestLog;
+        private final SkierLiftGenerator generator;
+        static final int MAX_RETRIES = 5;
+        private static final long BASE_BACKOFF_MS = 100;
+        private static final long MAX_BACKOFF_MS = 5000;
 
-        public HttpWorker(String baseUrl, AtomicInteger successfulRequests, AtomicInteger failedRequests, Integer requestPerThread, CountDownLatch latch) {
+        private static final int SC_MULTI_STATUS = 207;
+        private final int batchSize;
+        // Gson 线程安全，所有 worker 共用一个
+        private static final Gson gson = new Gson();
+
+        public HttpWorker(String baseUrl, AtomicInteger successfulRequests, AtomicInteger failedRequests, Integer requestPerThread, CountDownLatch latch, SkierLiftGenerator generator, RequestLog requestLog) {
+            this(baseUrl, successfulRequests, failedRequests, requestPerThread, latch, 1, generator, requestLog);
+        }
+
+        // batchSize 大于 1 时以 NDJSON 批量发往 /skiers/batch
+        public HttpWorker(String baseUrl, AtomicInteger successfulRequests, AtomicInteger failedRequests, Integer requestPerThread, CountDownLatch latch, int batchSize, SkierLiftGenerator generator, RequestLog requestLog) {
             this.baseUrl = baseUrl;
             this.successfulCounts = successfulRequests;
             this.failedCounts = failedRequests;
             this.requestPerThread = requestPerThread;
             this.countDownLatch = latch;
+            this.batchSize = batchSize;
+            this.requestLog = requestLog;
+            this.generator = generator;
         }
 
         @Override
         public Void call() {
-            try (PrintWriter writer = new PrintWriter(new FileWriter(LOG_FILE, true))) {
+            try {
+                if (batchSize > 1) {
+                    List<SkierLiftEvent> batch = new ArrayList<>(batchSize);
+                    for (int i = 0; i < requestPerThread; i++) {
+                        batch.add(generator.next());
+                        if (batch.size() == batchSize || i == requestPerThread - 1) {
+                            sendBatch(batch);
+                            batch = new ArrayList<>(batchSize);
+                        }
+                    }
+                    return null;
+                }
                 for (int i = 0; i < requestPerThread; i++) {
-                    SkierLiftEvent event = EventGenerator.getEvent();
+                    SkierLiftEvent event = generator.next();
 
-                    String eventUrl = String.format(
-                            "%s/skiers/%d/seasons/%d/days/%d/skiers/%d",
-                            baseUrl, event.getResortID(), event.getSeasonID(), event.getDayID(), event.getSkierID()
-                    );
+                    String eventUrl = baseUrl + "/skiers/" + event.getResortID() + "/seasons/" + event.getSeasonID()
+                            + "/days/" + event.getDayID() + "/skiers/" + event.getSkierID();
 
-                    Gson gson = new Gson();
                     String json = gson.toJson(event);
 
                     HttpRequest request = HttpRequest.newBuilder()
@@ -53,46 +80,32 @@ import java.util.concurrent.atomic.AtomicInteger;
                             .build();
 
                     int retries = 0;
-                    while (retries < 5) {
-                        long startTime = System.currentTimeMillis();
+                    while (true) {
+                        long startTime = System.nanoTime();
+                        int statusCode;
+                        long retryAfterMillis = -1;
                         try {
                             HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-                            long endTime = System.currentTimeMillis();
-                            long latency = endTime - startTime;
-                            double throughput = 1000.0 / latency;
-
-                            synchronized (HttpWorker.class) {
-                                writer.printf("%d,POST,%d,%d,%.2f%n", startTime, latency, response.statusCode(), throughput);
-                                writer.flush();
-                            }
-
-                            if (response.statusCode() == 201) {
-                                successfulCounts.incrementAndGet();
-                                break;
-                            } else {
-
-                                retries++;
-                            }
-                        } catch (Exception e) {
-                            long endTime = System.currentTimeMillis();
-                            long latency = endTime - startTime;
-                            double throughput = 1000.0 / latency;
-
-                            synchronized (HttpWorker.class) {
-                                writer.printf("%d,POST,%d,500,%.2f%n", startTime, latency, throughput);
-                                writer.flush();
-                            }
-
-                            retries++;
-                            if (retries >= 5) {
-                                failedCounts.incrementAndGet();
-                                break;
-                            }
-                            TimeUnit.SECONDS.sleep(1);
+                            statusCode = response.statusCode();
+                            retryAfterMillis = parseRetryAfter(response);
+                        } catch (IOException e) {
+                            statusCode = 500;
+                        }
+                        requestLog.record(startTime, System.nanoTime(), statusCode, RequestLog.METHOD_POST);
+
+                        if (statusCode == 201) {
+                            successfulCounts.incrementAndGet();
+                            break;
                         }
+                        retries++;
+                        if (retries >= MAX_RETRIES) {
+                            failedCounts.incrementAndGet();
+                            break;
+                        }
+                        TimeUnit.MILLISECONDS.sleep(backoffMillis(retries, retryAfterMillis));
                     }
                 }
-            }  catch (InterruptedException | IOException e) {
+            }  catch (InterruptedException e) {
                 throw new RuntimeException(e);
             } finally {
                 if (countDownLatch != null) {
@@ -101,4 +114,119 @@ import java.util.concurrent.atomic.AtomicInteger;
             }
             return null;
         }
+
+        // 207 部分成功时只重发 5xx 或没有状态的条目；校验失败的条目计为失败
+        private void sendBatch(List<SkierLiftEvent> events) throws InterruptedException {
+            List<SkierLiftEvent> pending = events;
+            int retries = 0;
+            while (true) {
+                StringBuilder body = new StringBuilder(pending.size() * 100);
+                for (SkierLiftEvent event : pending) {
+                    body.append(gson.toJson(event)).append('\n');
+                }
+                HttpRequest request = HttpRequest.newBuilder()
+                        .uri(URI.create(baseUrl + "/skiers/batch"))
+                        .header("Content-Type", "application/x-ndjson")
+                        .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                        .build();
+
+                long startTime = System.nanoTime();
+                int statusCode;
+                long retryAfterMillis = -1;
+                String responseBody = null;
+                try {
+                    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                    statusCode = response.statusCode();
+                    responseBody = response.body();
+                    retryAfterMillis = parseRetryAfter(response);
+                } catch (IOException e) {
+                    statusCode = 500;
+                }
+                requestLog.record(startTime, System.nanoTime(), statusCode, RequestLog.METHOD_POST);
+
+                List<SkierLiftEvent> retryable = new ArrayList<>();
+                if (statusCode == 201) {
+                    successfulCounts.addAndGet(pending.size());
+                } else if (statusCode == SC_MULTI_STATUS) {
+                    retryable = settleItems(pending, responseBody);
+                } else if (statusCode >= 400 && statusCode < 500 && statusCode != 429) {
+                    failedCounts.addAndGet(pending.size());
+                } else {
+                    retryable = pending;
+                }
+
+                if (retryable.isEmpty()) {
+                    return;
+                }
+                retries++;
+                if (retries >= MAX_RETRIES) {
+                    failedCounts.addAndGet(retryable.size());
+                    return;
+                }
+                pending = retryable;
+                TimeUnit.MILLISECONDS.sleep(backoffMillis(retries, retryAfterMillis));
+            }
+        }
+
+        // 统计 207 的各条结果，返回需要重发的条目；响应体读不了时全部重发
+        private List<SkierLiftEvent> settleItems(List<SkierLiftEvent> pending, String responseBody) {
+            BatchResult result;
+            try {
+                result = responseBody == null ? null : gson.fromJson(responseBody, BatchResult.class);
+            } catch (JsonParseException e) {
+                result = null;
+            }
+            if (result == null || result.results == null) {
+                return pending;
+            }
+            boolean[] settled = new boolean[pending.size()];
+            List<SkierLiftEvent> retryable = new ArrayList<>();
+            for (BatchItemResult item : result.results) {
+                if (item == null || item.index < 0 || item.index >= settled.length || settled[item.index]) {
+                    continue;
+                }
+                if (item.status == 201) {
+                    successfulCounts.incrementAndGet();
+                } else if (item.status >= 500 || item.status == 0) {
+                    retryable.add(pending.get(item.index));
+                } else {
+                    failedCounts.incrementAndGet();
+                }
+                settled[item.index] = true;
+            }
+            for (int i = 0; i < settled.length; i++) {
+                if (!settled[i]) {
+                    retryable.add(pending.get(i));
+                }
+            }
+            return retryable;
+        }
+
+        // 服务器返回 503/429 时会带 Retry-After（秒），按其等待；否则使用带抖动的指数退避
+        static long backoffMillis(int retries, long retryAfterMillis) {
+            if (retryAfterMillis >= 0) {
+                return Math.min(retryAfterMillis, MAX_BACKOFF_MS);
+            }
+            long ceiling = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (retries - 1));
+            return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        }
+
+        static long parseRetryAfter(HttpResponse<?> response) {
+            return response.headers().firstValue("Retry-After").map(value -> {
+                try {
+                    return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+                } catch (NumberFormatException e) {
+                    return -1L;
+                }
+            }).orElse(-1L);
+        }
+
+        static class BatchResult {
+            List<BatchItemResult> results;
+        }
+
+        static class BatchItemResult {
+            int index;
+            int status;
+        }
     }
@@ -0,0 +1,95 @@
+package com.wjfzk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One phase of an open-loop run: the arrival rate moves linearly from {@code fromRate} to
+ * {@code toRate} requests per second over {@code seconds}. {@link #parse} builds the phase list
+ * from a {@code -Dclient.load} spec:
+ * <ul>
+ *   <li>{@code step:<from>:<to>:<increment>:<seconds>} – constant phases {@code from},
+ *       {@code from + increment}, ... up to {@code to}</li>
+ *   <li>{@code ramp:<from>:<to>:<seconds>} – one phase with a linearly rising rate</li>
+ *   <li>{@code spike:<base>:<peak>:<baseSeconds>:<peakSeconds>} – base load, a burst at
+ *       {@code peak}, then base load again to show the recovery</li>
+ *   <li>{@code <rate>@<seconds>,<from>-<to>@<seconds>,...} – explicit phases</li>
+ * </ul>
+ */
+public class LoadPhase {
+    public final String name;
+    public final double fromRate;
+    public final double toRate;
+    public final double seconds;
+
+    public LoadPhase(String name, double fromRate, double toRate, double seconds) {
+        this.name = name;
+        this.fromRate = fromRate;
+        this.toRate = toRate;
+        this.seconds = seconds;
+    }
+
+    public RideSchedule schedule(SkierLiftGenerator generator) {
+        return RideSchedule.ramp(generator, fromRate, toRate, seconds);
+    }
+
+    public static List<LoadPhase> parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        List<LoadPhase> phases = new ArrayList<>();
+        try {
+            switch (parts[0]) {
+                case "step": {
+                    double from = Double.parseDouble(parts[1]);
+                    double to = Double.parseDouble(parts[2]);
+                    double increment = Double.parseDouble(parts[3]);
+                    double seconds = Double.parseDouble(parts[4]);
+                    if (increment <= 0) {
+                        throw new IllegalArgumentException("step increment must be positive: " + spec);
+                    }
+                    for (int i = 0; from + i * increment <= to; i++) {
+                        double rate = from + i * increment;
+                        phases.add(new LoadPhase("step-" + (long) rate, rate, rate, seconds));
+                    }
+                    break;
+                }
+                case "ramp":
+                    phases.add(new LoadPhase("ramp", Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                            Double.parseDouble(parts[3])));
+                    break;
+                case "spike": {
+                    double base = Double.parseDouble(parts[1]);
+                    double peak = Double.parseDouble(parts[2]);
+                    double baseSeconds = Double.parseDouble(parts[3]);
+                    double peakSeconds = Double.parseDouble(parts[4]);
+                    phases.add(new LoadPhase("before-spike", base, base, baseSeconds));
+                    phases.add(new LoadPhase("spike", peak, peak, peakSeconds));
+                    phases.add(new LoadPhase("after-spike", base, base, baseSeconds));
+                    break;
+                }
+                default:
+                    for (String phase : spec.split(",")) {
+                        int at = phase.indexOf('@');
+                        String rates = phase.substring(0, at).trim();
+                        double seconds = Double.parseDouble(phase.substring(at + 1).trim());
+                        int dash = rates.indexOf('-');
+                        double from = Double.parseDouble(dash < 0 ? rates : rates.substring(0, dash));
+                        double to = dash < 0 ? from : Double.parseDouble(rates.substring(dash + 1));
+                        phases.add(new LoadPhase("phase-" + (phases.size() + 1), from, to, seconds));
+                    }
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Bad load spec '" + spec + "': " + e.getMessage(), e);
+        }
+        if (phases.isEmpty()) {
+            throw new IllegalArgumentException("Load spec has no phases: " + spec);
+        }
+        return phases;
+    }
+
+    @Override
+    public String toString() {
+        return fromRate == toRate
+                ? String.format("%s: %.0f requests/sec for %.0f s", name, fromRate, seconds)
+                : String.format("%s: %.0f -> %.0f requests/sec over %.0f s", name, fromRate, toRate, seconds);
+    }
+}
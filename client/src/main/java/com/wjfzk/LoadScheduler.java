@@ -0,0 +1,216 @@
+package com.wjfzk;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Runs open-loop {@link LoadPhase}s one after another and judges each against a latency/error
+ * {@link Slo}. {@link #runPhases} plays a fixed step, ramp or spike profile; {@link #search} raises
+ * the offered rate geometrically until a phase misses the SLO, then bisects between the last
+ * passing and the first failing rate to find the maximum sustainable throughput. Every phase is
+ * reported on stdout and collected into a JSON report ({@link #writeReport}) so runs against
+ * different deployments can be compared.
+ *
+ * <p>Each phase waits for its last response before the next one starts, and phases are separated
+ * by a pause so a server still working off one phase's backlog does not skew the next. A
+ * {@link #warmUp} phase first lets connections open and the JIT settle on both sides; it is
+ * reported, marked as warm-up and
+ * never judged. Every phase reports its retries alongside the requests that finally failed, since
+ * retries that eventually succeed hide an overloaded server from the error rate.
+ */
+public class LoadScheduler {
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping()
+            .serializeSpecialFloatingPointValues().create();
+
+    private final String baseUrl;
+    private final int maxInFlight;
+    private final RequestLog requestLog;
+    private final WorkloadProfile profile;
+    private final Slo slo;
+    private final long pauseMillis;
+    // 每个阶段从这里拆出自己的随机流，相同种子下各阶段的骑行可复现；eventID 另有种子
+    private final SplittableRandom seeds;
+    private final SplittableRandom eventSeeds;
+    private final Report report;
+
+    public LoadScheduler(String baseUrl, int maxInFlight, RequestLog requestLog, WorkloadProfile profile,
+                         long seed, long eventSeed, Slo slo, long pauseMillis) {
+        this.baseUrl = baseUrl;
+        this.maxInFlight = maxInFlight;
+        this.requestLog = requestLog;
+        this.profile = profile;
+        this.slo = slo;
+        this.pauseMillis = pauseMillis;
+        this.seeds = new SplittableRandom(seed);
+        this.eventSeeds = new SplittableRandom(eventSeed);
+        this.report = new Report(baseUrl, seed, eventSeed, profile.toString(), slo);
+    }
+
+    public void warmUp(double rate, double seconds) throws InterruptedException {
+        runPhase(new LoadPhase("warmup", rate, rate, seconds), false);
+    }
+
+    /** Runs {@code phases} in order. */
+    public void runPhases(List<LoadPhase> phases) throws InterruptedException {
+        report.mode = "phases";
+        PhaseReport best = null;
+        for (LoadPhase phase : phases) {
+            PhaseReport phaseReport = runPhase(phase, true);
+            if (phaseReport.withinSlo && (best == null || phaseReport.result.throughput > best.result.throughput)) {
+                best = phaseReport;
+            }
+        }
+        conclude(best, "highest throughput among phases within the SLO");
+    }
+
+    /**
+     * Starts at {@code startRate} and multiplies the rate by {@code factor} after every passing
+     * phase of {@code phaseSeconds}, up to {@code maxRate}. Once a phase fails, runs
+     * {@code refineSteps} more phases halfway between the last passing and the first failing rate.
+     */
+    public void search(double startRate, double maxRate, double factor, double phaseSeconds, int refineSteps)
+            throws InterruptedException {
+        if (startRate <= 0 || factor <= 1) {
+            throw new IllegalArgumentException("search needs startRate > 0 and factor > 1");
+        }
+        report.mode = "search";
+        PhaseReport best = null;
+        double failedRate = Double.NaN;
+        for (double rate = startRate; rate <= maxRate; rate *= factor) {
+            PhaseReport phase = runPhase(new LoadPhase("search-" + (long) rate, rate, rate, phaseSeconds), true);
+            if (!phase.withinSlo) {
+                failedRate = rate;
+                break;
+            }
+            best = phase;
+        }
+        if (Double.isNaN(failedRate)) {
+            conclude(best, "client.search.maxRate reached without crossing the SLO; the server may sustain more");
+            return;
+        }
+        if (best == null) {
+            conclude(null, "even the starting rate missed the SLO");
+            return;
+        }
+        for (int i = 0; i < refineSteps; i++) {
+            double rate = (best.phase.fromRate + failedRate) / 2;
+            PhaseReport phase = runPhase(new LoadPhase("refine-" + (long) rate, rate, rate, phaseSeconds), true);
+            if (phase.withinSlo) {
+                best = phase;
+            } else {
+                failedRate = rate;
+            }
+        }
+        conclude(best, String.format("SLO first crossed at %.0f requests/sec", failedRate));
+    }
+
+    /** Runs one phase; a phase that is not {@code judged} is reported without an SLO verdict. */
+    private PhaseReport runPhase(LoadPhase phase, boolean judged) throws InterruptedException {
+        if (!report.phases.isEmpty() && pauseMillis > 0) {
+            Thread.sleep(pauseMillis);
+        }
+        System.out.println("--- Phase " + phase + " ---");
+        SkierLiftGenerator generator = new SkierLiftGenerator(seeds.split(), eventSeeds.split(), profile);
+        OpenLoopLoadGenerator.Result result =
+                new OpenLoopLoadGenerator(baseUrl, phase.schedule(generator), maxInFlight, requestLog).run();
+        PhaseReport phaseReport = new PhaseReport(phase, result, judged ? slo.metBy(phase, result) : null);
+        report.phases.add(phaseReport);
+        System.out.printf("Phase %s: offered %.0f/s, achieved %.0f/s, p99 %.1f ms, errors %.2f%%, retries %d -> %s%n",
+                phase.name, phaseReport.offeredRate, result.throughput, result.p99Ms, result.errorRate * 100,
+                result.retries, !judged ? "warm-up, not judged" : phaseReport.withinSlo ? "within SLO" : "SLO MISSED");
+        return phaseReport;
+    }
+
+    private void conclude(PhaseReport best, String note) {
+        report.note = note;
+        if (best != null) {
+            report.maxSustainablePhase = best.phase.name;
+            report.maxSustainableThroughput = best.result.throughput;
+        }
+        System.out.println("======= Load Schedule Output ======= ");
+        System.out.println("Phases run: " + report.phases.size());
+        System.out.println(best == null ? "No phase met the SLO"
+                : String.format("Maximum sustainable throughput: %.2f requests/sec (phase %s)",
+                best.result.throughput, best.phase.name));
+        System.out.println(note);
+    }
+
+    public void writeReport(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            gson.toJson(report, out);
+        }
+        System.out.println("Wrote per-phase results to " + file);
+    }
+
+    /**
+     * A phase meets the SLO when its p99 and error rate are within bounds and the server kept up,
+     * i.e. the successful throughput reached {@link #MIN_THROUGHPUT_RATIO} of the offered rate.
+     */
+    public static class Slo {
+        static final double MIN_THROUGHPUT_RATIO = 0.95;
+
+        public final double p99Ms;
+        public final double errorRate;
+
+        public Slo(double p99Ms, double errorRate) {
+            this.p99Ms = p99Ms;
+            this.errorRate = errorRate;
+        }
+
+        boolean metBy(LoadPhase phase, OpenLoopLoadGenerator.Result result) {
+            double offered = (phase.fromRate + phase.toRate) / 2;
+            return result.p99Ms <= p99Ms
+                    && result.errorRate <= errorRate
+                    && result.throughput >= offered * MIN_THROUGHPUT_RATIO;
+        }
+    }
+
+    static class PhaseReport {
+        final LoadPhase phase;
+        final double offeredRate;
+        final OpenLoopLoadGenerator.Result result;
+        final boolean warmUp;
+        // 预热阶段不评判，为 null（JSON 中省略）
+        final Boolean withinSlo;
+
+        PhaseReport(LoadPhase phase, OpenLoopLoadGenerator.Result result, Boolean withinSlo) {
+            this.phase = phase;
+            this.offeredRate = (phase.fromRate + phase.toRate) / 2;
+            this.result = result;
+            this.warmUp = withinSlo == null;
+            this.withinSlo = withinSlo;
+        }
+    }
+
+    // 序列化成 JSON 的整份报告
+    static class Report {
+        final String startedAt = Instant.now().toString();
+        final String serverUrl;
+        final long seed;
+        final long eventSeed;
+        final String profile;
+        final Slo slo;
+        String mode;
+        final List<PhaseReport> phases = new ArrayList<>();
+        String maxSustainablePhase;
+        Double maxSustainableThroughput;
+        String note;
+
+        Report(String serverUrl, long seed, long eventSeed, String profile, Slo slo) {
+            this.serverUrl = serverUrl;
+            this.seed = seed;
+            this.eventSeed = eventSeed;
+            this.profile = profile;
+            this.slo = slo;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.wjfzk;
+
+import java.util.Arrays;
+
+/**
+ * High-dynamic-range histogram of non-negative values (the analyzer records microseconds).
+ * Values below {@code 2^subBucketBits} get a bucket each; above that every power of two is split
+ * into {@code 2^(subBucketBits - 1)} equal buckets, so a value is stored with a relative error
+ * below {@code 2^-(subBucketBits - 1)} (under 1.6% for 7 bits) whatever its magnitude. The bucket
+ * array grows only up to the largest value recorded, never with the number of values, and two
+ * histograms of the same precision merge by adding their counts.
+ */
+public class LogLinearHistogram {
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int halfCount;
+    private long[] counts;
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public LogLinearHistogram(int subBucketBits) {
+        if (subBucketBits < 2 || subBucketBits > 16) {
+            throw new IllegalArgumentException("subBucketBits must be between 2 and 16: " + subBucketBits);
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBucketCount = 1 << subBucketBits;
+        this.halfCount = subBucketCount >> 1;
+        this.counts = new long[subBucketCount];
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int index = indexOf(value);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + halfCount * 4));
+        }
+        counts[index]++;
+        totalCount++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /** Adds every value recorded in {@code other}, which must have the same precision. */
+    public void merge(LogLinearHistogram other) {
+        if (other.subBucketBits != subBucketBits) {
+            throw new IllegalArgumentException("Can only merge histograms of the same precision");
+        }
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * The value at {@code percentile} (0-100): the highest value that falls in the same bucket as
+     * the sample at that rank, capped at the exact maximum. 0 when nothing was recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueIn(i));
+            }
+        }
+        return max;
+    }
+
+    public long totalCount() {
+        return totalCount;
+    }
+
+    public double mean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    public long min() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return totalCount == 0 ? 0 : max;
+    }
+
+    // 小于 subBucketCount 的值一值一桶；更大的值按 2 的幂分段，每段 halfCount 个等宽桶
+    private int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (subBucketBits - 1);
+        return subBucketCount + (shift - 1) * halfCount + (int) ((value >>> shift) - halfCount);
+    }
+
+    private long highestValueIn(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index - subBucketCount) / halfCount + 1;
+        long lowest = (long) ((index - subBucketCount) % halfCount + halfCount) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -1,8 +1,6 @@
 package com.wjfzk;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
@@ -20,20 +18,97 @@ public class MultiThreadedLiftRideClient {
     private static final AtomicInteger failedCount = new AtomicInteger(0);
     private static final int PHASE1_THREAD = 32;
     private static final String LOG_FILE = "request_logs.csv";
+    // 运行时写二进制日志，结束后再转换成 LOG_FILE
+    private static final String BINARY_LOG_FILE = "request_logs.bin";
+    // 每个 HTTP 请求携带的事件数，大于 1 时使用 POST /skiers/batch（-Dclient.batchSize=50）
+    private static final int BATCH_SIZE = Integer.getInteger("client.batchSize", 1);
+    // -Dclient.mode=openloop：按固定到达率异步发送（-Dclient.rate，-Dclient.maxInFlight），见 OpenLoopLoadGenerator
+    private static final String MODE = System.getProperty("client.mode", "threads");
+    private static final int OPEN_LOOP_RATE = Integer.getInteger("client.rate", 2000);
+    private static final int OPEN_LOOP_MAX_IN_FLIGHT = Integer.getInteger("client.maxInFlight", 2000);
+    // -Dclient.mode=replay：按 -Dclient.trace 指定的 RideTrace 文件回放，-Dclient.replaySpeed 为回放倍速
+    private static final String TRACE_FILE = System.getProperty("client.trace", "rides.trace");
+    private static final double REPLAY_SPEED = Double.parseDouble(System.getProperty("client.replaySpeed", "1.0"));
+    // -Dclient.mode=phases 按 -Dclient.load 的阶段（step/ramp/spike）施压；-Dclient.mode=search 自动逐级加压，
+    // 直到 p99 或错误率越过 SLO，报告最大可持续吞吐。每个阶段的结果写入 RESULTS_FILE（JSON）
+    private static final String LOAD_SPEC = System.getProperty("client.load", "step:500:3000:500:30");
+    private static final double SLO_P99_MS = Double.parseDouble(System.getProperty("client.slo.p99Ms", "200"));
+    private static final double SLO_ERROR_RATE = Double.parseDouble(System.getProperty("client.slo.errorRate", "0.01"));
+    private static final int PAUSE_SECONDS = Integer.getInteger("client.load.pauseSeconds", 5);
+    private static final int WARMUP_SECONDS = Integer.getInteger("client.load.warmupSeconds", 10);
+    private static final double SEARCH_START_RATE = Double.parseDouble(System.getProperty("client.search.startRate", "500"));
+    private static final double SEARCH_MAX_RATE = Double.parseDouble(System.getProperty("client.search.maxRate", "50000"));
+    private static final double SEARCH_FACTOR = Double.parseDouble(System.getProperty("client.search.factor", "1.5"));
+    private static final int SEARCH_PHASE_SECONDS = Integer.getInteger("client.search.phaseSeconds", 30);
+    private static final int SEARCH_REFINE_STEPS = Integer.getInteger("client.search.refineSteps", 3);
+    private static final String RESULTS_FILE = System.getProperty("client.results", "load_results.json");
+    // 事件流的种子；相同的 -Dclient.seed 会生成相同的骑行，不指定时随机并打印出来
+    private static final long SEED = Long.getLong("client.seed", System.nanoTime());
+    // eventID 另用一个每次运行都不同的种子，否则重跑同一个 seed 的事件会被消费端当作重复丢掉
+    private static final long EVENT_SEED = Long.getLong("client.eventSeed", SEED ^ System.nanoTime());
     public static void main(String[] args) throws InterruptedException, ExecutionException {
 
-        Path logFilePath = Paths.get(LOG_FILE);
+        RequestLog requestLog;
         try {
-            if (Files.exists(logFilePath)) {
-                Files.delete(logFilePath);
-                System.out.println("Deleted " + logFilePath);
-            }
+            requestLog = new RequestLog(Paths.get(BINARY_LOG_FILE));
         } catch (IOException e) {
-            System.out.println("Error deleting csv file 'request_logs.csv': " + e.getMessage());
+            System.out.println("Error opening " + BINARY_LOG_FILE + ": " + e.getMessage());
+            return;
+        }
+
+        System.out.println("Event seed: " + SEED + " (-Dclient.seed=" + SEED + " repeats these rides with new event IDs)");
+        System.out.println("Event ID seed: " + EVENT_SEED + " (-Dclient.eventSeed=" + EVENT_SEED
+                + " repeats the event IDs too; the consumer drops rides whose IDs it has already stored)");
+        WorkloadProfile profile = WorkloadProfile.fromSystemProperties();
+        if ("openloop".equalsIgnoreCase(MODE)) {
+            System.out.println("Workload profile: " + profile);
+            RideSchedule schedule = RideSchedule.fixedRate(SkierLiftGenerator.forWorkers(SEED, EVENT_SEED, 1, profile)[0],
+                    OPEN_LOOP_RATE, TOTAL_REQUESTS);
+            new OpenLoopLoadGenerator(SERVER_URL, schedule, OPEN_LOOP_MAX_IN_FLIGHT, requestLog).run();
+            writeCsvLog(requestLog);
+            ClientLatencyAnalyzer.latencyComputation(BINARY_LOG_FILE);
+            return;
+        }
+        if ("phases".equalsIgnoreCase(MODE) || "search".equalsIgnoreCase(MODE)) {
+            System.out.println("Workload profile: " + profile);
+            LoadScheduler scheduler = new LoadScheduler(SERVER_URL, OPEN_LOOP_MAX_IN_FLIGHT, requestLog, profile, SEED,
+                    EVENT_SEED, new LoadScheduler.Slo(SLO_P99_MS, SLO_ERROR_RATE), PAUSE_SECONDS * 1000L);
+            List<LoadPhase> phases = "search".equalsIgnoreCase(MODE) ? null : LoadPhase.parse(LOAD_SPEC);
+            if (WARMUP_SECONDS > 0) {
+                // 预热用第一阶段（或搜索起点）的速率
+                scheduler.warmUp(phases == null ? SEARCH_START_RATE : Math.max(1, phases.get(0).fromRate), WARMUP_SECONDS);
+            }
+            if (phases == null) {
+                scheduler.search(SEARCH_START_RATE, SEARCH_MAX_RATE, SEARCH_FACTOR, SEARCH_PHASE_SECONDS,
+                        SEARCH_REFINE_STEPS);
+            } else {
+                scheduler.runPhases(phases);
+            }
+            try {
+                scheduler.writeReport(Paths.get(RESULTS_FILE));
+            } catch (IOException e) {
+                System.out.println("Error writing " + RESULTS_FILE + ": " + e.getMessage());
+            }
+            writeCsvLog(requestLog);
+            ClientLatencyAnalyzer.latencyComputation(BINARY_LOG_FILE);
+            return;
+        }
+        if ("replay".equalsIgnoreCase(MODE)) {
+            try (RideTrace.Reader trace = new RideTrace.Reader(Paths.get(TRACE_FILE), REPLAY_SPEED, EVENT_SEED)) {
+                new OpenLoopLoadGenerator(SERVER_URL, trace, OPEN_LOOP_MAX_IN_FLIGHT, requestLog).run();
+            } catch (IOException e) {
+                System.out.println("Error replaying " + TRACE_FILE + ": " + e.getMessage());
+            }
+            writeCsvLog(requestLog);
+            ClientLatencyAnalyzer.latencyComputation(BINARY_LOG_FILE);
+            return;
         }
 
-        Thread eventProducerThread = new Thread(new EventGenerator());
-        eventProducerThread.start();
+        int remainingRequests = TOTAL_REQUESTS - (PHASE1_THREAD * REQUEST_PER_INITIAL_THREAD);
+        int threadNeeded = remainingRequests / REQUEST_PER_THREAD;
+        // 每个 worker 自带一个事件生成器，不再共用生产者线程和队列
+        System.out.println("Workload profile: " + profile);
+        SkierLiftGenerator[] generators = SkierLiftGenerator.forWorkers(SEED, EVENT_SEED, PHASE1_THREAD + threadNeeded, profile);
 
         ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
         List<Future<Void>> futures = new ArrayList<>();
@@ -41,18 +116,16 @@ public class MultiThreadedLiftRideClient {
         long startTime = System.currentTimeMillis();
         System.out.println("Starting 32 threads...");
         for (int i = 0; i < PHASE1_THREAD ; i++) {
-            HttpWorker clientThread = new HttpWorker(SERVER_URL, successfulCount, failedCount, REQUEST_PER_INITIAL_THREAD, countDownLatch);
+            HttpWorker clientThread = new HttpWorker(SERVER_URL, successfulCount, failedCount, REQUEST_PER_INITIAL_THREAD, countDownLatch, BATCH_SIZE, generators[i], requestLog);
             futures.add(executor.submit(clientThread));
         }
         countDownLatch.await();
         System.out.println("1 of 32 threads completed!");
-        int remainingRequests = TOTAL_REQUESTS - (PHASE1_THREAD * REQUEST_PER_INITIAL_THREAD);
-        int threadNeeded = remainingRequests / REQUEST_PER_THREAD;
 
         System.out.println("Starting other threads...");
 
         for (int i = 0; i < threadNeeded; i++) {
-            HttpWorker clientThread = new HttpWorker(SERVER_URL, successfulCount, failedCount, REQUEST_PER_THREAD, null);
+            HttpWorker clientThread = new HttpWorker(SERVER_URL, successfulCount, failedCount, REQUEST_PER_THREAD, null, BATCH_SIZE, generators[PHASE1_THREAD + i], requestLog);
             futures.add(executor.submit(clientThread));
         }
 
@@ -60,7 +133,6 @@ public class MultiThreadedLiftRideClient {
             future.get();
         }
 
-        eventProducerThread.join();
         executor.shutdown();
 
         long endTime = System.currentTimeMillis();
@@ -75,7 +147,18 @@ public class MultiThreadedLiftRideClient {
         System.out.println("Total response time: " + responseTime + " ms");
         System.out.println("Throughput: " + (TOTAL_REQUESTS / (responseTime / 1000.0)) + " requests per second");
 
-        ClientLatencyAnalyzer.latencyComputation("request_logs.csv", TOTAL_REQUESTS);
+        writeCsvLog(requestLog);
+        ClientLatencyAnalyzer.latencyComputation(BINARY_LOG_FILE);
+    }
+
+    private static void writeCsvLog(RequestLog requestLog) {
+        try {
+            requestLog.close();
+            long records = RequestLog.toCsv(Paths.get(BINARY_LOG_FILE), Paths.get(LOG_FILE));
+            System.out.println("Wrote " + records + " request records to " + LOG_FILE);
+        } catch (IOException e) {
+            System.out.println("Error writing " + LOG_FILE + ": " + e.getMessage());
+        }
     }
 }
 
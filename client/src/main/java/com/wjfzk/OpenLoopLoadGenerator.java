@@ -0,0 +1,161 @@
+package com.wjfzk;
+
+import com.google.gson.Gson;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load: every ride of a {@link RideSchedule} is sent at its due time whatever happened
+ * to the requests before it (a fixed arrival rate, or a replayed trace), and is sent with {@link HttpClient#sendAsync} so no thread waits on a
+ * response. Concurrency is bounded only by {@code maxInFlight}; when the cap is reached the next
+ * request starts late, and since every latency is measured from the request's intended start
+ * time (through retries, until the final response), that wait shows up in the results instead of
+ * silently lowering the offered rate.
+ */
+public class OpenLoopLoadGenerator {
+    private static final HttpClient client = HttpClient.newHttpClient();
+    private static final int LATENCY_PRECISION_BITS = 8;
+
+    private final String baseUrl;
+    private final RideSchedule schedule;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final RequestLog requestLog;
+    private final Gson gson = new Gson();
+    private final AtomicInteger successfulCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    // 重试次数（不含首次发送）；最终成功的请求也可能重试过
+    private final AtomicInteger retryCount = new AtomicInteger();
+    // 从计划开始时间到最终响应的延迟（微秒），回调线程并发写入，用自身加锁
+    private final LogLinearHistogram latency = new LogLinearHistogram(LATENCY_PRECISION_BITS);
+    // 因 in-flight 上限而晚于计划时间发出的请求数
+    private int lateStarts;
+
+    public OpenLoopLoadGenerator(String baseUrl, RideSchedule schedule, int maxInFlight, RequestLog requestLog) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.baseUrl = baseUrl;
+        this.schedule = schedule;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.requestLog = requestLog;
+    }
+
+    /** Issues every request on schedule, waits for the last response, prints a summary and returns it. */
+    public Result run() throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long sent = 0;
+        while (schedule.advance()) {
+            long intendedNanos = startNanos + schedule.dueNanos();
+            long wait = intendedNanos - System.nanoTime();
+            while (wait > 0) {
+                LockSupport.parkNanos(wait);
+                wait = intendedNanos - System.nanoTime();
+            }
+            if (!inFlight.tryAcquire()) {
+                lateStarts++;
+                inFlight.acquire();
+            }
+            send(buildRequest(schedule.event()), intendedNanos, 0);
+            sent++;
+        }
+        // 所有许可都拿回来，说明最后一个响应也已返回
+        inFlight.acquire(maxInFlight);
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        System.out.println("======= Open-loop Client Output ======= ");
+        System.out.println("Schedule: " + schedule + ", max in flight: " + maxInFlight);
+        System.out.println("Successful requests: " + successfulCount.get());
+        System.out.println("Failed requests: " + failedCount.get());
+        System.out.println("Retries: " + retryCount.get());
+        System.out.println("Requests started late (in-flight cap reached): " + lateStarts);
+        System.out.printf("Achieved throughput: %.2f requests/sec%n", sent / (elapsedNanos / 1e9));
+        synchronized (latency) {
+            return new Result(sent, successfulCount.get(), failedCount.get(), retryCount.get(), lateStarts,
+                    elapsedNanos, latency);
+        }
+    }
+
+    private HttpRequest buildRequest(SkierLiftEvent event) {
+        String eventUrl = baseUrl + "/skiers/" + event.getResortID() + "/seasons/" + event.getSeasonID()
+                + "/days/" + event.getDayID() + "/skiers/" + event.getSkierID();
+        return HttpRequest.newBuilder()
+                .uri(URI.create(eventUrl))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(event)))
+                .build();
+    }
+
+    // 重试与 HttpWorker 相同：503/429 按 Retry-After，其余失败指数退避；延迟始终从计划开始时间算起
+    private void send(HttpRequest request, long intendedNanos, int retries) {
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            int statusCode = error == null ? response.statusCode() : 500;
+            if (statusCode == 201) {
+                successfulCount.incrementAndGet();
+            } else if (retries + 1 < HttpWorker.MAX_RETRIES) {
+                long backoff = HttpWorker.backoffMillis(retries + 1,
+                        error == null ? HttpWorker.parseRetryAfter(response) : -1);
+                retryCount.incrementAndGet();
+                Executor delayed = CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS);
+                delayed.execute(() -> send(request, intendedNanos, retries + 1));
+                return;
+            } else {
+                failedCount.incrementAndGet();
+            }
+            long endNanos = System.nanoTime();
+            requestLog.record(intendedNanos, endNanos, statusCode, RequestLog.METHOD_POST);
+            synchronized (latency) {
+                latency.record(TimeUnit.NANOSECONDS.toMicros(endNanos - intendedNanos));
+            }
+            inFlight.release();
+        });
+    }
+
+    /** Outcome of one {@link #run}; latencies are in milliseconds from each request's due time. */
+    public static class Result {
+        public final long sent;
+        public final long successful;
+        public final long failed;
+        // 重试次数，不论最终成败
+        public final long retries;
+        public final long lateStarts;
+        public final double elapsedSeconds;
+        // 成功请求数 / 耗时（含等待最后的响应）
+        public final double throughput;
+        public final double errorRate;
+        public final double meanMs;
+        public final double p50Ms;
+        public final double p90Ms;
+        public final double p99Ms;
+        public final double p999Ms;
+        public final double maxMs;
+
+        Result(long sent, long successful, long failed, long retries, long lateStarts, long elapsedNanos,
+               LogLinearHistogram latency) {
+            this.sent = sent;
+            this.successful = successful;
+            this.failed = failed;
+            this.retries = retries;
+            this.lateStarts = lateStarts;
+            this.elapsedSeconds = elapsedNanos / 1e9;
+            this.throughput = elapsedSeconds > 0 ? successful / elapsedSeconds : 0;
+            this.errorRate = sent == 0 ? 0 : (double) failed / sent;
+            this.meanMs = latency.mean() / 1000.0;
+            this.p50Ms = latency.valueAtPercentile(50) / 1000.0;
+            this.p90Ms = latency.valueAtPercentile(90) / 1000.0;
+            this.p99Ms = latency.valueAtPercentile(99) / 1000.0;
+            this.p999Ms = latency.valueAtPercentile(99.9) / 1000.0;
+            this.maxMs = latency.max() / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.wjfzk;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Binary per-request log. Each thread appends fixed-size records to its own preallocated buffer,
+ * with no lock, formatting or I/O; a full buffer is handed over a lock-free queue to a single
+ * writer thread that writes it to one file through a {@link FileChannel} and recycles it.
+ * {@link #close} must be called after every recording thread has finished; once the writer has
+ * stopped it writes any full buffers still queued and then the partly filled ones. {@link #toCsv} turns the file into the CSV the latency analyzer reads.
+ *
+ * <pre>
+ * file:   int magic | int version | records...
+ * record: long startEpochNanos | long latencyNanos | int status | int method   (big-endian)
+ * </pre>
+ */
+public class RequestLog implements AutoCloseable {
+    public static final int METHOD_POST = 1;
+    public static final int METHOD_GET = 2;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_BYTES = 24;
+    private static final int MAGIC = 0x52514C47; // "RQLG"
+    private static final int VERSION = 1;
+    private static final int RECORDS_PER_BUFFER = 4096;
+
+    private final FileChannel channel;
+    // System.nanoTime 与墙钟时间的换算基准，记录里存的是纳秒级墙钟时间
+    private final long epochNanosAtStart = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    private final long nanoTimeAtStart = System.nanoTime();
+    private final Queue<ByteBuffer> full = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    // 每个录制线程一个 Slot，close 时写出其中未满的缓冲区
+    private final Queue<Slot> slots = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Slot> current = ThreadLocal.withInitial(() -> {
+        Slot slot = new Slot();
+        slots.add(slot);
+        return slot;
+    });
+    private final Thread writer;
+    private volatile boolean closed;
+    private IOException writeError;
+
+    public RequestLog(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        writer = new Thread(this::drain, "request-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Records one request; {@code startNanos} and {@code endNanos} are {@link System#nanoTime} values. */
+    public void record(long startNanos, long endNanos, int status, int method) {
+        Slot slot = current.get();
+        ByteBuffer buffer = slot.buffer;
+        if (buffer == null || !buffer.hasRemaining()) {
+            if (buffer != null) {
+                full.add(buffer);
+                LockSupport.unpark(writer);
+            }
+            buffer = takeBuffer();
+            slot.buffer = buffer;
+        }
+        buffer.putLong(epochNanosAtStart + (startNanos - nanoTimeAtStart))
+                .putLong(endNanos - startNanos)
+                .putInt(status)
+                .putInt(method);
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = free.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(RECORDS_PER_BUFFER * RECORD_BYTES);
+    }
+
+    private void drain() {
+        while (true) {
+            ByteBuffer buffer = full.poll();
+            if (buffer == null) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                continue;
+            }
+            write(buffer);
+            buffer.clear();
+            free.add(buffer);
+        }
+    }
+
+    private void write(ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            if (writeError == null) {
+                writeError = e;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 写线程可能在看到 closed 之前刚好轮询到空队列，最后交过来的满缓冲区由这里写出
+        ByteBuffer buffer;
+        while ((buffer = full.poll()) != null) {
+            write(buffer);
+        }
+        // 录制线程都已结束，剩下未写满的缓冲区也由这里写出
+        for (Slot slot : slots) {
+            if (slot.buffer != null) {
+                write(slot.buffer);
+            }
+        }
+        channel.force(false);
+        channel.close();
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    /**
+     * Writes {@code startMillis,METHOD,latencyMillis,status,throughput} lines, the format
+     * {@link ClientLatencyAnalyzer} reads, for every record in {@code logFile}.
+     */
+    public static long toCsv(Path logFile, Path csvFile) throws IOException {
+        long records = 0;
+        try (FileChannel in = FileChannel.open(logFile, StandardOpenOption.READ);
+             PrintWriter out = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(csvFile), 1 << 16))) {
+            checkHeader(in, logFile);
+            ByteBuffer buffer = ByteBuffer.allocate(RECORDS_PER_BUFFER * RECORD_BYTES);
+            while (in.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    long startMillis = TimeUnit.NANOSECONDS.toMillis(buffer.getLong());
+                    long latencyMillis = TimeUnit.NANOSECONDS.toMillis(buffer.getLong());
+                    int status = buffer.getInt();
+                    String method = buffer.getInt() == METHOD_GET ? "GET" : "POST";
+                    out.append(Long.toString(startMillis)).append(',').append(method).append(',')
+                            .append(Long.toString(latencyMillis)).append(',').append(Integer.toString(status))
+                            .append(',').append(String.format("%.2f", 1000.0 / Math.max(1, latencyMillis)))
+                            .append('\n');
+                    records++;
+                }
+                buffer.compact(); // 末尾不足一条的记录留到下次读
+            }
+        }
+        return records;
+    }
+
+    /** Reads and checks the file header, leaving {@code in} positioned at the first record. */
+    static void checkHeader(FileChannel in, Path logFile) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && in.read(header) > 0) {
+            // 读满为止
+        }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a request log: " + logFile);
+        }
+    }
+
+    private static class Slot {
+        ByteBuffer buffer;
+    }
+}
@@ -0,0 +1,98 @@
+package com.wjfzk;
+
+/**
+ * The rides an {@link OpenLoopLoadGenerator} sends and when each one is due. Rides come in order
+ * of due time, which is an offset in nanoseconds from the start of the run.
+ */
+public interface RideSchedule {
+
+    /** Moves to the next ride; {@code false} once the schedule is exhausted. */
+    boolean advance();
+
+    /** When the current ride is due, in nanoseconds after the run started. */
+    long dueNanos();
+
+    SkierLiftEvent event();
+
+    /**
+     * Rides from {@code generator} for {@code seconds}, with the arrival rate moving linearly from
+     * {@code fromRate} to {@code toRate} per second; equal rates give a constant rate.
+     */
+    static RideSchedule ramp(SkierLiftGenerator generator, double fromRate, double toRate, double seconds) {
+        if (fromRate < 0 || toRate < 0 || fromRate + toRate == 0 || seconds <= 0) {
+            throw new IllegalArgumentException("bad ramp: " + fromRate + " -> " + toRate + " over " + seconds + "s");
+        }
+        long total = Math.round((fromRate + toRate) / 2 * seconds);
+        // 到时刻 t 为止应发出 fromRate*t + a*t^2 个请求，反解第 i 个请求的时刻
+        double a = (toRate - fromRate) / (2 * seconds);
+        return new RideSchedule() {
+            private long index = -1;
+            private SkierLiftEvent event;
+
+            @Override
+            public boolean advance() {
+                if (index + 1 >= total) {
+                    return false;
+                }
+                index++;
+                event = generator.next();
+                return true;
+            }
+
+            @Override
+            public long dueNanos() {
+                double t = a == 0 ? index / fromRate
+                        : (Math.sqrt(fromRate * fromRate + 4 * a * index) - fromRate) / (2 * a);
+                return (long) (t * 1e9);
+            }
+
+            @Override
+            public SkierLiftEvent event() {
+                return event;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("%d requests ramping %.0f -> %.0f requests/sec over %.0f s",
+                        total, fromRate, toRate, seconds);
+            }
+        };
+    }
+
+    /** {@code totalRequests} rides from {@code generator}, one every {@code 1 / ratePerSecond} seconds. */
+    static RideSchedule fixedRate(SkierLiftGenerator generator, double ratePerSecond, int totalRequests) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("rate must be positive: " + ratePerSecond);
+        }
+        double intervalNanos = 1e9 / ratePerSecond;
+        return new RideSchedule() {
+            private int index = -1;
+            private SkierLiftEvent event;
+
+            @Override
+            public boolean advance() {
+                if (index + 1 >= totalRequests) {
+                    return false;
+                }
+                index++;
+                event = generator.next();
+                return true;
+            }
+
+            @Override
+            public long dueNanos() {
+                return (long) (index * intervalNanos);
+            }
+
+            @Override
+            public SkierLiftEvent event() {
+                return event;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("%d requests at %.0f requests/sec", totalRequests, ratePerSecond);
+            }
+        };
+    }
+}
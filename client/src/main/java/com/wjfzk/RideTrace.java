@@ -0,0 +1,187 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+/**
+ * Recorded ride trace: every ride with its offset from the start of the recording. A
+ * {@link Reader} replays it as a {@link RideSchedule}, at the recorded pace or sped up or slowed
+ * down by a factor. Replay walks the file through read-only mappings of {@link #WINDOW_BYTES} at a
+ * time, so traces larger than memory or than 2 GB stream without being loaded. Event IDs are not
+ * stored; replay draws them from the event ID seed it is given, so replaying a trace twice is
+ * deduplicated only if both replays were given the same seed.
+ * {@code java -cp client.jar com.wjfzk.RideTrace <file> <rides> <ratePerSecond> [seed]} records a
+ * synthetic trace from the {@code client.profile.*} properties.
+ *
+ * <pre>
+ * file:   int magic | int version | records...
+ * record: long offsetNanos | int resortID | int seasonID | int dayID | int skierID | int liftID | int time
+ * </pre>
+ */
+public class RideTrace {
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_BYTES = 32;
+    // 每次映射的窗口大小，按记录对齐
+    static final long WINDOW_BYTES = (256L << 20) / RECORD_BYTES * RECORD_BYTES;
+    private static final int MAGIC = 0x52545243; // "RTRC"
+    private static final int VERSION = 1;
+    private static final int WRITE_BUFFER_RECORDS = 4096;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: RideTrace <file> <rides> <ratePerSecond> [seed]");
+            return;
+        }
+        Path file = Paths.get(args[0]);
+        long rides = Long.parseLong(args[1]);
+        double intervalNanos = 1e9 / Double.parseDouble(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        WorkloadProfile profile = WorkloadProfile.fromSystemProperties();
+        // 轨迹不记录 eventID，回放时再生成，这里的 eventID 种子用不到
+        SkierLiftGenerator generator = SkierLiftGenerator.forWorkers(seed, 0, 1, profile)[0];
+        try (Writer writer = new Writer(file)) {
+            for (long i = 0; i < rides; i++) {
+                writer.append((long) (i * intervalNanos), generator.next());
+            }
+        }
+        System.out.println("Wrote " + rides + " rides to " + file + " (" + profile + ", seed " + seed + ")");
+    }
+
+    /** Appends rides to a new trace file; offsets must not decrease. */
+    public static class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_RECORDS * RECORD_BYTES);
+
+        public Writer(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        public void append(long offsetNanos, SkierLiftEvent event) throws IOException {
+            if (buffer.remaining() < RECORD_BYTES) {
+                flush();
+            }
+            buffer.putLong(offsetNanos)
+                    .putInt(event.getResortID())
+                    .putInt(event.getSeasonID())
+                    .putInt(event.getDayID())
+                    .putInt(event.getSkierID())
+                    .putInt(event.getLiftID())
+                    .putInt(event.getTime());
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * Replays a trace as a {@link RideSchedule}: a ride recorded at offset {@code t} is due at
+     * {@code t / speed}. A partial record at the end of the file is ignored. Event IDs are drawn
+     * from {@code eventSeed}, which should differ per run (see {@code client.eventSeed}).
+     */
+    public static class Reader implements RideSchedule, AutoCloseable {
+        private static final long EVENT_ID_BOUND = 1_000_000_000_000_000_000L;
+
+        private final Path file;
+        private final FileChannel channel;
+        private final long end;
+        private final double speed;
+        private final SplittableRandom eventIds;
+        private MappedByteBuffer window;
+        private long windowStart = HEADER_BYTES;
+        private long dueNanos;
+        private SkierLiftEvent event;
+
+        public Reader(Path file, double speed, long eventSeed) throws IOException {
+            if (speed <= 0) {
+                throw new IllegalArgumentException("speed must be positive: " + speed);
+            }
+            this.file = file;
+            this.speed = speed;
+            this.eventIds = new SplittableRandom(eventSeed);
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // 读满为止
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                channel.close();
+                throw new IOException("Not a ride trace: " + file);
+            }
+            end = HEADER_BYTES + (size - HEADER_BYTES) / RECORD_BYTES * RECORD_BYTES;
+        }
+
+        /** Number of rides in the trace. */
+        public long rides() {
+            return (end - HEADER_BYTES) / RECORD_BYTES;
+        }
+
+        @Override
+        public boolean advance() {
+            if (window == null || !window.hasRemaining()) {
+                if (window != null) {
+                    windowStart += window.capacity();
+                }
+                if (windowStart >= end) {
+                    return false;
+                }
+                try {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                            Math.min(WINDOW_BYTES, end - windowStart));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Error mapping " + file, e);
+                }
+            }
+            dueNanos = (long) (window.getLong() / speed);
+            event = new SkierLiftEvent();
+            event.setResortID(window.getInt());
+            event.setSeasonID(window.getInt());
+            event.setDayID(window.getInt());
+            event.setSkierID(window.getInt());
+            event.setLiftID(window.getInt());
+            event.setTime(window.getInt());
+            event.setEventID(eventIds.nextLong(1, EVENT_ID_BOUND));
+            return true;
+        }
+
+        @Override
+        public long dueNanos() {
+            return dueNanos;
+        }
+
+        @Override
+        public SkierLiftEvent event() {
+            return event;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public String toString() {
+            return "replay of " + rides() + " rides from " + file + " at " + speed + "x";
+        }
+    }
+}
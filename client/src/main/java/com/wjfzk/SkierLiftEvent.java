@@ -7,6 +7,8 @@ public class SkierLiftEvent {
     private int seasonID;
     private int dayID;
     private int time;
+    // 每个事件唯一，重试时保持不变，消费端据此去重
+    private long eventID;
 
     public int getSkierID() {
         return skierID;
@@ -56,4 +58,12 @@ public class SkierLiftEvent {
         this.time = time;
     }
 
+    public long getEventID() {
+        return eventID;
+    }
+
+    public void setEventID(long eventID) {
+        this.eventID = eventID;
+    }
+
 }
@@ -1,28 +1,43 @@
 package com.wjfzk;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
+// 每个 worker 一个生成器，不需要共享队列或锁；同一 seed 产生同样的骑行
+// eventID 另用一个 seed：消费端会丢弃已存过的 eventID，重跑同一 seed 时 ID 不能跟着重复
 public class SkierLiftGenerator {
+    // 服务端接受的 eventID 范围为 [1, 10^18 - 1]
+    private static final long EVENT_ID_BOUND = 1_000_000_000_000_000_000L;
 
-    private static final Random random = new Random();
-    public static SkierLiftEvent generateSkierLiftEvent() {
+    private final SplittableRandom random;
+    private final SplittableRandom eventIds;
+    private final WorkloadProfile profile;
 
-        SkierLiftEvent event = new SkierLiftEvent();
-        int skierID = random.nextInt(100000) + 1;
-        int resortID = random.nextInt(10) + 1;
-        int liftID = random.nextInt(40) + 1;
-        int time = random.nextInt(360) + 1;
-        int seasonID = 2025;
-        int dayID = 1;
+    // eventID 来自不带 seed 的流
+    public SkierLiftGenerator(SplittableRandom random, WorkloadProfile profile) {
+        this(random, new SplittableRandom(), profile);
+    }
 
-        event.setSkierID(skierID);
-        event.setResortID(resortID);
-        event.setLiftID(liftID);
-        event.setTime(time);
-        event.setSeasonID(seasonID);
-        event.setDayID(dayID);
-        return event;
+    public SkierLiftGenerator(SplittableRandom random, SplittableRandom eventIds, WorkloadProfile profile) {
+        this.random = random;
+        this.eventIds = eventIds;
+        this.profile = profile;
     }
 
+    // 按 worker 顺序从 seed 和 eventSeed 各拆出一个流，同一 seed 下第 i 个 worker 的骑行不变
+    public static SkierLiftGenerator[] forWorkers(long seed, long eventSeed, int workers, WorkloadProfile profile) {
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom eventRoot = new SplittableRandom(eventSeed);
+        SkierLiftGenerator[] generators = new SkierLiftGenerator[workers];
+        for (int i = 0; i < workers; i++) {
+            generators[i] = new SkierLiftGenerator(root.split(), eventRoot.split(), profile);
+        }
+        return generators;
+    }
 
+    public SkierLiftEvent next() {
+        SkierLiftEvent event = new SkierLiftEvent();
+        profile.fill(event, random);
+        event.setEventID(eventIds.nextLong(1, EVENT_ID_BOUND));
+        return event;
+    }
 }
@@ -0,0 +1,183 @@
+package com.wjfzk;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Shape of the generated traffic: how skierIDs and liftIDs are distributed, how many resorts and
+ * days rides spread over, and how ride times spread over the 360-minute ski day. Profiles are
+ * immutable and shared by every worker's {@link SkierLiftGenerator}. Read from system properties
+ * by {@link #fromSystemProperties}; the defaults reproduce the original uniform load.
+ *
+ * <p>Key distributions are written as {@code uniform}, {@code zipf:<exponent>} (rank {@code k}
+ * drawn with weight {@code 1/k^exponent}) or {@code hot:<keys>:<fraction>} ({@code fraction} of
+ * rides go to {@code keys} hot IDs, the rest are uniform). Ranks are scattered over the ID range
+ * so hot keys do not all land next to each other. Time curves are {@code uniform},
+ * {@code morning}, {@code twopeak} or comma-separated relative weights spread evenly over the day.
+ */
+public class WorkloadProfile {
+    public static final int MINUTES_PER_DAY = 360;
+    // 服务端把所有骑行都存在 2025 赛季，只查得到这一季
+    private static final int SEASON_ID = 2025;
+
+    private final Distribution skiers;
+    private final Distribution lifts;
+    private final int resorts;
+    private final int days;
+    private final Distribution times;
+    private final String description;
+
+    public WorkloadProfile(String skiers, int maxSkierId, String lifts, int liftCount, int resorts, int days,
+                           String timeCurve) {
+        this.skiers = Distribution.parse(skiers, maxSkierId);
+        this.lifts = Distribution.parse(lifts, liftCount);
+        this.resorts = resorts;
+        this.days = days;
+        this.times = Distribution.ofWeights(timeWeights(timeCurve));
+        this.description = "skiers=" + skiers + "/" + maxSkierId + ", lifts=" + lifts + "/" + liftCount
+                + ", resorts=" + resorts + ", days=" + days + ", time=" + timeCurve;
+    }
+
+    public static WorkloadProfile uniform() {
+        return new WorkloadProfile("uniform", 100000, "uniform", 40, 10, 1, "uniform");
+    }
+
+    public static WorkloadProfile fromSystemProperties() {
+        return new WorkloadProfile(
+                System.getProperty("client.profile.skiers", "uniform"),
+                Integer.getInteger("client.profile.maxSkierId", 100000),
+                System.getProperty("client.profile.lifts", "uniform"),
+                Integer.getInteger("client.profile.liftCount", 40),
+                Integer.getInteger("client.profile.resorts", 10),
+                Integer.getInteger("client.profile.days", 1),
+                System.getProperty("client.profile.time", "uniform"));
+    }
+
+    /** Fills {@code event} with one ride drawn from this profile. */
+    void fill(SkierLiftEvent event, SplittableRandom random) {
+        event.setSkierID(skiers.sample(random));
+        event.setResortID(random.nextInt(resorts) + 1);
+        event.setLiftID(lifts.sample(random));
+        event.setTime(times.sample(random));
+        event.setSeasonID(SEASON_ID);
+        event.setDayID(random.nextInt(days) + 1);
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    private static double[] timeWeights(String curve) {
+        double[] weights = new double[MINUTES_PER_DAY];
+        switch (curve) {
+            case "uniform":
+                Arrays.fill(weights, 1);
+                return weights;
+            case "morning":
+                // 开门后约 90 分钟达到高峰，其余时间保持较低的基线
+                for (int m = 0; m < MINUTES_PER_DAY; m++) {
+                    weights[m] = 0.2 + Math.exp(-Math.pow((m - 90) / 45.0, 2) / 2);
+                }
+                return weights;
+            case "twopeak":
+                for (int m = 0; m < MINUTES_PER_DAY; m++) {
+                    weights[m] = 0.2 + Math.exp(-Math.pow((m - 90) / 40.0, 2) / 2)
+                            + 0.7 * Math.exp(-Math.pow((m - 250) / 40.0, 2) / 2);
+                }
+                return weights;
+            default:
+                String[] parts = curve.split(",");
+                for (int m = 0; m < MINUTES_PER_DAY; m++) {
+                    weights[m] = Double.parseDouble(parts[m * parts.length / MINUTES_PER_DAY].trim());
+                }
+                return weights;
+        }
+    }
+
+    /** Draws values in {@code [1, n]}. */
+    abstract static class Distribution {
+
+        abstract int sample(SplittableRandom random);
+
+        static Distribution parse(String spec, int n) {
+            String[] parts = spec.split(":");
+            long multiplier = scatterMultiplier(n);
+            switch (parts[0]) {
+                case "uniform":
+                    return new Distribution() {
+                        @Override
+                        int sample(SplittableRandom random) {
+                            return random.nextInt(n) + 1;
+                        }
+                    };
+                case "zipf": {
+                    double exponent = Double.parseDouble(parts[1]);
+                    double[] weights = new double[n];
+                    for (int k = 0; k < n; k++) {
+                        weights[k] = 1 / Math.pow(k + 1, exponent);
+                    }
+                    Distribution ranks = ofWeights(weights);
+                    return new Distribution() {
+                        @Override
+                        int sample(SplittableRandom random) {
+                            return scatter(ranks.sample(random), n, multiplier);
+                        }
+                    };
+                }
+                case "hot": {
+                    int hotKeys = Math.min(n, Integer.parseInt(parts[1]));
+                    double hotFraction = Double.parseDouble(parts[2]);
+                    return new Distribution() {
+                        @Override
+                        int sample(SplittableRandom random) {
+                            return random.nextDouble() < hotFraction
+                                    ? scatter(random.nextInt(hotKeys) + 1, n, multiplier)
+                                    : random.nextInt(n) + 1;
+                        }
+                    };
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown distribution: " + spec);
+            }
+        }
+
+        /** Inverse-CDF sampling over {@code weights}; index {@code i} is returned as {@code i + 1}. */
+        static Distribution ofWeights(double[] weights) {
+            double[] cdf = new double[weights.length];
+            double total = 0;
+            for (int i = 0; i < weights.length; i++) {
+                total += weights[i];
+                cdf[i] = total;
+            }
+            for (int i = 0; i < cdf.length; i++) {
+                cdf[i] /= total;
+            }
+            return new Distribution() {
+                @Override
+                int sample(SplittableRandom random) {
+                    int index = Arrays.binarySearch(cdf, random.nextDouble());
+                    return Math.min(cdf.length, (index < 0 ? -index - 1 : index) + 1);
+                }
+            };
+        }
+
+        // 把排名 1..n 映射成打散的 ID：乘以与 n 互质的数再取模，是 1..n 上的一个排列；
+        // 乘数取 n 的黄金分割附近，相邻排名落得尽量远
+        static int scatter(int rank, int n, long multiplier) {
+            return (int) ((rank - 1) * multiplier % n) + 1;
+        }
+
+        static long scatterMultiplier(int n) {
+            long multiplier = (long) (n * 0.6180339887);
+            while (gcd(multiplier, n) != 1) {
+                multiplier++;
+            }
+            return multiplier;
+        }
+
+        private static long gcd(long a, long b) {
+            return b == 0 ? a : gcd(b, a % b);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.wjfzk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Counts distinct skierIDs in fixed memory. Counters of the same kind and size can be merged, so
+ * each consumer instance can keep its own and a reader can combine them; {@link #toBytes} and
+ * {@link #fromBytes} move them between processes.
+ */
+public interface CardinalityCounter {
+
+    byte TYPE_EXACT = 1;
+    byte TYPE_HYPERLOGLOG = 2;
+
+    void add(int skierID);
+
+    /** Number of distinct skierIDs added; exact or estimated depending on the implementation. */
+    long cardinality();
+
+    /** Adds everything {@code other} has seen into this counter. */
+    void merge(CardinalityCounter other);
+
+    /** Heap used by the counter's data, independent of how many values were added. */
+    long footprintBytes();
+
+    /** Size of the {@link #writeTo} encoding. */
+    int serializedBytes();
+
+    /** Writes the counter at the buffer's position, in the format {@link #readFrom} expects. */
+    void writeTo(ByteBuffer buffer);
+
+    default byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(serializedBytes());
+        writeTo(buffer);
+        return buffer.array();
+    }
+
+    static CardinalityCounter fromBytes(byte[] bytes) {
+        return readFrom(ByteBuffer.wrap(bytes));
+    }
+
+    /** Reads one counter from the buffer's position and advances past it. */
+    static CardinalityCounter readFrom(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case TYPE_EXACT:
+                return ExactSkierSet.read(buffer);
+            case TYPE_HYPERLOGLOG:
+                return HyperLogLog.read(buffer);
+            default:
+                throw new IllegalArgumentException("Unknown cardinality counter type: " + type);
+        }
+    }
+}
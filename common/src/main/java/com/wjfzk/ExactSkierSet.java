@@ -0,0 +1,85 @@
+package com.wjfzk;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Exact distinct count for dense IDs in {@code [0, maxId]}: one bit per possible ID, set with a
+ * CAS so writers never lock. 100000 skiers cost about 12 KB.
+ */
+public class ExactSkierSet implements CardinalityCounter {
+    private final int maxId;
+    private final AtomicLongArray words;
+
+    public ExactSkierSet(int maxId) {
+        this.maxId = maxId;
+        this.words = new AtomicLongArray((maxId >>> 6) + 1);
+    }
+
+    @Override
+    public void add(int skierID) {
+        if (skierID < 0 || skierID > maxId) {
+            throw new IllegalArgumentException("skierID out of range: " + skierID);
+        }
+        int index = skierID >>> 6;
+        long mask = 1L << skierID;
+        long word = words.get(index);
+        while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+            word = words.get(index);
+        }
+    }
+
+    public boolean contains(int skierID) {
+        return skierID >= 0 && skierID <= maxId && (words.get(skierID >>> 6) & (1L << skierID)) != 0;
+    }
+
+    @Override
+    public long cardinality() {
+        long count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    @Override
+    public void merge(CardinalityCounter other) {
+        if (!(other instanceof ExactSkierSet) || ((ExactSkierSet) other).maxId != maxId) {
+            throw new IllegalArgumentException("Can only merge an ExactSkierSet of the same size");
+        }
+        AtomicLongArray theirs = ((ExactSkierSet) other).words;
+        for (int i = 0; i < words.length(); i++) {
+            long bits = theirs.get(i);
+            long word = words.get(i);
+            while ((word | bits) != word && !words.compareAndSet(i, word, word | bits)) {
+                word = words.get(i);
+            }
+        }
+    }
+
+    @Override
+    public long footprintBytes() {
+        return 16L + 8L * words.length();
+    }
+
+    @Override
+    public int serializedBytes() {
+        return 1 + 4 + 8 * words.length();
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(TYPE_EXACT).putInt(maxId);
+        for (int i = 0; i < words.length(); i++) {
+            buffer.putLong(words.get(i));
+        }
+    }
+
+    static ExactSkierSet read(ByteBuffer buffer) {
+        ExactSkierSet set = new ExactSkierSet(buffer.getInt());
+        for (int i = 0; i < set.words.length(); i++) {
+            set.words.set(i, buffer.getLong());
+        }
+        return set;
+    }
+}
@@ -0,0 +1,127 @@
+package com.wjfzk;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog distinct-count sketch with {@code 2^precision} one-byte registers. The standard
+ * error is about {@code 1.04 / sqrt(2^precision)}: 1.6% at the default precision of 12, which
+ * takes 4 KB. Small cardinalities use linear counting, so they come out close to exact.
+ */
+public class HyperLogLog implements CardinalityCounter {
+    public static final int DEFAULT_PRECISION = 12;
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and "
+                    + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    @Override
+    public void add(int skierID) {
+        long hash = mix(skierID);
+        int index = (int) (hash >>> (64 - precision));
+        // 剩余位的前导零个数 + 1；末尾补 1 保证结果有上界
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        synchronized (registers) {
+            if (registers[index] < rank) {
+                registers[index] = rank;
+            }
+        }
+    }
+
+    @Override
+    public long cardinality() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        synchronized (registers) {
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    @Override
+    public void merge(CardinalityCounter other) {
+        if (!(other instanceof HyperLogLog) || ((HyperLogLog) other).precision != precision) {
+            throw new IllegalArgumentException("Can only merge a HyperLogLog of the same precision");
+        }
+        byte[] theirs;
+        synchronized (((HyperLogLog) other).registers) {
+            theirs = Arrays.copyOf(((HyperLogLog) other).registers, registers.length);
+        }
+        synchronized (registers) {
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] < theirs[i]) {
+                    registers[i] = theirs[i];
+                }
+            }
+        }
+    }
+
+    @Override
+    public long footprintBytes() {
+        return 16L + registers.length;
+    }
+
+    @Override
+    public int serializedBytes() {
+        return 1 + 4 + registers.length;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(TYPE_HYPERLOGLOG).putInt(precision);
+        synchronized (registers) {
+            buffer.put(registers);
+        }
+    }
+
+    static HyperLogLog read(ByteBuffer buffer) {
+        HyperLogLog sketch = new HyperLogLog(buffer.getInt());
+        buffer.get(sketch.registers);
+        return sketch;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    // SplitMix64，把连续的 skierID 打散成均匀的 64 位哈希
+    private static long mix(int value) {
+        long z = (value & 0xFFFFFFFFL) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,172 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Named queues held in this JVM, for running the server and the consumer in one process without
+ * RabbitMQ. Each queue is a lock-free {@link ConcurrentLinkedDeque}; publishers never block and a
+ * full queue (more than {@code queueCapacity} ready messages) rejects the publish instead. Clients
+ * connect through {@link InProcessTransport}; {@link #shared()} is the broker both sides find when
+ * they are configured independently, e.g. a servlet container and the consumer in one JVM.
+ *
+ * <p>Exchanges are direct: a routing key maps to one bound queue, and the default exchange
+ * {@code ""} routes to the queue of that name. Unlike RabbitMQ, a message with no matching queue
+ * is rejected rather than dropped. Messages are not persisted; a requeued message goes back to
+ * the front of its queue, so requeueing keeps queue order.
+ */
+public class InProcessBroker {
+
+    private static final InProcessBroker SHARED = new InProcessBroker(Long.MAX_VALUE);
+
+    private final long queueCapacity;
+    private final ConcurrentHashMap<String, BrokerQueue> queues = new ConcurrentHashMap<>();
+    // exchange -> routing key -> queue
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, BrokerQueue>> exchanges = new ConcurrentHashMap<>();
+    private volatile LongConsumer ackListener;
+
+    public InProcessBroker(long queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public static InProcessBroker shared() {
+        return SHARED;
+    }
+
+    /** Receives the publish-to-ack time, in nanoseconds, of every acked message. */
+    public void setAckListener(LongConsumer listener) {
+        this.ackListener = listener;
+    }
+
+    BrokerQueue queue(String name) {
+        return queues.computeIfAbsent(name, BrokerQueue::new);
+    }
+
+    void declareExchange(String exchange) {
+        exchanges.computeIfAbsent(exchange, name -> new ConcurrentHashMap<>());
+    }
+
+    void bind(String queue, String exchange, String routingKey) throws IOException {
+        ConcurrentHashMap<String, BrokerQueue> bindings = exchanges.get(exchange);
+        if (bindings == null) {
+            throw new IOException("No exchange " + exchange);
+        }
+        bindings.put(routingKey, queue(queue));
+    }
+
+    BrokerQueue route(String exchange, String routingKey) throws IOException {
+        BrokerQueue target;
+        if (exchange.isEmpty()) {
+            target = queues.get(routingKey);
+        } else {
+            ConcurrentHashMap<String, BrokerQueue> bindings = exchanges.get(exchange);
+            target = bindings == null ? null : bindings.get(routingKey);
+        }
+        if (target == null) {
+            throw new IOException("No queue bound to exchange '" + exchange + "' with routing key " + routingKey);
+        }
+        return target;
+    }
+
+    void acked(Envelope envelope) {
+        LongConsumer listener = ackListener;
+        if (listener != null) {
+            listener.accept(System.nanoTime() - envelope.publishedNanos);
+        }
+    }
+
+    static final class Envelope {
+        final BrokerQueue queue;
+        final byte[] body;
+        final String contentType;
+        final long publishedNanos = System.nanoTime();
+
+        Envelope(BrokerQueue queue, byte[] body, String contentType) {
+            this.queue = queue;
+            this.body = body;
+            this.contentType = contentType;
+        }
+    }
+
+    final class BrokerQueue {
+        final String name;
+        private final ConcurrentLinkedDeque<Envelope> ready = new ConcurrentLinkedDeque<>();
+        // ConcurrentLinkedDeque.size() 要遍历整个链表，深度单独计数
+        private final AtomicLong depth = new AtomicLong();
+        private final AtomicInteger nextSubscriber = new AtomicInteger();
+        private volatile InProcessTransport.InProcessSubscription[] subscribers =
+                new InProcessTransport.InProcessSubscription[0];
+
+        BrokerQueue(String name) {
+            this.name = name;
+        }
+
+        void publish(byte[] body, String contentType) throws IOException {
+            if (depth.incrementAndGet() > queueCapacity) {
+                depth.decrementAndGet();
+                throw new IOException("In-process queue " + name + " is full");
+            }
+            ready.offerLast(new Envelope(this, body, contentType));
+            wakeSubscriber();
+        }
+
+        /** Puts a delivered message back at the front; requeue several in reverse order to keep theirs. */
+        void requeue(Envelope envelope) {
+            depth.incrementAndGet();
+            ready.offerFirst(envelope);
+            wakeSubscriber();
+        }
+
+        Envelope poll() {
+            Envelope envelope = ready.pollFirst();
+            if (envelope != null) {
+                depth.decrementAndGet();
+            }
+            return envelope;
+        }
+
+        long depth() {
+            return Math.max(0, depth.get());
+        }
+
+        boolean isEmpty() {
+            return ready.isEmpty();
+        }
+
+        /**
+         * Schedules a delivery run on the next subscriber, round robin, that has prefetch credit
+         * left. If none has, the next ack calls this again.
+         */
+        void wakeSubscriber() {
+            InProcessTransport.InProcessSubscription[] current = subscribers;
+            int count = current.length;
+            if (count == 0) {
+                return;
+            }
+            int start = Math.floorMod(nextSubscriber.getAndIncrement(), count);
+            for (int i = 0; i < count; i++) {
+                InProcessTransport.InProcessSubscription subscription = current[(start + i) % count];
+                if (subscription.hasCredit()) {
+                    subscription.schedule();
+                    return;
+                }
+            }
+        }
+
+        synchronized void addSubscriber(InProcessTransport.InProcessSubscription subscription) {
+            InProcessTransport.InProcessSubscription[] grown = Arrays.copyOf(subscribers, subscribers.length + 1);
+            grown[grown.length - 1] = subscription;
+            subscribers = grown;
+        }
+
+        synchronized void removeSubscriber(InProcessTransport.InProcessSubscription subscription) {
+            subscribers = Arrays.stream(subscribers).filter(s -> s != subscription)
+                    .toArray(InProcessTransport.InProcessSubscription[]::new);
+        }
+    }
+}
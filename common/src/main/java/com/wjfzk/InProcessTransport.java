@@ -0,0 +1,310 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection to an {@link InProcessBroker}. Publishing appends straight to the queue, so there
+ * is nothing to confirm. Each subscription delivers in short runs on {@code dispatcher}, like a
+ * RabbitMQ channel on the connection's shared executor: runs of one subscription never overlap,
+ * and a subscription holds no thread while it has nothing to deliver or no prefetch credit.
+ * Closing the transport closes its subscriptions but leaves the broker and its queues alone.
+ */
+public class InProcessTransport implements MessageTransport {
+
+    // 每次调度最多投递的消息数，之后让出线程给其他订阅
+    private static final int DELIVERY_BURST = 64;
+
+    private final InProcessBroker broker;
+    private final Executor dispatcher;
+    private final Set<InProcessSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private volatile boolean open = true;
+
+    public InProcessTransport(InProcessBroker broker) {
+        this(broker, ForkJoinPool.commonPool());
+    }
+
+    public InProcessTransport(InProcessBroker broker, Executor dispatcher) {
+        this.broker = broker;
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void declareQueue(String queue) throws IOException {
+        ensureOpen();
+        broker.queue(queue);
+    }
+
+    @Override
+    public void declareExchange(String exchange) throws IOException {
+        ensureOpen();
+        broker.declareExchange(exchange);
+    }
+
+    @Override
+    public void bindQueue(String queue, String exchange, String routingKey) throws IOException {
+        ensureOpen();
+        broker.bind(queue, exchange, routingKey);
+    }
+
+    @Override
+    public long queueDepth(String queue) throws IOException {
+        ensureOpen();
+        return broker.queue(queue).depth();
+    }
+
+    @Override
+    public PublishChannel openPublishChannel(String exchange, boolean confirms) throws IOException {
+        ensureOpen();
+        return new PublishChannel() {
+            private volatile boolean channelOpen = true;
+
+            @Override
+            public void publish(String routingKey, byte[] body, String contentType) throws IOException {
+                if (!isOpen()) {
+                    throw new IOException("Channel is closed");
+                }
+                broker.route(exchange, routingKey).publish(body, contentType);
+            }
+
+            @Override
+            public void waitForConfirms(long timeoutMillis) throws IOException {
+                if (!isOpen()) {
+                    throw new IOException("Channel is closed");
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channelOpen && open;
+            }
+
+            @Override
+            public void close() {
+                channelOpen = false;
+            }
+        };
+    }
+
+    @Override
+    public Subscription subscribe(List<String> queues, int prefetch, DeliveryHandler handler) throws IOException {
+        ensureOpen();
+        InProcessBroker.BrokerQueue[] sources = new InProcessBroker.BrokerQueue[queues.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = broker.queue(queues.get(i));
+        }
+        InProcessSubscription subscription = new InProcessSubscription(sources, prefetch, handler);
+        subscriptions.add(subscription);
+        for (InProcessBroker.BrokerQueue source : sources) {
+            source.addSubscriber(subscription);
+            source.wakeSubscriber();
+        }
+        return subscription;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new IOException("Transport is closed");
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        for (InProcessSubscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    final class InProcessSubscription implements Subscription, Runnable {
+        private final InProcessBroker.BrokerQueue[] queues;
+        private final DeliveryHandler handler;
+        // 已投递未确认的消息，按 deliveryTag 排序，支持 multiple=true 的 ack/nack
+        private final ConcurrentSkipListMap<Long, InProcessBroker.Envelope> unacked = new ConcurrentSkipListMap<>();
+        private final AtomicInteger unackedCount = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile int prefetch;
+        private volatile boolean cancelled;
+        private volatile boolean closed;
+        // 只在投递线程上修改；scheduled 的 CAS 保证相邻两次投递之间的可见性
+        private long lastTag;
+        private int nextQueue;
+
+        InProcessSubscription(InProcessBroker.BrokerQueue[] queues, int prefetch, DeliveryHandler handler) {
+            this.queues = queues;
+            this.prefetch = prefetch;
+            this.handler = handler;
+        }
+
+        /**
+         * prefetch 0 means unlimited, as in AMQP. The limit is per queue in RabbitMQ; here it is
+         * {@code prefetch} times the queue count, shared by all of them.
+         */
+        boolean hasCredit() {
+            long limit = (long) prefetch * queues.length;
+            return !cancelled && (limit <= 0 || unackedCount.get() < limit);
+        }
+
+        void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                dispatcher.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < DELIVERY_BURST && hasCredit(); i++) {
+                    InProcessBroker.Envelope envelope = pollNext();
+                    if (envelope == null) {
+                        break;
+                    }
+                    long tag = ++lastTag;
+                    unacked.put(tag, envelope);
+                    unackedCount.incrementAndGet();
+                    try {
+                        handler.handle(new Message(tag, envelope.body, envelope.contentType));
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("In-process delivery failed: " + e.getMessage());
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            if (closed) {
+                // 与 close() 并发时，可能有消息在 close 归还之后才登记为未确认
+                requeueUnacked();
+            } else {
+                wakeNonEmpty();
+            }
+        }
+
+        // 各队列轮流取，避免某个分区饿死其他分区
+        private InProcessBroker.Envelope pollNext() {
+            for (int i = 0; i < queues.length; i++) {
+                InProcessBroker.BrokerQueue queue = queues[nextQueue];
+                nextQueue = nextQueue + 1 == queues.length ? 0 : nextQueue + 1;
+                InProcessBroker.Envelope envelope = queue.poll();
+                if (envelope != null) {
+                    return envelope;
+                }
+            }
+            return null;
+        }
+
+        private void wakeNonEmpty() {
+            for (InProcessBroker.BrokerQueue queue : queues) {
+                if (!queue.isEmpty()) {
+                    queue.wakeSubscriber();
+                }
+            }
+        }
+
+        @Override
+        public void ack(long deliveryTag, boolean multiple) throws IOException {
+            settle(deliveryTag, multiple, false, true);
+        }
+
+        @Override
+        public void nack(long deliveryTag, boolean multiple, boolean requeue) throws IOException {
+            settle(deliveryTag, multiple, requeue, false);
+        }
+
+        private void settle(long deliveryTag, boolean multiple, boolean requeue, boolean acked) throws IOException {
+            if (closed) {
+                throw new IOException("Subscription is closed");
+            }
+            if (multiple) {
+                List<InProcessBroker.Envelope> settledEnvelopes = new ArrayList<>();
+                Map.Entry<Long, InProcessBroker.Envelope> entry;
+                while ((entry = unacked.firstEntry()) != null && entry.getKey() <= deliveryTag) {
+                    if (unacked.remove(entry.getKey()) != null) {
+                        settledEnvelopes.add(entry.getValue());
+                    }
+                }
+                // 逆序放回队首，保持原来的顺序
+                for (int i = settledEnvelopes.size() - 1; i >= 0; i--) {
+                    settled(settledEnvelopes.get(i), requeue, acked);
+                }
+            } else {
+                InProcessBroker.Envelope envelope = unacked.remove(deliveryTag);
+                if (envelope == null) {
+                    throw new IOException("Unknown delivery tag " + deliveryTag);
+                }
+                settled(envelope, requeue, acked);
+            }
+            wakeNonEmpty();
+        }
+
+        private void settled(InProcessBroker.Envelope envelope, boolean requeue, boolean acked) {
+            unackedCount.decrementAndGet();
+            if (acked) {
+                broker.acked(envelope);
+            } else if (requeue) {
+                envelope.queue.requeue(envelope);
+            }
+        }
+
+        private void requeueUnacked() {
+            Map.Entry<Long, InProcessBroker.Envelope> entry;
+            while ((entry = unacked.pollLastEntry()) != null) {
+                unackedCount.decrementAndGet();
+                entry.getValue().queue.requeue(entry.getValue());
+            }
+        }
+
+        @Override
+        public void setPrefetch(int prefetch) {
+            this.prefetch = prefetch;
+            wakeNonEmpty();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            for (InProcessBroker.BrokerQueue queue : queues) {
+                queue.removeSubscriber(this);
+                System.out.println("Cancelled consumption of queue: " + queue.name);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            cancelled = true;
+            closed = true;
+            for (InProcessBroker.BrokerQueue queue : queues) {
+                queue.removeSubscriber(this);
+            }
+            subscriptions.remove(this);
+            requeueUnacked();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed && open;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.wjfzk;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One lift ride as it travels from the server to the consumer. Mutable so that decoders can
+ * fill a reused instance instead of allocating one per message.
+ */
+public class LiftRide {
+    /** Event IDs are in {@code [1, MAX_EVENT_ID]}, at most 18 decimal digits; 0 means "no ID". */
+    public static final long MAX_EVENT_ID = 999_999_999_999_999_999L;
+
+    private int resortID;
+    private int seasonID;
+    private int dayID;
+    private int skierID;
+    private int liftID;
+    private int time;
+    private long eventID;
+
+    public LiftRide() {
+    }
+
+    public LiftRide(int resortID, int seasonID, int dayID, int skierID, int liftID, int time) {
+        set(resortID, seasonID, dayID, skierID, liftID, time);
+    }
+
+    public LiftRide set(int resortID, int seasonID, int dayID, int skierID, int liftID, int time) {
+        this.resortID = resortID;
+        this.seasonID = seasonID;
+        this.dayID = dayID;
+        this.skierID = skierID;
+        this.liftID = liftID;
+        this.time = time;
+        this.eventID = 0;
+        return this;
+    }
+
+    /** A random ID for a new event; collisions are negligible at 60 bits of entropy. */
+    public static long newEventID() {
+        return ThreadLocalRandom.current().nextLong(1, MAX_EVENT_ID + 1);
+    }
+
+    public int getResortID() {
+        return resortID;
+    }
+
+    public int getSeasonID() {
+        return seasonID;
+    }
+
+    public int getDayID() {
+        return dayID;
+    }
+
+    public int getSkierID() {
+        return skierID;
+    }
+
+    public int getLiftID() {
+        return liftID;
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    public long getEventID() {
+        return eventID;
+    }
+
+    public LiftRide setEventID(long eventID) {
+        this.eventID = eventID;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "LiftRide{resortID=" + resortID + ", seasonID=" + seasonID + ", dayID=" + dayID
+                + ", skierID=" + skierID + ", liftID=" + liftID + ", time=" + time + ", eventID=" + eventID + '}';
+    }
+}
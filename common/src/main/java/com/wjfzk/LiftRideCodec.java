@@ -0,0 +1,161 @@
+package com.wjfzk;
+
+/**
+ * Fixed-width binary wire format for lift-ride messages, shared by the server (encoder) and the
+ * consumer (decoder). The message's AMQP content type tells the consumer which format it got;
+ * anything that is not {@link #CONTENT_TYPE_BINARY} is treated as the JSON fallback.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     1  version (1 or 2)
+ *      1     2  resortID   unsigned, big-endian
+ *      3     2  seasonID   unsigned
+ *      5     2  dayID      unsigned
+ *      7     4  skierID    signed
+ *     11     2  liftID     unsigned
+ *     13     2  time       unsigned
+ *     15     8  eventID    signed, version 2 only
+ * </pre>
+ * Version 1 records decode with an eventID of 0.
+ */
+public final class LiftRideCodec {
+
+    public static final String CONTENT_TYPE_BINARY = "application/x-lift-ride";
+    public static final String CONTENT_TYPE_JSON = "application/json";
+
+    public static final byte VERSION_1 = 1;
+    public static final int V1_LENGTH = 15;
+    public static final byte VERSION_2 = 2;
+    public static final int V2_LENGTH = 23;
+
+    private static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+
+    private LiftRideCodec() {
+    }
+
+    /** Whether every field fits the binary layout; callers fall back to JSON when it does not. */
+    public static boolean fitsBinary(int resortID, int seasonID, int dayID, int skierID, int liftID, int time) {
+        return isUnsignedShort(resortID) && isUnsignedShort(seasonID) && isUnsignedShort(dayID)
+                && isUnsignedShort(liftID) && isUnsignedShort(time);
+    }
+
+    /**
+     * Writes one ride at {@code offset} as version 1 (no eventID) and returns the number of bytes
+     * written.
+     *
+     * @throws IllegalArgumentException if a field does not fit, see {@link #fitsBinary}
+     */
+    public static int encode(int resortID, int seasonID, int dayID, int skierID, int liftID, int time,
+                             byte[] dst, int offset) {
+        if (!fitsBinary(resortID, seasonID, dayID, skierID, liftID, time)) {
+            throw new IllegalArgumentException("Lift ride does not fit the binary format");
+        }
+        dst[offset] = VERSION_1;
+        putShort(dst, offset + 1, resortID);
+        putShort(dst, offset + 3, seasonID);
+        putShort(dst, offset + 5, dayID);
+        putInt(dst, offset + 7, skierID);
+        putShort(dst, offset + 11, liftID);
+        putShort(dst, offset + 13, time);
+        return V1_LENGTH;
+    }
+
+    /** Same as {@link #encode(int, int, int, int, int, int, byte[], int)} plus the eventID, as version 2. */
+    public static int encode(int resortID, int seasonID, int dayID, int skierID, int liftID, int time,
+                             long eventID, byte[] dst, int offset) {
+        encode(resortID, seasonID, dayID, skierID, liftID, time, dst, offset);
+        dst[offset] = VERSION_2;
+        putInt(dst, offset + 15, (int) (eventID >>> 32));
+        putInt(dst, offset + 19, (int) eventID);
+        return V2_LENGTH;
+    }
+
+    /** Version 2 if the ride has an eventID, version 1 otherwise. */
+    public static byte[] encode(LiftRide ride) {
+        byte[] bytes = new byte[ride.getEventID() != 0 ? V2_LENGTH : V1_LENGTH];
+        if (ride.getEventID() != 0) {
+            encode(ride.getResortID(), ride.getSeasonID(), ride.getDayID(), ride.getSkierID(),
+                    ride.getLiftID(), ride.getTime(), ride.getEventID(), bytes, 0);
+        } else {
+            encode(ride.getResortID(), ride.getSeasonID(), ride.getDayID(), ride.getSkierID(),
+                    ride.getLiftID(), ride.getTime(), bytes, 0);
+        }
+        return bytes;
+    }
+
+    /** Length of a record that starts with {@code version}, or -1 for an unknown version. */
+    public static int lengthOf(byte version) {
+        return version == VERSION_1 ? V1_LENGTH : version == VERSION_2 ? V2_LENGTH : -1;
+    }
+
+    /**
+     * Reads the ride at {@code offset} into {@code into} and returns the number of bytes consumed.
+     *
+     * @throws IllegalArgumentException on an unknown version or a truncated message
+     */
+    public static int decode(byte[] src, int offset, int length, LiftRide into) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Empty lift ride message");
+        }
+        int recordLength = lengthOf(src[offset]);
+        if (recordLength < 0) {
+            throw new IllegalArgumentException("Unsupported lift ride format version: " + src[offset]);
+        }
+        if (length < recordLength) {
+            throw new IllegalArgumentException("Truncated lift ride message: " + length + " bytes");
+        }
+        into.set(getShort(src, offset + 1), getShort(src, offset + 3), getShort(src, offset + 5),
+                getInt(src, offset + 7), getShort(src, offset + 11), getShort(src, offset + 13));
+        if (recordLength == V2_LENGTH) {
+            into.setEventID(((long) getInt(src, offset + 15) << 32) | (getInt(src, offset + 19) & 0xFFFFFFFFL));
+        }
+        return recordLength;
+    }
+
+    /**
+     * Reads just the skierID of the ride at {@code offset}, for routing without a full decode.
+     *
+     * @throws IllegalArgumentException on an unknown version or a truncated message
+     */
+    public static int skierID(byte[] src, int offset, int length) {
+        if (length < 1 || lengthOf(src[offset]) < 0 || length < lengthOf(src[offset])) {
+            throw new IllegalArgumentException("Not a binary lift ride message");
+        }
+        return getInt(src, offset + 7);
+    }
+
+    public static LiftRide decode(byte[] src) {
+        LiftRide ride = new LiftRide();
+        decode(src, 0, src.length, ride);
+        return ride;
+    }
+
+    public static boolean isBinary(String contentType) {
+        return CONTENT_TYPE_BINARY.equals(contentType);
+    }
+
+    private static boolean isUnsignedShort(int value) {
+        return value >= 0 && value <= MAX_UNSIGNED_SHORT;
+    }
+
+    private static void putShort(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 8);
+        dst[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 24);
+        dst[offset + 1] = (byte) (value >>> 16);
+        dst[offset + 2] = (byte) (value >>> 8);
+        dst[offset + 3] = (byte) value;
+    }
+
+    private static int getShort(byte[] src, int offset) {
+        return ((src[offset] & 0xFF) << 8) | (src[offset + 1] & 0xFF);
+    }
+
+    private static int getInt(byte[] src, int offset) {
+        return ((src[offset] & 0xFF) << 24) | ((src[offset + 1] & 0xFF) << 16)
+                | ((src[offset + 2] & 0xFF) << 8) | (src[offset + 3] & 0xFF);
+    }
+}
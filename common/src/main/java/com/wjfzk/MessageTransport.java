@@ -0,0 +1,130 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The message broker as the server and the consumer see it: durable named queues, direct
+ * exchanges routing to them, publishing with optional confirms, and consuming with a prefetch
+ * limit and explicit acks. Naming follows AMQP: the default exchange {@code ""} routes to the
+ * queue named by the routing key.
+ * {@link RabbitMqTransport} talks to a RabbitMQ broker; {@link InProcessTransport} keeps the
+ * queues inside the JVM so the whole pipeline can run, and be measured, in one process.
+ */
+public interface MessageTransport extends AutoCloseable {
+
+    /** Declares a durable queue; a no-op if it already exists. */
+    void declareQueue(String queue) throws IOException;
+
+    /** Declares a durable direct exchange; a no-op if it already exists. */
+    void declareExchange(String exchange) throws IOException;
+
+    /** Routes messages published to {@code exchange} with {@code routingKey} to {@code queue}. */
+    void bindQueue(String queue, String exchange, String routingKey) throws IOException;
+
+    /** Messages in {@code queue} that are ready for delivery, not counting unacked ones. */
+    long queueDepth(String queue) throws IOException;
+
+    /**
+     * Opens a channel that publishes to {@code exchange}. Channels are not thread-safe; use one
+     * per publishing thread.
+     */
+    PublishChannel openPublishChannel(String exchange, boolean confirms) throws IOException;
+
+    /**
+     * Starts delivering messages from {@code queues} to {@code handler}, with at most
+     * {@code prefetch} unacked per queue. Deliveries on one subscription never overlap, so each
+     * queue's messages are handled in queue order.
+     */
+    Subscription subscribe(List<String> queues, int prefetch, DeliveryHandler handler) throws IOException;
+
+    boolean isOpen();
+
+    @Override
+    void close() throws IOException;
+
+    interface PublishChannel extends AutoCloseable {
+
+        /** @param contentType {@link LiftRideCodec#CONTENT_TYPE_BINARY} or {@link LiftRideCodec#CONTENT_TYPE_JSON} */
+        void publish(String routingKey, byte[] body, String contentType) throws IOException;
+
+        /**
+         * Waits until everything published so far is confirmed. If a message was rejected or the
+         * timeout expires, the channel is closed and the exception thrown; a rejection is a
+         * {@link NackedException} naming the rejected messages, and every other message was
+         * confirmed.
+         */
+        void waitForConfirms(long timeoutMillis) throws IOException, InterruptedException, TimeoutException;
+
+        boolean isOpen();
+
+        @Override
+        void close();
+    }
+
+    interface Subscription {
+
+        void ack(long deliveryTag, boolean multiple) throws IOException;
+
+        void nack(long deliveryTag, boolean multiple, boolean requeue) throws IOException;
+
+        void setPrefetch(int prefetch) throws IOException;
+
+        /** Stops new deliveries; messages already delivered can still be acked. */
+        void cancel() throws IOException;
+
+        /** Closes the subscription; messages still unacked go back to the queue. */
+        void close() throws IOException;
+
+        boolean isOpen();
+    }
+
+    @FunctionalInterface
+    interface DeliveryHandler {
+        void handle(Message message) throws IOException;
+    }
+
+    /**
+     * The broker rejected (nacked) some of the messages published since the previous
+     * {@link PublishChannel#waitForConfirms}. It never queued those, so they can be sent again.
+     */
+    class NackedException extends IOException {
+        private final int[] positions;
+
+        public NackedException(int[] positions) {
+            super("Broker rejected " + positions.length + " message(s)");
+            this.positions = positions;
+        }
+
+        /** 0-based indexes of the rejected messages among those published since the previous wait. */
+        public int[] positions() {
+            return positions.clone();
+        }
+    }
+
+    /** One delivered message; {@link #deliveryTag} identifies it to its subscription's ack/nack. */
+    final class Message {
+        private final long deliveryTag;
+        private final byte[] body;
+        private final String contentType;
+
+        public Message(long deliveryTag, byte[] body, String contentType) {
+            this.deliveryTag = deliveryTag;
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        public long deliveryTag() {
+            return deliveryTag;
+        }
+
+        public byte[] body() {
+            return body;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ride queue split into {@code count} partitions by skierID, so that one queue no longer caps
+ * throughput and all of a skier's rides stay in one queue, in order. Partition {@code p} is the
+ * queue {@code <baseQueue>.<p>}, bound to a direct exchange with routing key {@code <p>}; the
+ * server publishes to the exchange with {@link #routingKeyFor} and each partition is consumed by
+ * exactly one consumer thread ({@link #queuesFor}).
+ *
+ * <p>With one partition nothing changes from the unpartitioned setup: rides go straight to
+ * {@code baseQueue} through the default exchange. The server and the consumer must agree on the
+ * partition count; changing it needs the old queues drained first.
+ */
+public final class QueuePartitions {
+
+    private final String exchange;
+    private final String baseQueue;
+    private final String[] queues;
+    private final String[] routingKeys;
+
+    public QueuePartitions(String exchange, String baseQueue, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("partition count must be positive: " + count);
+        }
+        this.exchange = count == 1 ? "" : exchange;
+        this.baseQueue = baseQueue;
+        this.queues = new String[count];
+        this.routingKeys = new String[count];
+        for (int p = 0; p < count; p++) {
+            queues[p] = count == 1 ? baseQueue : baseQueue + "." + p;
+            routingKeys[p] = count == 1 ? baseQueue : Integer.toString(p);
+        }
+    }
+
+    public int count() {
+        return queues.length;
+    }
+
+    /** The exchange to publish to; {@code ""} (the default exchange) for a single partition. */
+    public String exchange() {
+        return exchange;
+    }
+
+    public String queue(int partition) {
+        return queues[partition];
+    }
+
+    public List<String> queues() {
+        return List.of(queues);
+    }
+
+    public int partitionOf(int skierID) {
+        if (queues.length == 1) {
+            return 0;
+        }
+        // murmur3 的 fmix32：连续的 skierID 也能均匀分到各分区
+        int h = skierID;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Integer.remainderUnsigned(h, queues.length);
+    }
+
+    public String routingKeyFor(int skierID) {
+        return routingKeys[partitionOf(skierID)];
+    }
+
+    /** The queues consumer {@code index} of {@code consumers} owns: every partition {@code p} with {@code p % consumers == index}. */
+    public List<String> queuesFor(int index, int consumers) {
+        List<String> owned = new ArrayList<>();
+        for (int p = index; p < queues.length; p += consumers) {
+            owned.add(queues[p]);
+        }
+        return owned;
+    }
+
+    /** Declares the exchange and the partition queues with their bindings. */
+    public void declare(MessageTransport transport) throws IOException {
+        if (queues.length == 1) {
+            transport.declareQueue(baseQueue);
+            return;
+        }
+        transport.declareExchange(exchange);
+        for (int p = 0; p < queues.length; p++) {
+            transport.declareQueue(queues[p]);
+            transport.bindQueue(queues[p], exchange, routingKeys[p]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return queues.length == 1 ? baseQueue
+                : String.format("%s.0-%d via exchange %s", baseQueue, queues.length - 1, exchange);
+    }
+}
@@ -0,0 +1,254 @@
+package com.wjfzk;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link MessageTransport} over one RabbitMQ connection. Every publish channel and subscription
+ * gets its own AMQP channel; a subscription to several queues is one basicConsume per queue on
+ * that channel, so its deliveries are serialized. The caller builds the connection, so host,
+ * credentials, recovery and the delivery executor stay with each module's own settings.
+ */
+public class RabbitMqTransport implements MessageTransport {
+
+    static final AMQP.BasicProperties BINARY_PROPERTIES = new AMQP.BasicProperties.Builder()
+            .contentType(LiftRideCodec.CONTENT_TYPE_BINARY).build();
+    static final AMQP.BasicProperties JSON_PROPERTIES = new AMQP.BasicProperties.Builder()
+            .contentType(LiftRideCodec.CONTENT_TYPE_JSON).build();
+
+    private final Connection connection;
+    // 只用于声明队列、exchange 和查询深度
+    private Channel admin;
+
+    public RabbitMqTransport(Connection connection) {
+        this.connection = connection;
+    }
+
+    static AMQP.BasicProperties propertiesFor(String contentType) {
+        return LiftRideCodec.isBinary(contentType) ? BINARY_PROPERTIES : JSON_PROPERTIES;
+    }
+
+    private synchronized Channel admin() throws IOException {
+        if (admin == null || !admin.isOpen()) {
+            admin = connection.createChannel();
+        }
+        return admin;
+    }
+
+    @Override
+    public synchronized void declareQueue(String queue) throws IOException {
+        admin().queueDeclare(queue, true, false, false, null);
+    }
+
+    @Override
+    public synchronized void declareExchange(String exchange) throws IOException {
+        admin().exchangeDeclare(exchange, BuiltinExchangeType.DIRECT, true);
+    }
+
+    @Override
+    public synchronized void bindQueue(String queue, String exchange, String routingKey) throws IOException {
+        admin().queueBind(queue, exchange, routingKey);
+    }
+
+    @Override
+    public synchronized long queueDepth(String queue) throws IOException {
+        return admin().queueDeclarePassive(queue).getMessageCount();
+    }
+
+    @Override
+    public PublishChannel openPublishChannel(String exchange, boolean confirms) throws IOException {
+        Channel channel = connection.createChannel();
+        ConfirmTracker tracker = new ConfirmTracker();
+        if (confirms) {
+            channel.confirmSelect();
+            channel.addConfirmListener(tracker);
+        }
+        return new PublishChannel() {
+            @Override
+            public void publish(String routingKey, byte[] body, String contentType) throws IOException {
+                if (confirms) {
+                    tracker.published(channel.getNextPublishSeqNo());
+                }
+                channel.basicPublish(exchange, routingKey, propertiesFor(contentType), body);
+            }
+
+            @Override
+            public void waitForConfirms(long timeoutMillis) throws IOException, InterruptedException, TimeoutException {
+                if (!confirms) {
+                    return;
+                }
+                boolean allAcked;
+                try {
+                    allAcked = channel.waitForConfirms(timeoutMillis);
+                } catch (TimeoutException e) {
+                    closeQuietly(channel);
+                    throw e;
+                }
+                // waitForConfirms 返回时所有 confirm 都已到达，监听器也已执行
+                int[] nacked = tracker.takeNacked();
+                if (!allAcked) {
+                    closeQuietly(channel);
+                    throw new NackedException(nacked);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() {
+                closeQuietly(channel);
+            }
+        };
+    }
+
+    @Override
+    public Subscription subscribe(List<String> queues, int prefetch, DeliveryHandler handler) throws IOException {
+        Channel channel = connection.createChannel();
+        channel.basicQos(prefetch); // 限制每个队列未确认的消息数
+        // 下标与 queues 一一对应；setPrefetch 会替换其中的 tag
+        List<String> consumerTags = new ArrayList<>();
+        for (String queue : queues) {
+            channel.queueDeclare(queue, true, false, false, null);
+            consumerTags.add(consume(channel, queue, handler));
+        }
+        return new Subscription() {
+            @Override
+            public void ack(long deliveryTag, boolean multiple) throws IOException {
+                channel.basicAck(deliveryTag, multiple);
+            }
+
+            @Override
+            public void nack(long deliveryTag, boolean multiple, boolean requeue) throws IOException {
+                channel.basicNack(deliveryTag, multiple, requeue);
+            }
+
+            /**
+             * A per-consumer basicQos only applies to consumers started after it, so each queue's
+             * consumer is cancelled and started again under the new limit. Unacked deliveries
+             * stay with the channel and are acked as usual.
+             */
+            @Override
+            public void setPrefetch(int prefetch) throws IOException {
+                synchronized (consumerTags) {
+                    if (!channel.isOpen() || consumerTags.isEmpty()) {
+                        return;
+                    }
+                    channel.basicQos(prefetch);
+                    for (int i = 0; i < queues.size(); i++) {
+                        channel.basicCancel(consumerTags.get(i));
+                        consumerTags.set(i, consume(channel, queues.get(i), handler));
+                    }
+                }
+            }
+
+            @Override
+            public void cancel() throws IOException {
+                synchronized (consumerTags) {
+                    for (String consumerTag : consumerTags) {
+                        channel.basicCancel(consumerTag);
+                    }
+                    consumerTags.clear();
+                }
+            }
+
+            @Override
+            public void close() {
+                closeQuietly(channel);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+        };
+    }
+
+    private static String consume(Channel channel, String queue, DeliveryHandler handler) throws IOException {
+        return channel.basicConsume(queue, false,
+                (tag, delivery) -> handler.handle(new Message(delivery.getEnvelope().getDeliveryTag(),
+                        delivery.getBody(), delivery.getProperties().getContentType())),
+                tag -> System.out.println("Cancelled consumption of queue: " + queue));
+    }
+
+    @Override
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (connection.isOpen()) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Remembers which publishes since the last wait were nacked, by position, so a caller can
+     * tell the rejected messages from the confirmed ones. Confirms arrive on the connection's
+     * thread.
+     */
+    private static final class ConfirmTracker implements ConfirmListener {
+        private final TreeSet<Long> outstanding = new TreeSet<>();
+        private final List<Integer> nacked = new ArrayList<>();
+        private long firstSeqNo = -1;
+
+        synchronized void published(long seqNo) {
+            if (firstSeqNo < 0) {
+                firstSeqNo = seqNo;
+            }
+            outstanding.add(seqNo);
+        }
+
+        @Override
+        public synchronized void handleAck(long deliveryTag, boolean multiple) {
+            confirmed(deliveryTag, multiple).clear();
+        }
+
+        @Override
+        public synchronized void handleNack(long deliveryTag, boolean multiple) {
+            Set<Long> tags = confirmed(deliveryTag, multiple);
+            for (long tag : tags) {
+                nacked.add((int) (tag - firstSeqNo));
+            }
+            tags.clear();
+        }
+
+        private Set<Long> confirmed(long deliveryTag, boolean multiple) {
+            return multiple ? outstanding.headSet(deliveryTag, true)
+                    : outstanding.subSet(deliveryTag, true, deliveryTag, true);
+        }
+
+        /** Returns the nacked positions and starts counting positions afresh. */
+        synchronized int[] takeNacked() {
+            int[] positions = nacked.stream().mapToInt(Integer::intValue).sorted().toArray();
+            nacked.clear();
+            outstanding.clear();
+            firstSeqNo = -1;
+            return positions;
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        if (channel == null || !channel.isOpen()) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            System.out.println("Failed to close RabbitMQ channel: " + e.getMessage());
+        }
+    }
+}
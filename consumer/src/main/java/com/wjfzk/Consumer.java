@@ -2,32 +2,93 @@ package com.wjfzk;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-public class Consumer {
+public class Consumer implements ConsumerAutoscaler.ConsumerPool {
+    // consumer.transport=inprocess 时从同一 JVM 内的 InProcessBroker 消费，不连 RabbitMQ
+    private static final String TRANSPORT = "rabbitmq";
     private static final String HOST = "44.246.128.90"; // 本地测试时使用
     private static final String QUEUE_NAME = "skier_queue";
+    // 分区数须与服务端的 queue.partitions 一致；大于 1 时每个分区只由一个 consumer 消费，同一 skier 的消息按序处理
+    private static final int QUEUE_PARTITIONS = 1;
+    private static final String QUEUE_EXCHANGE = "skier_exchange";
+    // 以下为默认值，运行时可通过 -Dconsumer.threads / CONSUMER_THREADS 等覆盖，见 ConsumerConfig
     private static final int THREAD_COUNT = 5;
     private static final int PREFETCH_COUNT = 100;
+    private static final int BATCH_SIZE = 50;
+    private static final long LINGER_MS = 5;
+    private static final String STORE_DIR = "skier-rides";
+    private static final int STORE_SEGMENT_BYTES = 64 * 1024 * 1024;
+    // 查询接口端口，0 表示不启动
+    private static final int READ_API_PORT = 8081;
+    private static final int READ_API_THREADS = 4;
+    private static final int CHANGE_LOG_CAPACITY = 65536;
+    // 按 eventID 去重：每个窗口预计的消息数、误判率和窗口长度
+    private static final int DEDUP_EXPECTED_PER_WINDOW = 1_000_000;
+    private static final double DEDUP_FALSE_POSITIVE_RATE = 1e-6;
+    private static final long DEDUP_WINDOW_MS = 10 * 60 * 1000;
+    // 自动扩缩容：channel 数与 prefetch 的上下限、队列深度阈值和采样节奏
+    private static final int MIN_THREADS = 1;
+    private static final int MAX_THREADS = 64;
+    private static final int MAX_PREFETCH = 1000;
+    private static final int SCALE_UP_DEPTH = 1000;
+    private static final int SCALE_DOWN_DEPTH = 100;
+    private static final int AUTOSCALE_INTERVAL_MS = 1000;
+    private static final int AUTOSCALE_COOLDOWN_MS = 5000;
+    // 空闲的投递线程存活时间，超时后线程退出
+    private static final long DISPATCH_KEEP_ALIVE_SECONDS = 30;
+    // 处理消息的 lane 数，0 表示每个 CPU 一个
+    private static final int LANES = 0;
+    // 停止 channel 时等待 lane 处理完已交出消息的最长时间
+    private static final long DRAIN_TIMEOUT_SECONDS = 30;
+    // 快照文件名（默认放在存储目录下）和写快照的间隔
+    private static final String SNAPSHOT_FILE = "consumer.snapshot";
+    private static final int SNAPSHOT_INTERVAL_MS = 60000;
 
-    private Connection connection;
-    private ExecutorService executorService;
-    // 用于存储处理过的消息（线程安全）
-    private static final ConcurrentHashMap<Integer, List<Integer>> messageStore = new ConcurrentHashMap<>();
-    // 用于优雅关闭消费者线程
-    private CountDownLatch shutdownLatch = new CountDownLatch(1);
+    private final ConsumerConfig config;
+    private MessageTransport transport;
+    private QueuePartitions partitions;
+    private ThreadPoolExecutor dispatchPool;
+    private ScheduledExecutorService lingerTimer;
+    // 按 skierID 分条的处理线程，channel 的回调只负责把消息交给它
+    private RideLanes lanes;
+    // 处理过的消息写入的存储，见 createSink
+    private RideSink sink;
+    // 按 skier/day 与 resort/day 预聚合的查询数据，由 ReadApiServer 对外提供
+    private final RideAggregates aggregates = new RideAggregates(SkierRideStore.DEFAULT_MAX_SKIER_ID,
+            ConsumerConfig.intSetting("consumer.sketch.precision", HyperLogLog.DEFAULT_PRECISION));
+    private ReadApiServer readApi;
+    private ConsumerSnapshotter snapshotter;
+    private EventDeduplicator deduplicator;
+    private ConsumerAutoscaler autoscaler;
+    // 每个 ChannelConsumer 对应一个 channel；由 autoscaler 增减
+    private final List<ChannelConsumer> consumers = new ArrayList<>();
+    private final LongAdder settled = new LongAdder();
+    private volatile int prefetch;
+
+    public Consumer() {
+        this(ConsumerConfig.fromEnvironment(THREAD_COUNT, PREFETCH_COUNT, BATCH_SIZE, LINGER_MS));
+    }
+
+    public Consumer(ConsumerConfig config) {
+        this.config = config;
+        this.prefetch = config.getPrefetchCount();
+    }
 
     public static void main(String[] args) throws Exception {
         Consumer consumer = new Consumer();
@@ -39,85 +100,432 @@ public class Consumer {
     }
 
     public void startConsuming() throws Exception {
+        int maxThreads = Math.max(config.getThreadCount(), ConsumerConfig.intSetting("consumer.maxThreads", MAX_THREADS));
+        // 所有 channel 的消息回调共用这个线程池；空闲线程超时退出，不再常驻阻塞
+        AtomicInteger threadIndex = new AtomicInteger();
+        dispatchPool = new ThreadPoolExecutor(maxThreads, maxThreads, DISPATCH_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "consumer-dispatch-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        dispatchPool.allowCoreThreadTimeOut(true);
+
+        transport = openTransport();
+        partitions = new QueuePartitions(ConsumerConfig.setting("consumer.queue.exchange", QUEUE_EXCHANGE),
+                ConsumerConfig.setting("consumer.queue", QUEUE_NAME),
+                ConsumerConfig.intSetting("consumer.partitions", QUEUE_PARTITIONS));
+        partitions.declare(transport);
+
+        System.out.println(" [*] Consumer settings: " + config);
+        Path storeDirectory = Paths.get(ConsumerConfig.setting("consumer.store.dir", STORE_DIR));
+        Path snapshotFile = Paths.get(ConsumerConfig.setting("consumer.snapshot.file",
+                storeDirectory.resolve(SNAPSHOT_FILE).toString()));
+        boolean snapshots = Boolean.parseBoolean(ConsumerConfig.setting("consumer.snapshot.enabled", "true"));
+        if (Boolean.parseBoolean(ConsumerConfig.setting("consumer.dedup.enabled", "true"))) {
+            deduplicator = new EventDeduplicator(
+                    ConsumerConfig.intSetting("consumer.dedup.expectedPerWindow", DEDUP_EXPECTED_PER_WINDOW),
+                    ConsumerConfig.doubleSetting("consumer.dedup.falsePositiveRate", DEDUP_FALSE_POSITIVE_RATE),
+                    ConsumerConfig.intSetting("consumer.dedup.windowMs", (int) DEDUP_WINDOW_MS));
+        }
+        RideSink store = createSink(storeDirectory, snapshots ? ConsumerSnapshot.open(snapshotFile) : null);
+        sink = aggregates.wrap(store);
+        if (snapshots) {
+            snapshotter = store instanceof SegmentRideSink
+                    ? new ConsumerSnapshotter(snapshotFile, ConsumerSnapshot.STORE_SEGMENT, (SegmentRideSink) store,
+                            aggregates, deduplicator)
+                    : new ConsumerSnapshotter(snapshotFile, ConsumerSnapshot.STORE_MEMORY, (MemoryRideSink) store,
+                            aggregates, deduplicator);
+            snapshotter.start(ConsumerConfig.intSetting("consumer.snapshot.intervalMs", SNAPSHOT_INTERVAL_MS));
+        }
+        int readApiPort = ConsumerConfig.intSetting("consumer.http.port", READ_API_PORT);
+        if (readApiPort > 0) {
+            readApi = new ReadApiServer(readApiPort,
+                    ConsumerConfig.intSetting("consumer.http.threads", READ_API_THREADS), aggregates,
+                    aggregates.trackChanges(ConsumerConfig.intSetting("consumer.http.changeLog", CHANGE_LOG_CAPACITY)));
+            readApi.start();
+        }
+        // 批次未满时由该定时器在 linger 到期后刷新
+        lingerTimer = Executors.newSingleThreadScheduledExecutor();
+        int laneCount = ConsumerConfig.intSetting("consumer.lanes", LANES);
+        lanes = new RideLanes(laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors(),
+                config.getBatchSize(), config.getLingerMillis(), lingerTimer, sink, deduplicator,
+                snapshotter == null ? null : snapshotter.appendLock());
+        System.out.println(" [*] Storing rides on " + lanes.laneCount() + " lanes");
+
+        addConsumers(config.getThreadCount());
+        System.out.println(" [*] Waiting for messages in " + partitions);
+
+        if (Boolean.parseBoolean(ConsumerConfig.setting("consumer.autoscale.enabled", "true"))) {
+            // 分区模式下多于分区数的 consumer 没有活干
+            int maxConsumers = partitions.count() > 1 ? Math.min(maxThreads, partitions.count()) : maxThreads;
+            autoscaler = new ConsumerAutoscaler(this, transport, partitions.queues(),
+                    ConsumerConfig.intSetting("consumer.minThreads", MIN_THREADS), maxConsumers,
+                    config.getPrefetchCount(), ConsumerConfig.intSetting("consumer.maxPrefetch", MAX_PREFETCH),
+                    ConsumerConfig.intSetting("consumer.autoscale.scaleUpDepth", SCALE_UP_DEPTH),
+                    ConsumerConfig.intSetting("consumer.autoscale.scaleDownDepth", SCALE_DOWN_DEPTH),
+                    ConsumerConfig.intSetting("consumer.autoscale.intervalMs", AUTOSCALE_INTERVAL_MS),
+                    ConsumerConfig.intSetting("consumer.autoscale.cooldownMs", AUTOSCALE_COOLDOWN_MS));
+        }
+    }
+
+    private MessageTransport openTransport() throws Exception {
+        if ("inprocess".equalsIgnoreCase(ConsumerConfig.setting("consumer.transport", TRANSPORT))) {
+            return new InProcessTransport(InProcessBroker.shared(), dispatchPool);
+        }
         ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(HOST);
-        factory.setUsername("guest");
-        factory.setPassword("guest");
+        factory.setHost(ConsumerConfig.setting("consumer.rabbitmq.host", HOST));
+        factory.setPort(ConsumerConfig.intSetting("consumer.rabbitmq.port", ConnectionFactory.DEFAULT_AMQP_PORT));
+        factory.setUsername(ConsumerConfig.setting("consumer.rabbitmq.username", ConnectionFactory.DEFAULT_USER));
+        factory.setPassword(ConsumerConfig.setting("consumer.rabbitmq.password", ConnectionFactory.DEFAULT_PASS));
+        factory.setVirtualHost(ConsumerConfig.setting("consumer.rabbitmq.vhost", ConnectionFactory.DEFAULT_VHOST));
         factory.setAutomaticRecoveryEnabled(true);
         factory.setRequestedHeartbeat(30);
+        factory.setSharedExecutor(dispatchPool);
         // 建立一个连接
-        connection = factory.newConnection();
+        return new RabbitMqTransport(factory.newConnection());
+    }
 
-        // 使用固定线程池启动消费者线程
-        executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+    public void stopConsuming() throws Exception {
+        if (autoscaler != null) {
+            autoscaler.close();
+        }
+        // 逐个取消订阅并等 lane 处理完已交出的消息；未确认的消息在 channel 关闭时由 broker 重新入队
+        removeConsumers(consumerCount());
+        if (lanes != null) {
+            lanes.close();
+        }
+        if (lingerTimer != null) {
+            lingerTimer.shutdownNow();
+        }
+        if (snapshotter != null) {
+            // 正常退出时写一份最新快照，下次启动无需重放
+            snapshotter.close();
+            try {
+                snapshotter.snapshot();
+            } catch (IOException e) {
+                System.err.println("Final snapshot failed: " + e.getMessage());
+            }
+        }
+        if (readApi != null) {
+            readApi.stop();
+        }
+        if (transport != null) {
+            transport.close();
+        }
+        if (dispatchPool != null) {
+            dispatchPool.shutdown();
+        }
+        if (sink != null) {
+            sink.close();
+        }
+        if (deduplicator != null) {
+            System.out.println(" [*] Dropped " + deduplicator.duplicates() + " duplicate messages");
+        }
+    }
 
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            executorService.submit(new ConsumerTask(connection, QUEUE_NAME, shutdownLatch));
+    @Override
+    public int consumerCount() {
+        synchronized (consumers) {
+            return consumers.size();
         }
     }
 
-    public void stopConsuming() throws Exception {
-        // 触发关闭信号，唤醒所有阻塞的消费者线程
-        shutdownLatch.countDown();
-        if (executorService != null) {
-            executorService.shutdownNow();
+    @Override
+    public void addConsumers(int count) throws IOException {
+        if (partitions.count() > 1) {
+            rebalance(consumerCount() + count);
+            return;
         }
-        if (connection != null) {
-            connection.close();
+        for (int i = 0; i < count; i++) {
+            ChannelConsumer consumer = new ChannelConsumer(transport, partitions.queues(), prefetch, lanes, settled);
+            consumer.start();
+            synchronized (consumers) {
+                consumers.add(consumer);
+            }
         }
     }
 
-    // 内部静态类，作为消费者任务
-    private static class ConsumerTask implements Runnable {
+    @Override
+    public void removeConsumers(int count) throws IOException {
+        if (partitions.count() > 1) {
+            rebalance(Math.max(0, consumerCount() - count));
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            ChannelConsumer consumer;
+            synchronized (consumers) {
+                if (consumers.isEmpty()) {
+                    return;
+                }
+                consumer = consumers.remove(consumers.size() - 1);
+            }
+            consumer.stop();
+        }
+    }
 
-        private final Connection connection;
-        private final String queueName;
-        private final CountDownLatch shutdownLatch;
+    // 先停掉全部旧 consumer（等 lane 存完并 ack，其余投递退回队列），再轮流分配分区，
+    // 一个分区不会同时被两个 channel 消费，每个 skier 的骑行保持顺序
+    private void rebalance(int target) throws IOException {
+        int consumerTotal = Math.min(target, partitions.count());
+        synchronized (consumers) {
+            int previous = consumers.size();
+            // 数量不变时不必停掉所有 channel 再重新分配分区
+            if (consumerTotal == previous) {
+                return;
+            }
+            for (ChannelConsumer consumer : consumers) {
+                consumer.stop();
+            }
+            consumers.clear();
+            for (int i = 0; i < consumerTotal; i++) {
+                ChannelConsumer consumer = new ChannelConsumer(transport, partitions.queuesFor(i, consumerTotal),
+                        prefetch, lanes, settled);
+                consumer.start();
+                consumers.add(consumer);
+            }
+            if (consumerTotal > 0) {
+                System.out.printf(" [*] Rebalanced %d partitions: %d -> %d consumers%n",
+                        partitions.count(), previous, consumerTotal);
+            }
+        }
+    }
 
-        public ConsumerTask(Connection connection, String queueName, CountDownLatch shutdownLatch) {
-            this.connection = connection;
-            this.queueName = queueName;
-            this.shutdownLatch = shutdownLatch;
+    @Override
+    public void setPrefetch(int prefetch) throws IOException {
+        this.prefetch = prefetch;
+        List<ChannelConsumer> current;
+        synchronized (consumers) {
+            current = new ArrayList<>(consumers);
         }
+        for (ChannelConsumer consumer : current) {
+            consumer.setPrefetch(prefetch);
+        }
+    }
 
-        @Override
-        public void run() {
+    @Override
+    public long settledCount() {
+        return settled.sum();
+    }
+
+    // memory 只保存每个 skier 的 liftID，最近一次快照之后的数据重启即丢失
+    // 有匹配的快照时从中加载索引和聚合，只重放 checkpoint 之后的骑行
+    private RideSink createSink(Path directory, ConsumerSnapshot snapshot) throws IOException {
+        String type = ConsumerConfig.setting("consumer.store", "segment");
+        boolean memory = "memory".equalsIgnoreCase(type);
+        byte kind = memory ? ConsumerSnapshot.STORE_MEMORY : ConsumerSnapshot.STORE_SEGMENT;
+        int segmentBytes = ConsumerConfig.intSetting("consumer.store.segmentBytes", STORE_SEGMENT_BYTES);
+        if (snapshot != null && snapshot.storeKind() != kind) {
+            System.err.println("Ignoring snapshot taken with a different consumer.store");
+            snapshot = null;
+        }
+        if (snapshot != null && !memory && SegmentRideSink.storedRides(directory) < snapshot.checkpoint()) {
+            System.err.println("Ignoring snapshot at ride " + snapshot.checkpoint() + ": the segments hold fewer rides");
+            snapshot = null;
+        }
+        if (snapshot != null) {
+            long start = System.nanoTime();
             try {
-                Channel channel = connection.createChannel();
-                channel.queueDeclare(queueName, true, false, false, null);
-                channel.basicQos(PREFETCH_COUNT); // 限制未确认的消息数
+                aggregates.restoreSnapshot(snapshot.aggregates());
+                RideSink sink = memory
+                        ? new MemoryRideSink(SkierRideStore.readSnapshot(snapshot.store()))
+                        : new SegmentRideSink(directory, segmentBytes, SkierRideStore.DEFAULT_MAX_SKIER_ID,
+                                aggregates::add, snapshot.store(), snapshot.checkpoint());
+                System.out.printf(" [*] Restored snapshot at ride %d (%.1f MB) in %d ms%n", snapshot.checkpoint(),
+                        snapshot.sizeBytes() / 1048576.0, (System.nanoTime() - start) / 1_000_000);
+                restoreDedup(snapshot);
+                return sink;
+            } catch (RuntimeException e) {
+                System.err.println("Ignoring unreadable snapshot: " + e);
+                aggregates.clear();
+            }
+        }
+        if (memory) {
+            return new MemoryRideSink(new SkierRideStore());
+        }
+        return new SegmentRideSink(directory, segmentBytes, SkierRideStore.DEFAULT_MAX_SKIER_ID, aggregates::add);
+    }
+
+    // 去重过滤器与快照不匹配时只丢掉过滤器，存储和聚合照常使用快照
+    private void restoreDedup(ConsumerSnapshot snapshot) {
+        ByteBuffer filters = snapshot.dedup();
+        if (deduplicator == null || filters == null) {
+            return;
+        }
+        try {
+            deduplicator.restoreSnapshot(filters);
+        } catch (RuntimeException e) {
+            System.err.println("Ignoring dedup filters in the snapshot: " + e.getMessage());
+        }
+    }
 
-                System.out.println(" [*] Waiting for messages in " + queueName);
+    // 读不出 skierID 时返回 0，由 lane 拒绝该消息
+    static int skierIdOf(byte[] body, String contentType) {
+        try {
+            if (LiftRideCodec.isBinary(contentType)) {
+                return LiftRideCodec.skierID(body, 0, body.length);
+            }
+            return JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject()
+                    .get("skierID").getAsInt();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
 
-                channel.basicConsume(queueName, false, (consumerTag, delivery) -> {
-                    String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-                    System.out.println(" [x] Received from " + queueName + ": " + message);
+    // 解码失败时抛出 RuntimeException
+    static void decode(byte[] body, String contentType, LiftRide ride) {
+        if (LiftRideCodec.isBinary(contentType)) {
+            LiftRideCodec.decode(body, 0, body.length, ride);
+            return;
+        }
+        // JSON 兼容格式
+        JsonObject js = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+        ride.set(js.get("resortID").getAsInt(), js.get("seasonID").getAsInt(), js.get("dayID").getAsInt(),
+                js.get("skierID").getAsInt(), js.get("liftID").getAsInt(), js.get("time").getAsInt());
+        if (js.has("eventID")) {
+            ride.setEventID(js.get("eventID").getAsLong());
+        }
+    }
 
-                    storeMessage(message);
-                    // 手动确认消息
-                    channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-                }, consumerTag -> {
-                    System.out.println("Cancelled consumption of queue: " + queueName);
-                });
+    // 一个订阅（RabbitMQ 下即一个 channel）：回调只读 skierID 并交给对应 lane，慢消息只拖住一个 lane
+    // lane 结算顺序不定，从最早未确认的投递起连续已结算的一段用一次 multiple ack 确认
+    private static class ChannelConsumer implements RideLanes.Owner {
+        private static final int INITIAL_WINDOW = 256; // 必须是 2 的幂
+        private static final byte PENDING = 0;
+        private static final byte ACKED = 1;
+        private static final byte NACKED = 2;
 
-                // 使用 CountDownLatch 阻塞线程，直到调用 stopConsuming 时唤醒退出
-                shutdownLatch.await();
-            } catch (IOException | InterruptedException e) {
-                System.err.println("Consumer encountered error: " + e.getMessage());
-                Thread.currentThread().interrupt();
-            }
+        private final MessageTransport transport;
+        private final List<String> queues;
+        private final int initialPrefetch;
+        private final RideLanes lanes;
+        // 已处理（ack 或 nack 丢弃）的消息数，供 autoscaler 计算处理速率
+        private final LongAdder settled;
+        // 以投递序号 seq 为下标的环形窗口：deliveryTag 与结算状态；head 是最早未确认的一条
+        private long[] tags = new long[INITIAL_WINDOW];
+        private byte[] states = new byte[INITIAL_WINDOW];
+        private long head;
+        private long nextSeq;
+        private MessageTransport.Subscription subscription;
+        private boolean closed;
+
+        ChannelConsumer(MessageTransport transport, List<String> queues, int prefetch, RideLanes lanes,
+                        LongAdder settled) {
+            this.transport = transport;
+            this.queues = queues;
+            this.initialPrefetch = prefetch;
+            this.lanes = lanes;
+            this.settled = settled;
         }
 
-        private void storeMessage(String message) {
+        // 持锁订阅：subscribe 返回前就可能有投递，要等 subscription 赋值后再处理
+        synchronized void start() throws IOException {
+            subscription = transport.subscribe(queues, initialPrefetch, this::onDelivery);
+        }
+
+        void setPrefetch(int prefetch) throws IOException {
+            subscription.setPrefetch(prefetch);
+        }
+
+        void stop() {
+            synchronized (this) {
+                closed = true;
+            }
             try {
-                JsonObject js = JsonParser.parseString(message).getAsJsonObject();
-                int skierID = js.get("skierID").getAsInt();
-                int liftID = js.get("liftID").getAsInt();
-                messageStore.computeIfAbsent(skierID, k -> Collections.synchronizedList(new ArrayList<>())).add(liftID);
-            } catch (Exception e) {
-                System.err.println("Error storing message: " + e.getMessage());
+                // 在锁外取消订阅，避免与正在等锁的投递回调互相等待
+                subscription.cancel();
+            } catch (IOException e) {
+                System.err.println("Failed to cancel consumer: " + e.getMessage());
+            }
+            synchronized (this) {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+                try {
+                    while (head < nextSeq) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            System.err.println("Closing consumer with " + (nextSeq - head) + " messages unsettled");
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                try {
+                    subscription.close();
+                } catch (Exception e) {
+                    System.err.println("Failed to close consumer subscription: " + e.getMessage());
+                }
+            }
+        }
+
+        // 同一订阅的投递是串行的，seq 的顺序就是投递顺序
+        private void onDelivery(MessageTransport.Message message) {
+            int skierId = skierIdOf(message.body(), message.contentType());
+            RideLanes.Task task;
+            synchronized (this) {
+                if (closed) {
+                    // 已停止：不处理也不确认，订阅关闭后由 broker 重新投递
+                    return;
+                }
+                if (nextSeq - head == tags.length) {
+                    growWindow();
+                }
+                int slot = (int) (nextSeq & (tags.length - 1));
+                tags[slot] = message.deliveryTag();
+                states[slot] = PENDING;
+                task = new RideLanes.Task(this, nextSeq++, message);
+            }
+            lanes.submit(skierId, task);
+        }
+
+        // 未确认的消息数受 prefetch 限制，窗口只在 autoscaler 调高 prefetch 后才会变大
+        private void growWindow() {
+            int mask = tags.length - 1;
+            long[] grownTags = new long[tags.length * 2];
+            byte[] grownStates = new byte[tags.length * 2];
+            int grownMask = grownTags.length - 1;
+            for (long seq = head; seq < nextSeq; seq++) {
+                grownTags[(int) (seq & grownMask)] = tags[(int) (seq & mask)];
+                grownStates[(int) (seq & grownMask)] = states[(int) (seq & mask)];
+            }
+            tags = grownTags;
+            states = grownStates;
+        }
+
+        // ack 在锁内发出，保证按 tag 顺序
+        @Override
+        public synchronized void settle(RideLanes.Task task, RideLanes.Outcome outcome) {
+            if (outcome != RideLanes.Outcome.STORED) {
+                try {
+                    subscription.nack(task.message.deliveryTag(), false, outcome == RideLanes.Outcome.FAILED);
+                } catch (IOException e) {
+                    System.err.println("Failed to reject message: " + e.getMessage());
+                }
+            }
+            if (outcome != RideLanes.Outcome.FAILED) {
+                settled.increment();
+            }
+            int mask = tags.length - 1;
+            states[(int) (task.seq & mask)] = outcome == RideLanes.Outcome.STORED ? ACKED : NACKED;
+            long ackTag = -1;
+            while (head < nextSeq && states[(int) (head & mask)] != PENDING) {
+                // 已单独 nack 的不能再作为 ack 的 tag
+                if (states[(int) (head & mask)] == ACKED) {
+                    ackTag = tags[(int) (head & mask)];
+                }
+                head++;
+            }
+            if (ackTag >= 0) {
+                try {
+                    subscription.ack(ackTag, true);
+                } catch (IOException e) {
+                    System.err.println("Failed to acknowledge batch: " + e.getMessage());
+                }
+            }
+            if (head == nextSeq) {
+                notifyAll();
             }
         }
     }
 }
-
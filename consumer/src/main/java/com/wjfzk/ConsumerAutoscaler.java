@@ -0,0 +1,170 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resizes the consumer to the load. Every {@code intervalMillis} it reads the queue's ready
+ * message count (summed over the queue partitions) and the ack rate since the last sample, then:
+ * <ul>
+ *   <li>when the backlog stays above {@code scaleUpDepth} for {@link #UP_SAMPLES} samples, adds
+ *       enough channels to drain it within {@link #DRAIN_TARGET_SECONDS} at the current
+ *       per-channel rate (at most doubling), or, already at the channel limit, doubles prefetch;</li>
+ *   <li>when it stays at or below {@code scaleDownDepth} for {@link #DOWN_SAMPLES} samples, first
+ *       brings prefetch back to its base value and then removes one channel at a time.</li>
+ * </ul>
+ * The gap between the two thresholds, the sample streaks and a cooldown after every change keep
+ * it from flapping.
+ */
+public class ConsumerAutoscaler implements AutoCloseable {
+
+    /** What the autoscaler controls; implemented by {@link Consumer}. */
+    public interface ConsumerPool {
+        int consumerCount();
+
+        void addConsumers(int count) throws IOException;
+
+        void removeConsumers(int count) throws IOException;
+
+        /** Applies a new prefetch to every channel, current and future. */
+        void setPrefetch(int prefetch) throws IOException;
+
+        /** Messages acked (or otherwise settled) since startup. */
+        long settledCount();
+    }
+
+    static final int UP_SAMPLES = 2;
+    static final int DOWN_SAMPLES = 5;
+    static final double DRAIN_TARGET_SECONDS = 10;
+
+    private final ConsumerPool pool;
+    private final MessageTransport transport;
+    private final List<String> queues;
+    // 不超过 maxConsumers
+    private final int minConsumers;
+    private final int maxConsumers;
+    private final int basePrefetch;
+    private final int maxPrefetch;
+    private final long scaleUpDepth;
+    private final long scaleDownDepth;
+    private final long cooldownMillis;
+    private final ScheduledExecutorService sampler;
+
+    private int prefetch;
+    private int upStreak;
+    private int downStreak;
+    private long cooldownUntil;
+    private long lastSettled;
+    private long lastSampleNanos;
+
+    public ConsumerAutoscaler(ConsumerPool pool, MessageTransport transport, List<String> queues, int minConsumers,
+                              int maxConsumers, int basePrefetch, int maxPrefetch, long scaleUpDepth,
+                              long scaleDownDepth, long intervalMillis, long cooldownMillis) {
+        this.pool = pool;
+        this.transport = transport;
+        this.queues = queues;
+        // 上限优先：分区模式下上限是分区数，下限超过它时按上限算，否则缩容永远达不到下限
+        this.maxConsumers = Math.max(1, maxConsumers);
+        this.minConsumers = Math.max(1, Math.min(minConsumers, this.maxConsumers));
+        this.basePrefetch = basePrefetch;
+        this.maxPrefetch = Math.max(basePrefetch, maxPrefetch);
+        this.scaleUpDepth = scaleUpDepth;
+        this.scaleDownDepth = Math.min(scaleDownDepth, scaleUpDepth);
+        this.cooldownMillis = cooldownMillis;
+        this.prefetch = basePrefetch;
+        this.lastSettled = pool.settledCount();
+        this.lastSampleNanos = System.nanoTime();
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "consumer-autoscaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleWithFixedDelay(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        try {
+            long depth = 0;
+            for (String queue : queues) {
+                depth += transport.queueDepth(queue);
+            }
+            long now = System.nanoTime();
+            long settled = pool.settledCount();
+            double ackRate = (settled - lastSettled) * 1e9 / Math.max(1, now - lastSampleNanos);
+            lastSettled = settled;
+            lastSampleNanos = now;
+            adjust(depth, ackRate, System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Autoscaler sample failed: " + e.getMessage());
+        }
+    }
+
+    private void adjust(long depth, double ackRate, long nowMillis) throws IOException {
+        upStreak = depth > scaleUpDepth ? upStreak + 1 : 0;
+        downStreak = depth <= scaleDownDepth ? downStreak + 1 : 0;
+        if (nowMillis < cooldownUntil) {
+            return;
+        }
+        int consumers = pool.consumerCount();
+        if (upStreak >= UP_SAMPLES) {
+            if (consumers < maxConsumers) {
+                int target = Math.min(maxConsumers, Math.min(consumers * 2, targetConsumers(consumers, depth, ackRate)));
+                pool.addConsumers(target - consumers);
+                log("scale up", consumers, target, depth, ackRate);
+            } else if (prefetch < maxPrefetch) {
+                int raised = Math.min(maxPrefetch, prefetch * 2);
+                pool.setPrefetch(raised);
+                System.out.printf(" [*] Autoscaler: prefetch %d -> %d (depth=%d, ackRate=%.0f/s)%n",
+                        prefetch, raised, depth, ackRate);
+                prefetch = raised;
+            } else {
+                return;
+            }
+        } else if (downStreak >= DOWN_SAMPLES) {
+            if (prefetch > basePrefetch) {
+                int lowered = Math.max(basePrefetch, prefetch / 2);
+                pool.setPrefetch(lowered);
+                System.out.printf(" [*] Autoscaler: prefetch %d -> %d (depth=%d, ackRate=%.0f/s)%n",
+                        prefetch, lowered, depth, ackRate);
+                prefetch = lowered;
+            } else if (consumers > minConsumers) {
+                pool.removeConsumers(1);
+                log("scale down", consumers, consumers - 1, depth, ackRate);
+            } else {
+                return;
+            }
+        } else {
+            return;
+        }
+        upStreak = 0;
+        downStreak = 0;
+        cooldownUntil = nowMillis + cooldownMillis;
+    }
+
+    // 按当前每个 channel 的处理速率，估算在 DRAIN_TARGET_SECONDS 内清空积压所需的 channel 数
+    private static int targetConsumers(int consumers, long depth, double ackRate) {
+        if (ackRate <= 0) {
+            return consumers + 1;
+        }
+        double perConsumer = ackRate / consumers;
+        double needed = (ackRate + depth / DRAIN_TARGET_SECONDS) / perConsumer;
+        return Math.max(consumers + 1, (int) Math.ceil(needed));
+    }
+
+    private static void log(String action, int from, int to, long depth, double ackRate) {
+        System.out.printf(" [*] Autoscaler: %s %d -> %d consumers (depth=%d, ackRate=%.0f/s)%n",
+                action, from, to, depth, ackRate);
+    }
+
+    public int currentPrefetch() {
+        return prefetch;
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+package com.wjfzk;
+
+/**
+ * Runtime settings for the consumer. Each value is read from a system property
+ * ({@code -Dconsumer.threads=8}), then from the matching environment variable
+ * ({@code CONSUMER_THREADS=8}), then falls back to the default.
+ */
+public class ConsumerConfig {
+    private final int threadCount;
+    private final int prefetchCount;
+    private final int batchSize;
+    private final long lingerMillis;
+
+    public ConsumerConfig(int threadCount, int prefetchCount, int batchSize, long lingerMillis) {
+        this.threadCount = threadCount;
+        this.prefetchCount = prefetchCount;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerMillis = Math.max(0, lingerMillis);
+    }
+
+    public static ConsumerConfig fromEnvironment(int defaultThreads, int defaultPrefetch, int defaultBatchSize,
+                                                 long defaultLingerMillis) {
+        return new ConsumerConfig(
+                intSetting("consumer.threads", defaultThreads),
+                intSetting("consumer.prefetch", defaultPrefetch),
+                intSetting("consumer.batchSize", defaultBatchSize),
+                intSetting("consumer.lingerMs", (int) defaultLingerMillis));
+    }
+
+    public static String setting(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name.replace('.', '_').toUpperCase());
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int intSetting(String name, int defaultValue) {
+        String value = setting(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static double doubleSetting(String name, double defaultValue) {
+        String value = setting(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "threads=" + threadCount + ", prefetch=" + prefetchCount + ", batchSize=" + batchSize
+                + ", lingerMs=" + lingerMillis;
+    }
+}
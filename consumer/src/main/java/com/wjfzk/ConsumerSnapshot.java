@@ -0,0 +1,172 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A consumer snapshot file: the ride store's state, the read aggregates and the eventID dedup
+ * filters as of one checkpoint, the number of rides the store had accepted when it was taken.
+ * State is copied into a heap buffer while writers are paused and written out after they resume;
+ * files are read through a memory mapping, and each section is restored with bulk buffer copies.
+ *
+ * <pre>
+ * header: int magic | int version | byte storeKind | long checkpoint | long createdMillis
+ *         | long storeBytes | long aggregatesBytes | long dedupBytes
+ * body:   store section | aggregates section | dedup section   (see {@link Snapshottable} implementations)
+ * </pre>
+ * The dedup section is empty if deduplication was off. Version 1 files, which have no
+ * {@code dedupBytes} and no dedup section, are still read.
+ */
+public class ConsumerSnapshot {
+    public static final byte STORE_MEMORY = 1;
+    public static final byte STORE_SEGMENT = 2;
+    private static final int MAGIC = 0x534B534E; // "SKSN"
+    private static final int VERSION = 2;
+    private static final int V1_HEADER_BYTES = 4 + 4 + 1 + 8 + 8 + 8 + 8;
+    private static final int HEADER_BYTES = V1_HEADER_BYTES + 8;
+
+    private final byte storeKind;
+    private final long checkpoint;
+    private final long createdMillis;
+    private final long sizeBytes;
+    private final ByteBuffer store;
+    private final ByteBuffer aggregates;
+    private final ByteBuffer dedup;
+
+    private ConsumerSnapshot(byte storeKind, long checkpoint, long createdMillis, long sizeBytes, ByteBuffer store,
+                             ByteBuffer aggregates, ByteBuffer dedup) {
+        this.storeKind = storeKind;
+        this.checkpoint = checkpoint;
+        this.createdMillis = createdMillis;
+        this.sizeBytes = sizeBytes;
+        this.store = store;
+        this.aggregates = aggregates;
+        this.dedup = dedup;
+    }
+
+    /** Maps {@code file} read-only; null if it does not exist or is not a complete snapshot. */
+    public static ConsumerSnapshot open(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < V1_HEADER_BYTES || size > Integer.MAX_VALUE) {
+                System.err.println("Ignoring snapshot " + file + ": unexpected size " + size);
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != MAGIC || (version != 1 && version != VERSION) || (version == VERSION && size < HEADER_BYTES)) {
+                System.err.println("Ignoring snapshot " + file + ": unknown format");
+                return null;
+            }
+            byte storeKind = buffer.get();
+            long checkpoint = buffer.getLong();
+            long createdMillis = buffer.getLong();
+            long storeBytes = buffer.getLong();
+            long aggregatesBytes = buffer.getLong();
+            long dedupBytes = version == 1 ? 0 : buffer.getLong();
+            int headerBytes = version == 1 ? V1_HEADER_BYTES : HEADER_BYTES;
+            if (storeBytes < 0 || aggregatesBytes < 0 || dedupBytes < 0
+                    || headerBytes + storeBytes + aggregatesBytes + dedupBytes != size) {
+                System.err.println("Ignoring snapshot " + file + ": section lengths do not match the file");
+                return null;
+            }
+            ByteBuffer store = buffer.slice(headerBytes, (int) storeBytes);
+            ByteBuffer aggregates = buffer.slice(headerBytes + (int) storeBytes, (int) aggregatesBytes);
+            ByteBuffer dedup = dedupBytes == 0 ? null
+                    : buffer.slice(headerBytes + (int) (storeBytes + aggregatesBytes), (int) dedupBytes);
+            return new ConsumerSnapshot(storeKind, checkpoint, createdMillis, size, store, aggregates, dedup);
+        }
+    }
+
+    /** Size of a snapshot of this state, for sizing the buffer passed to {@link #copy}. */
+    static long sizeOf(Snapshottable store, Snapshottable aggregates, Snapshottable dedup) {
+        return HEADER_BYTES + store.snapshotBytes() + aggregates.snapshotBytes()
+                + (dedup == null ? 0 : dedup.snapshotBytes());
+    }
+
+    /**
+     * Copies a snapshot of {@code store}, {@code aggregates} and {@code dedup} (null if
+     * deduplication is off) into {@code buffer}, or into a new buffer if it is null or too small,
+     * and returns it ready to be {@linkplain #write written}. Writers must be paused for the
+     * duration; allocating {@code buffer} beforehand keeps that pause to the copy itself.
+     */
+    static ByteBuffer copy(ByteBuffer buffer, byte storeKind, long checkpoint, Snapshottable store,
+                           Snapshottable aggregates, Snapshottable dedup) throws IOException {
+        long storeBytes = store.snapshotBytes();
+        long aggregatesBytes = aggregates.snapshotBytes();
+        long dedupBytes = dedup == null ? 0 : dedup.snapshotBytes();
+        long size = HEADER_BYTES + storeBytes + aggregatesBytes + dedupBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot of " + size + " bytes does not fit in one mapping");
+        }
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate((int) size);
+        }
+        buffer.clear().limit((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).put(storeKind).putLong(checkpoint)
+                .putLong(System.currentTimeMillis()).putLong(storeBytes).putLong(aggregatesBytes)
+                .putLong(dedupBytes);
+        store.writeSnapshot(buffer);
+        aggregates.writeSnapshot(buffer);
+        if (dedup != null) {
+            dedup.writeSnapshot(buffer);
+        }
+        if (buffer.position() != size) {
+            throw new IOException("Snapshot wrote " + buffer.position() + " bytes, expected " + size);
+        }
+        return buffer.flip();
+    }
+
+    /** Writes a snapshot made by {@link #copy} to {@code file} and syncs it. */
+    static void write(Path file, ByteBuffer snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer contents = snapshot.duplicate();
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+            channel.force(false);
+        }
+    }
+
+    public byte storeKind() {
+        return storeKind;
+    }
+
+    /** Rides the store had accepted when the snapshot was taken. */
+    public long checkpoint() {
+        return checkpoint;
+    }
+
+    public long createdMillis() {
+        return createdMillis;
+    }
+
+    public long sizeBytes() {
+        return sizeBytes;
+    }
+
+    /** The store section, positioned at its start. */
+    public ByteBuffer store() {
+        return store.duplicate();
+    }
+
+    /** The aggregates section, positioned at its start. */
+    public ByteBuffer aggregates() {
+        return aggregates.duplicate();
+    }
+
+    /** The dedup section, positioned at its start; null if the snapshot has none. */
+    public ByteBuffer dedup() {
+        return dedup == null ? null : dedup.duplicate();
+    }
+}
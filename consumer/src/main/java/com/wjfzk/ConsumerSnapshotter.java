@@ -0,0 +1,106 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Periodically writes a {@link ConsumerSnapshot} of the ride store, aggregates and dedup filters.
+ * Writers hold {@link #appendLock} from claiming a ride's eventID until the ride is appended; a
+ * snapshot takes the lock exclusively only to note the checkpoint and copy state into a buffer
+ * allocated beforehand. With appends running again it flushes the store up to at least the
+ * checkpoint, writes and syncs the file and renames it over the previous snapshot, so a crash
+ * never leaves a partial file or a checkpoint ahead of the durable rides behind.
+ */
+public class ConsumerSnapshotter implements AutoCloseable {
+    private final Path file;
+    private final byte storeKind;
+    private final RideSink store;
+    private final Snapshottable storeState;
+    private final RideAggregates aggregates;
+    private final EventDeduplicator deduplicator;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService timer;
+
+    /**
+     * {@code store} is the unwrapped sink whose rides {@code aggregates} were built from;
+     * {@code deduplicator} is null if deduplication is off.
+     */
+    public <S extends RideSink & Snapshottable> ConsumerSnapshotter(Path file, byte storeKind, S store,
+                                                                    RideAggregates aggregates,
+                                                                    EventDeduplicator deduplicator) {
+        this.file = file;
+        this.storeKind = storeKind;
+        this.store = store;
+        this.storeState = store;
+        this.aggregates = aggregates;
+        this.deduplicator = deduplicator;
+    }
+
+    /** Takes a snapshot every {@code intervalMillis}; 0 leaves it to explicit {@link #snapshot} calls. */
+    public void start(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "consumer-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Snapshot failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Shared lock for writers, held from claiming a batch's eventIDs until its rides are appended,
+     * so a snapshot never sees a claimed ID whose ride the checkpoint does not cover.
+     */
+    public Lock appendLock() {
+        return lock.readLock();
+    }
+
+    public synchronized void snapshot() throws IOException {
+        long start = System.nanoTime();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        // 在锁外按当前大小预留缓冲区（留出余量），锁内只做复制
+        long estimate = ConsumerSnapshot.sizeOf(storeState, aggregates, deduplicator);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, estimate + (estimate >> 3)));
+        long checkpoint;
+        long paused;
+        lock.writeLock().lock();
+        long pauseStart = System.nanoTime();
+        try {
+            checkpoint = store.rideCount();
+            buffer = ConsumerSnapshot.copy(buffer, storeKind, checkpoint, storeState, aggregates, deduplicator);
+        } finally {
+            paused = System.nanoTime() - pauseStart;
+            lock.writeLock().unlock();
+        }
+        // checkpoint 之前的记录必须在快照生效前落盘，恢复时才能从段文件中接着重放；flush 在锁外进行
+        store.flush();
+        ConsumerSnapshot.write(temp, buffer);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.printf(" [*] Snapshot at ride %d: %.1f MB in %d ms (appends paused %d ms)%n", checkpoint,
+                buffer.limit() / 1048576.0, (System.nanoTime() - start) / 1_000_000, paused / 1_000_000);
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.wjfzk;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Drops rides whose eventID was already stored, so broker redeliveries and client retries are
+ * counted once. Stored IDs go into a rotating pair of Bloom filters: new IDs are added to the
+ * current filter, lookups check both, and once the current filter has covered
+ * {@code windowMillis} or taken {@code expectedPerWindow} IDs it becomes the previous one and
+ * the old previous is cleared and reused. Memory is fixed at two filters, and an ID is remembered
+ * for at least one window.
+ *
+ * <p>A false positive drops a ride that was not a duplicate; {@code falsePositiveRate} bounds how
+ * often that happens per lookup. IDs whose batch is still being written are tracked exactly in a
+ * small in-flight set, so two copies of the same event in concurrent batches cannot both be stored,
+ * and a batch that fails to persist can be released and redelivered.
+ *
+ * <p>The filters go into the consumer snapshot, with the in-flight IDs added as stored: the
+ * snapshot is taken while no lane is between claiming an ID and appending its ride, so every
+ * in-flight ID belongs to a ride the snapshot's checkpoint covers. Layout: {@code int numBits |
+ * int numHashes | long currentStartedMillis | int currentCount | long[] current | long[] previous}.
+ */
+public class EventDeduplicator implements Snapshottable {
+    private final int expectedPerWindow;
+    private final long windowMillis;
+    private final int numBits;
+    private final int numHashes;
+    private long[] current;
+    private long[] previous;
+    private int currentCount;
+    private long currentStartedMillis;
+    private final Set<Long> inFlight = new HashSet<>();
+    private long duplicates;
+
+    public EventDeduplicator(int expectedPerWindow, double falsePositiveRate, long windowMillis) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be in (0, 1): " + falsePositiveRate);
+        }
+        this.expectedPerWindow = Math.max(1, expectedPerWindow);
+        this.windowMillis = windowMillis;
+        // 标准 Bloom filter 参数：m = -n ln p / (ln 2)^2，k = m / n * ln 2
+        long bits = (long) Math.ceil(-this.expectedPerWindow * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.numBits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, bits));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / this.expectedPerWindow * Math.log(2)));
+        this.current = new long[(numBits + 63) >>> 6];
+        this.previous = new long[current.length];
+        this.currentStartedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Reserves {@code eventID} for a ride about to be stored. Returns false, and counts a
+     * duplicate, if the ID was stored before or is already reserved by another batch.
+     */
+    public synchronized boolean tryClaim(long eventID) {
+        if (mightContain(eventID) || !inFlight.add(eventID)) {
+            duplicates++;
+            return false;
+        }
+        return true;
+    }
+
+    /** Records the first {@code count} IDs as stored, once their batch is durable. */
+    public synchronized void commit(long[] eventIDs, int count) {
+        for (int i = 0; i < count; i++) {
+            rotateIfDue();
+            add(current, eventIDs[i]);
+            currentCount++;
+            inFlight.remove(eventIDs[i]);
+        }
+    }
+
+    /** Gives up reservations for a batch that was not stored, so its redelivery is accepted. */
+    public synchronized void release(long[] eventIDs, int count) {
+        for (int i = 0; i < count; i++) {
+            inFlight.remove(eventIDs[i]);
+        }
+    }
+
+    /**
+     * Claims the non-zero IDs in {@code eventIDs[from, to)} under one lock, each as
+     * {@link #tryClaim(long)} would; {@code claimed[i]} is set to whether {@code eventIDs[i]} was
+     * claimed.
+     */
+    public synchronized void tryClaim(long[] eventIDs, boolean[] claimed, int from, int to) {
+        for (int i = from; i < to; i++) {
+            claimed[i] = eventIDs[i] != 0 && tryClaim(eventIDs[i]);
+        }
+    }
+
+    /** Gives up the claims marked in {@code claimed[from, to)} and clears the marks. */
+    public synchronized void release(long[] eventIDs, boolean[] claimed, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (claimed[i]) {
+                inFlight.remove(eventIDs[i]);
+                claimed[i] = false;
+            }
+        }
+    }
+
+    public synchronized long duplicates() {
+        return duplicates;
+    }
+
+    @Override
+    public synchronized long snapshotBytes() {
+        return 4 + 4 + 8 + 4 + 2 * 8L * current.length;
+    }
+
+    @Override
+    public synchronized void writeSnapshot(ByteBuffer out) {
+        long[] stored = current;
+        if (!inFlight.isEmpty()) {
+            // 进行中的 ID 的骑行已追加，快照的 checkpoint 包含它们，恢复后应视为已存储
+            stored = current.clone();
+            for (long eventID : inFlight) {
+                add(stored, eventID);
+            }
+        }
+        out.putInt(numBits).putInt(numHashes).putLong(currentStartedMillis).putInt(currentCount + inFlight.size());
+        LongBuffer longs = out.asLongBuffer();
+        longs.put(stored).put(previous);
+        out.position(out.position() + 2 * 8 * current.length);
+    }
+
+    /**
+     * Loads filters written by {@link #writeSnapshot} into this (empty) deduplicator.
+     *
+     * @throws IllegalArgumentException if they were sized for a different window or error rate
+     */
+    public synchronized void restoreSnapshot(ByteBuffer in) {
+        int snapshotBits = in.getInt();
+        int snapshotHashes = in.getInt();
+        if (snapshotBits != numBits || snapshotHashes != numHashes) {
+            throw new IllegalArgumentException("Dedup filters were sized for " + snapshotBits + " bits and "
+                    + snapshotHashes + " hashes");
+        }
+        currentStartedMillis = in.getLong();
+        currentCount = in.getInt();
+        LongBuffer longs = in.asLongBuffer();
+        longs.get(current).get(previous);
+        in.position(in.position() + 2 * 8 * current.length);
+    }
+
+    /** Bytes held by the two filters. */
+    public long footprintBytes() {
+        return 2 * (16L + 8L * current.length);
+    }
+
+    private boolean mightContain(long eventID) {
+        return contains(current, eventID) || contains(previous, eventID);
+    }
+
+    private void rotateIfDue() {
+        long now = System.currentTimeMillis();
+        if (currentCount < expectedPerWindow && now - currentStartedMillis < windowMillis) {
+            return;
+        }
+        long[] recycled = previous;
+        Arrays.fill(recycled, 0L);
+        previous = current;
+        current = recycled;
+        currentCount = 0;
+        currentStartedMillis = now;
+    }
+
+    // 双重哈希：第 i 个位置为 h1 + i * h2
+    private void add(long[] bits, long eventID) {
+        long h1 = mix(eventID);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = (int) Long.remainderUnsigned(h1 + i * h2, numBits);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean contains(long[] bits, long eventID) {
+        long h1 = mix(eventID);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = (int) Long.remainderUnsigned(h1 + i * h2, numBits);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
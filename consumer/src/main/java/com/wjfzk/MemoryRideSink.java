@@ -0,0 +1,47 @@
+package com.wjfzk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps only each skier's lift IDs in a {@link SkierRideStore}; only what the last snapshot holds
+ * survives a restart. {@link #flush} is a no-op.
+ */
+public class MemoryRideSink implements RideSink, Snapshottable {
+    private final SkierRideStore store;
+
+    public MemoryRideSink(SkierRideStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void append(LiftRide ride) {
+        store.append(ride.getSkierID(), ride.getLiftID());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public long rideCount() {
+        return store.totalRides();
+    }
+
+    public SkierRideStore getStore() {
+        return store;
+    }
+
+    @Override
+    public long snapshotBytes() {
+        return store.snapshotBytes();
+    }
+
+    @Override
+    public void writeSnapshot(ByteBuffer out) {
+        store.writeSnapshot(out);
+    }
+
+    @Override
+    public void close() {
+    }
+}
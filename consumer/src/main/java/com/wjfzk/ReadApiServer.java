@@ -0,0 +1,188 @@
+package com.wjfzk;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Small HTTP endpoint that answers queries straight from {@link RideAggregates}. The servlet tier
+ * calls it on a cache miss.
+ *
+ * <pre>
+ * GET /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}
+ *     {"resortID":..,"seasonID":..,"dayID":..,"skierID":..,"rides":..,"vertical":..,"lifts":[..]}
+ * GET /resorts/{resortID}/seasons/{seasonID}/day/{dayID}/skiers
+ *     {"resortID":..,"seasonID":..,"dayID":..,"numSkiers":..}
+ * GET /resorts/{resortID}/seasons/{seasonID}/day/{dayID}/lifts/{liftID}/skiers
+ *     {"resortID":..,"seasonID":..,"dayID":..,"liftID":..,"numSkiers":..}   (HyperLogLog estimate)
+ * GET /changes?since={version}
+ *     {"version":..,"reset":..,"skierDays":[[resortID,seasonID,dayID,skierID],..]}
+ * </pre>
+ * {@code /changes} lists the skier/days whose aggregates changed after {@code version}, see
+ * {@link RideChangeLog}; the servers drop the cached answers for them.
+ * Adding {@code ?format=sketch} to either resort query returns the serialized counter instead
+ * ({@link CardinalityCounter#toBytes}), so counts from several consumers can be merged.
+ */
+public class ReadApiServer {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final RideAggregates aggregates;
+    private final RideChangeLog changes;
+    private final Gson gson = new Gson();
+
+    public ReadApiServer(int port, int threads, RideAggregates aggregates, RideChangeLog changes) throws IOException {
+        this.aggregates = aggregates;
+        this.changes = changes;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/skiers/", this::handleSkier);
+        server.createContext("/resorts/", this::handleResort);
+        server.createContext("/changes", this::handleChanges);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println(" [*] Read API listening on port " + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}
+    private void handleSkier(HttpExchange exchange) throws IOException {
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        int[] ids = parseIds(parts, 9, "skiers", "seasons", "days", "skiers");
+        if (ids == null) {
+            send(exchange, 400, "{\"message\":\"Invalid URL\"}");
+            return;
+        }
+        RideAggregates.SkierDaySummary day = aggregates.skierDay(ids[0], ids[1], ids[2], ids[3]);
+        send(exchange, 200, gson.toJson(new SkierDayResponse(ids, day)));
+    }
+
+    // /resorts/{resortID}/seasons/{seasonID}/day/{dayID}[/lifts/{liftID}]/skiers
+    private void handleResort(HttpExchange exchange) throws IOException {
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        int[] ids = null;
+        if ("skiers".equals(parts[parts.length - 1])) {
+            ids = parts.length == 8 ? parseIds(parts, 8, "resorts", "seasons", "day")
+                    : parseIds(parts, 10, "resorts", "seasons", "day", "lifts");
+        }
+        if (ids == null) {
+            send(exchange, 400, "{\"message\":\"Invalid URL\"}");
+            return;
+        }
+        boolean perLift = ids.length == 4;
+        CardinalityCounter counter = perLift
+                ? aggregates.liftDayCounter(ids[0], ids[1], ids[2], ids[3])
+                : aggregates.resortDayCounter(ids[0], ids[1], ids[2]);
+        if ("format=sketch".equals(exchange.getRequestURI().getQuery())) {
+            sendSketch(exchange, counter);
+            return;
+        }
+        long numSkiers = counter == null ? 0 : counter.cardinality();
+        send(exchange, 200, gson.toJson(new ResortDayResponse(ids, numSkiers)));
+    }
+
+    // /changes?since={version}
+    private void handleChanges(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        long since;
+        try {
+            since = query != null && query.startsWith("since=") ? Long.parseLong(query.substring(6)) : -1;
+        } catch (NumberFormatException e) {
+            send(exchange, 400, "{\"message\":\"Invalid version\"}");
+            return;
+        }
+        send(exchange, 200, gson.toJson(changes.since(since)));
+    }
+
+    /** Checks "/name/{id}" pairs starting at parts[1] and returns the ids, or null if the path does not match. */
+    private static int[] parseIds(String[] parts, int expectedLength, String... names) {
+        if (parts.length != expectedLength) {
+            return null;
+        }
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (!names[i].equals(parts[1 + 2 * i])) {
+                return null;
+            }
+            try {
+                ids[i] = Integer.parseInt(parts[2 + 2 * i]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    // 没有数据时返回 204，调用方合并时直接跳过
+    private static void sendSketch(HttpExchange exchange, CardinalityCounter counter) throws IOException {
+        if (counter == null) {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = counter.toBytes();
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static class SkierDayResponse {
+        int resortID;
+        int seasonID;
+        int dayID;
+        int skierID;
+        int rides;
+        long vertical;
+        int[] lifts;
+
+        SkierDayResponse(int[] ids, RideAggregates.SkierDaySummary day) {
+            this.resortID = ids[0];
+            this.seasonID = ids[1];
+            this.dayID = ids[2];
+            this.skierID = ids[3];
+            this.rides = day.rides();
+            this.vertical = day.vertical();
+            this.lifts = day.lifts();
+        }
+    }
+
+    static class ResortDayResponse {
+        int resortID;
+        int seasonID;
+        int dayID;
+        Integer liftID;
+        long numSkiers;
+
+        ResortDayResponse(int[] ids, long numSkiers) {
+            this.resortID = ids[0];
+            this.seasonID = ids[1];
+            this.dayID = ids[2];
+            this.liftID = ids.length > 3 ? ids[3] : null;
+            this.numSkiers = numSkiers;
+        }
+    }
+}
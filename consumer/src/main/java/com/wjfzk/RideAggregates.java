@@ -0,0 +1,251 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-side aggregates kept up to date as rides are stored, so queries never scan raw rides:
+ * per skier and day the ride count, total vertical and lifts ridden; per resort and day an exact
+ * {@link ExactSkierSet} of distinct skiers (skierIDs are dense, so a bit per ID is cheap); and per
+ * lift and day a {@link HyperLogLog}, since there are many more lift/day pairs. Each counter has a
+ * fixed size however many rides arrive, and can be exported with {@link CardinalityCounter#toBytes}
+ * to be merged with the same counter from other consumer instances.
+ *
+ * <p>Snapshot layout: {@code int maxSkierId | int sketchPrecision}, then three sections, each an
+ * {@code int} entry count followed by the entries: skier days ({@code int[4] key | int rides |
+ * long vertical | int[rides] lifts}), resort days ({@code int[3] key | counter}) and lift days
+ * ({@code int[4] key | counter}), counters in {@link CardinalityCounter#writeTo} format.
+ */
+public class RideAggregates implements Snapshottable {
+    /** Vertical metres credited for one ride, per unit of liftID. */
+    public static final int VERTICAL_PER_LIFT = 10;
+
+    private final Map<SkierDayKey, SkierDay> skierDays = new ConcurrentHashMap<>();
+    private final Map<ResortDayKey, ExactSkierSet> resortDaySkiers = new ConcurrentHashMap<>();
+    private final Map<LiftDayKey, HyperLogLog> liftDaySkiers = new ConcurrentHashMap<>();
+    // 所有 skier/day 的骑行总数，用于直接算出快照大小
+    private final LongAdder skierDayRides = new LongAdder();
+    private final int maxSkierId;
+    private final int sketchPrecision;
+    private volatile RideChangeLog changes;
+
+    public RideAggregates() {
+        this(SkierRideStore.DEFAULT_MAX_SKIER_ID, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    public RideAggregates(int maxSkierId, int sketchPrecision) {
+        this.maxSkierId = maxSkierId;
+        this.sketchPrecision = sketchPrecision;
+    }
+
+    /**
+     * From now on records every changed skier/day in a log of the last {@code capacity} changes,
+     * for the servers' read caches to poll.
+     */
+    public RideChangeLog trackChanges(int capacity) {
+        changes = new RideChangeLog(capacity);
+        return changes;
+    }
+
+    public void add(LiftRide ride) {
+        skierDays.computeIfAbsent(new SkierDayKey(ride.getSkierID(), ride.getResortID(), ride.getSeasonID(),
+                ride.getDayID()), k -> new SkierDay()).add(ride.getLiftID());
+        skierDayRides.increment();
+        resortDaySkiers.computeIfAbsent(new ResortDayKey(ride.getResortID(), ride.getSeasonID(), ride.getDayID()),
+                k -> new ExactSkierSet(maxSkierId)).add(ride.getSkierID());
+        liftDaySkiers.computeIfAbsent(new LiftDayKey(ride.getResortID(), ride.getSeasonID(), ride.getDayID(),
+                ride.getLiftID()), k -> new HyperLogLog(sketchPrecision)).add(ride.getSkierID());
+        RideChangeLog log = changes;
+        if (log != null) {
+            // 聚合更新之后再记录，服务端看到变更时读到的已是新值
+            log.record(ride.getResortID(), ride.getSeasonID(), ride.getDayID(), ride.getSkierID());
+        }
+    }
+
+    /** The skier's totals for that day; all zero if the skier has no rides there. */
+    public SkierDaySummary skierDay(int resortID, int seasonID, int dayID, int skierID) {
+        SkierDay day = skierDays.get(new SkierDayKey(skierID, resortID, seasonID, dayID));
+        return day == null ? new SkierDaySummary(0, 0, new int[0]) : day.summary();
+    }
+
+    public long uniqueSkiers(int resortID, int seasonID, int dayID) {
+        CardinalityCounter skiers = resortDayCounter(resortID, seasonID, dayID);
+        return skiers == null ? 0 : skiers.cardinality();
+    }
+
+    /** Estimated distinct skiers on the lift that day (HyperLogLog, see {@link HyperLogLog} for the error). */
+    public long uniqueSkiersOnLift(int resortID, int seasonID, int dayID, int liftID) {
+        CardinalityCounter skiers = liftDayCounter(resortID, seasonID, dayID, liftID);
+        return skiers == null ? 0 : skiers.cardinality();
+    }
+
+    /** The live counter behind {@link #uniqueSkiers}, or null if there were no rides; for export and merging. */
+    public CardinalityCounter resortDayCounter(int resortID, int seasonID, int dayID) {
+        return resortDaySkiers.get(new ResortDayKey(resortID, seasonID, dayID));
+    }
+
+    public CardinalityCounter liftDayCounter(int resortID, int seasonID, int dayID, int liftID) {
+        return liftDaySkiers.get(new LiftDayKey(resortID, seasonID, dayID, liftID));
+    }
+
+    /** Heap held by all distinct-skier counters. */
+    public long counterFootprintBytes() {
+        long bytes = 0;
+        for (ExactSkierSet set : resortDaySkiers.values()) {
+            bytes += set.footprintBytes();
+        }
+        for (HyperLogLog sketch : liftDaySkiers.values()) {
+            bytes += sketch.footprintBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long snapshotBytes() {
+        // 计数器的大小只取决于 maxSkierId 和 precision（见 ExactSkierSet/HyperLogLog 的 writeTo），不必逐个遍历
+        long exactBytes = 1 + 4 + 8L * ((maxSkierId >>> 6) + 1);
+        long sketchBytes = 1 + 4 + (1L << sketchPrecision);
+        return 4 + 4 + 4 + 4 + 4
+                + (16 + 4 + 8) * (long) skierDays.size() + 4 * skierDayRides.sum()
+                + (12 + exactBytes) * resortDaySkiers.size()
+                + (16 + sketchBytes) * liftDaySkiers.size();
+    }
+
+    @Override
+    public void writeSnapshot(ByteBuffer out) {
+        out.putInt(maxSkierId).putInt(sketchPrecision);
+        out.putInt(skierDays.size());
+        for (Map.Entry<SkierDayKey, SkierDay> entry : skierDays.entrySet()) {
+            SkierDayKey key = entry.getKey();
+            SkierDay day = entry.getValue();
+            out.putInt(key.skierID()).putInt(key.resortID()).putInt(key.seasonID()).putInt(key.dayID());
+            out.putInt(day.rides).putLong(day.vertical);
+            // 每天的骑行数很少，逐个写比创建 IntBuffer 视图更快
+            for (int i = 0; i < day.rides; i++) {
+                out.putInt(day.lifts[i]);
+            }
+        }
+        out.putInt(resortDaySkiers.size());
+        for (Map.Entry<ResortDayKey, ExactSkierSet> entry : resortDaySkiers.entrySet()) {
+            ResortDayKey key = entry.getKey();
+            out.putInt(key.resortID()).putInt(key.seasonID()).putInt(key.dayID());
+            entry.getValue().writeTo(out);
+        }
+        out.putInt(liftDaySkiers.size());
+        for (Map.Entry<LiftDayKey, HyperLogLog> entry : liftDaySkiers.entrySet()) {
+            LiftDayKey key = entry.getKey();
+            out.putInt(key.resortID()).putInt(key.seasonID()).putInt(key.dayID()).putInt(key.liftID());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    /**
+     * Loads aggregates written by {@link #writeSnapshot} into these (empty) aggregates. A malformed
+     * snapshot throws part way through; call {@link #clear} before using them after that.
+     */
+    public void restoreSnapshot(ByteBuffer in) {
+        int snapshotMaxSkierId = in.getInt();
+        int snapshotPrecision = in.getInt();
+        if (snapshotMaxSkierId != maxSkierId || snapshotPrecision != sketchPrecision) {
+            throw new IllegalArgumentException("Snapshot was taken with maxSkierId " + snapshotMaxSkierId
+                    + " and sketch precision " + snapshotPrecision);
+        }
+        for (int i = in.getInt(); i > 0; i--) {
+            SkierDayKey key = new SkierDayKey(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+            int rides = in.getInt();
+            long vertical = in.getLong();
+            int[] lifts = new int[Math.max(8, rides + (rides >> 1))];
+            for (int j = 0; j < rides; j++) {
+                lifts[j] = in.getInt();
+            }
+            skierDays.put(key, new SkierDay(lifts, rides, vertical));
+            skierDayRides.add(rides);
+        }
+        for (int i = in.getInt(); i > 0; i--) {
+            ResortDayKey key = new ResortDayKey(in.getInt(), in.getInt(), in.getInt());
+            resortDaySkiers.put(key, (ExactSkierSet) CardinalityCounter.readFrom(in));
+        }
+        for (int i = in.getInt(); i > 0; i--) {
+            LiftDayKey key = new LiftDayKey(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+            liftDaySkiers.put(key, (HyperLogLog) CardinalityCounter.readFrom(in));
+        }
+    }
+
+    /** Drops everything, e.g. after a snapshot turned out not to match the store it was restored with. */
+    void clear() {
+        skierDays.clear();
+        skierDayRides.reset();
+        resortDaySkiers.clear();
+        liftDaySkiers.clear();
+    }
+
+    /** Wraps a sink so that every ride it accepts is also added to these aggregates. */
+    public RideSink wrap(RideSink sink) {
+        return new RideSink() {
+            @Override
+            public void append(LiftRide ride) throws IOException {
+                sink.append(ride);
+                add(ride);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                sink.flush();
+            }
+
+            @Override
+            public long rideCount() {
+                return sink.rideCount();
+            }
+
+            @Override
+            public void close() throws IOException {
+                sink.close();
+            }
+        };
+    }
+
+    public record SkierDaySummary(int rides, long vertical, int[] lifts) {
+    }
+
+    private record SkierDayKey(int skierID, int resortID, int seasonID, int dayID) {
+    }
+
+    private record ResortDayKey(int resortID, int seasonID, int dayID) {
+    }
+
+    private record LiftDayKey(int resortID, int seasonID, int dayID, int liftID) {
+    }
+
+    private static class SkierDay {
+        private int[] lifts;
+        private int rides;
+        private long vertical;
+
+        SkierDay() {
+            this(new int[8], 0, 0);
+        }
+
+        SkierDay(int[] lifts, int rides, long vertical) {
+            this.lifts = lifts;
+            this.rides = rides;
+            this.vertical = vertical;
+        }
+
+        synchronized void add(int liftID) {
+            if (rides == lifts.length) {
+                lifts = Arrays.copyOf(lifts, rides + (rides >> 1));
+            }
+            lifts[rides++] = liftID;
+            vertical += (long) liftID * VERTICAL_PER_LIFT;
+        }
+
+        synchronized SkierDaySummary summary() {
+            return new SkierDaySummary(rides, vertical, Arrays.copyOf(lifts, rides));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.wjfzk;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ring of the skier/day keys whose aggregates changed most recently, numbered by a version that
+ * only grows. The servers' read caches poll it through the read API ({@code GET /changes}) and
+ * drop the answers those keys feed; a caller that fell more than {@code capacity} changes behind
+ * is told to drop everything instead.
+ *
+ * <p>Every lane records here for every ride, so {@link #record} takes no lock: it draws a version
+ * from a counter and writes the slot, stamping it with the version once the keys are in. A reader
+ * copies a slot only while its stamp holds, and stops at the first version still being written.
+ */
+public class RideChangeLog {
+    private static final int KEY_INTS = 4;
+
+    /** The keys changed after {@code since}, or {@code reset} if they are no longer all known. */
+    public record Changes(long version, boolean reset, int[][] skierDays) {
+    }
+
+    private final int capacity;
+    // 每个槽位 4 个 int：resortID, seasonID, dayID, skierID
+    private final int[] keys;
+    // 槽位里的版本 v 写完后为 v + 1，正在写时为 -(v + 1)，从未写过为 0
+    private final AtomicLongArray stamps;
+    private final AtomicLong version = new AtomicLong();
+
+    public RideChangeLog(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.keys = new int[this.capacity * KEY_INTS];
+        this.stamps = new AtomicLongArray(this.capacity);
+    }
+
+    public void record(int resortID, int seasonID, int dayID, int skierID) {
+        long v = version.getAndIncrement();
+        int slot = (int) (v % capacity);
+        while (true) {
+            long stamp = stamps.get(slot);
+            if (versionOf(stamp) > v) {
+                // 落后了一整圈，槽位已给了更新的版本；读者会按被覆盖处理
+                return;
+            }
+            if (stamp < 0) {
+                // 上一圈的写者还没写完，只有落后一整圈时才会发生
+                Thread.onSpinWait();
+            } else if (stamps.compareAndSet(slot, stamp, -(v + 1))) {
+                break;
+            }
+        }
+        int base = slot * KEY_INTS;
+        keys[base] = resortID;
+        keys[base + 1] = seasonID;
+        keys[base + 2] = dayID;
+        keys[base + 3] = skierID;
+        stamps.set(slot, v + 1);
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Keys recorded after version {@code since}; a negative or overwritten {@code since} resets.
+     * The returned version stops short of a change still being recorded, so the next poll picks
+     * it up.
+     */
+    public Changes since(long since) {
+        long end = version.get();
+        if (since < 0 || since > end || end - since > capacity) {
+            return new Changes(end, true, new int[0][]);
+        }
+        int[][] changed = new int[(int) (end - since)][];
+        for (long v = since; v < end; v++) {
+            int slot = (int) (v % capacity);
+            long stamp = stamps.get(slot);
+            if (stamp != v + 1) {
+                if (versionOf(stamp) > v) {
+                    return new Changes(end, true, new int[0][]);
+                }
+                return new Changes(v, false, Arrays.copyOf(changed, (int) (v - since)));
+            }
+            int base = slot * KEY_INTS;
+            int[] key = Arrays.copyOfRange(keys, base, base + KEY_INTS);
+            // 复制期间被更新的版本覆盖：它已经落后一整圈
+            VarHandle.acquireFence();
+            if (stamps.get(slot) != stamp) {
+                return new Changes(end, true, new int[0][]);
+            }
+            changed[(int) (v - since)] = key;
+        }
+        return new Changes(end, false, changed);
+    }
+
+    private static long versionOf(long stamp) {
+        return (stamp < 0 ? -stamp : stamp) - 1;
+    }
+}
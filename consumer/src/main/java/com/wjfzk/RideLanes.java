@@ -0,0 +1,391 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Striped executor that stores the rides the consumer's channels hand off. Each delivery goes to
+ * lane {@code skierID mod lanes}. A lane is a lock-free queue drained by one run at a time on the
+ * lane pool, so a skier's rides are stored in delivery order while different skiers are stored in
+ * parallel on every core. A run decodes and appends up to {@code batchSize} rides, flushes the
+ * sink once and then reports each ride to its {@link Owner}, which acks it. A lane holding less
+ * than a batch waits up to {@code lingerMillis} for more, so a quiet consumer does not force the
+ * sink for every ride.
+ *
+ * <p>If the sink fails to append or flush, the lane keeps its rides (and their dedup claims) and
+ * retries with a growing pause until the sink recovers, rather than handing them back to the
+ * broker: the rides are already appended and indexed, so a redelivery would store them twice.
+ * The append lock is released for each pause, so a snapshot does not wait for the sink.
+ * Only when the lanes are closed does a lane give up. It then requeues what it holds together with
+ * everything still queued behind it, so no later ride of the same skier is acked ahead of the
+ * requeued ones.
+ *
+ * <p>The lanes have no limit of their own. A ride is acked only after its lane has stored it, so
+ * the lanes never hold more than the channels' prefetch, and a slow lane holds back its channel's
+ * acks until the broker stops delivering to that channel.
+ */
+public class RideLanes implements AutoCloseable {
+
+    /** What became of a handed-off ride. */
+    enum Outcome {
+        /** Stored and flushed (or a duplicate): ack. */
+        STORED,
+        /** Could not be decoded or stored: nack without requeue. */
+        REJECTED,
+        /**
+         * The sink was still failing when the lanes closed, or the ride was queued behind one
+         * that was: nack with requeue.
+         */
+        FAILED
+    }
+
+    /** The channel a ride came from; called from the lane thread once the ride is settled. */
+    interface Owner {
+        void settle(Task task, Outcome outcome);
+    }
+
+    /** One delivery; {@code seq} is its position among the owner's deliveries. */
+    static final class Task {
+        final Owner owner;
+        final long seq;
+        final MessageTransport.Message message;
+
+        Task(Owner owner, long seq, MessageTransport.Message message) {
+            this.owner = owner;
+            this.seq = seq;
+            this.message = message;
+        }
+    }
+
+    private static final long MIN_RETRY_PAUSE_MS = 10;
+    private static final long MAX_RETRY_PAUSE_MS = 1000;
+
+    private final Lane[] lanes;
+    private final ExecutorService pool;
+    private final ScheduledExecutorService lingerTimer;
+    private final RideSink sink;
+    private final EventDeduplicator deduplicator;
+    private final Lock appendLock;
+    private final int batchSize;
+    private final long lingerMillis;
+    private volatile boolean closed;
+
+    public RideLanes(int laneCount, int batchSize, long lingerMillis, ScheduledExecutorService lingerTimer,
+                     RideSink sink, EventDeduplicator deduplicator) {
+        this(laneCount, batchSize, lingerMillis, lingerTimer, sink, deduplicator, null);
+    }
+
+    /**
+     * {@code appendLock}, if not null, is held while a lane claims eventIDs and appends rides
+     * (not while it flushes), see {@link ConsumerSnapshotter#appendLock}.
+     */
+    public RideLanes(int laneCount, int batchSize, long lingerMillis, ScheduledExecutorService lingerTimer,
+                     RideSink sink, EventDeduplicator deduplicator, Lock appendLock) {
+        this.appendLock = appendLock;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerMillis = Math.max(0, lingerMillis);
+        this.lingerTimer = lingerTimer;
+        this.sink = sink;
+        this.deduplicator = deduplicator;
+        this.lanes = new Lane[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+        // 线程数与 lane 数相同，每个 lane 有活时都能拿到一个线程
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(lanes.length, r -> {
+            Thread thread = new Thread(r, "consumer-lane-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    /** Queues {@code task} on the lane of {@code skierId}; never blocks. */
+    void submit(int skierId, Task task) {
+        lanes[Math.floorMod(skierId, lanes.length)].submit(task);
+    }
+
+    /**
+     * Stops the lane threads; the owners should have drained their rides first. A lane still
+     * retrying a failing sink gives up and requeues its rides.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        pool.shutdown();
+    }
+
+    private interface SinkAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs {@code action} until it succeeds, pausing between attempts. Returns false if the lanes
+     * were closed first. {@code heldLock}, if not null, is released for each pause.
+     */
+    private boolean retryUntilStored(SinkAction action, Lock heldLock) {
+        long pauseMillis = MIN_RETRY_PAUSE_MS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                action.run();
+                if (attempt > 1) {
+                    System.out.println("Ride store recovered after " + attempt + " attempts");
+                }
+                return true;
+            } catch (IOException e) {
+                if (attempt == 1) {
+                    System.err.println("Failed to persist batch, retrying: " + e.getMessage());
+                }
+            }
+            if (closed) {
+                return false;
+            }
+            if (heldLock != null) {
+                heldLock.unlock();
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                if (heldLock != null) {
+                    heldLock.lock();
+                }
+            }
+            pauseMillis = Math.min(MAX_RETRY_PAUSE_MS, pauseMillis * 2);
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+        // ConcurrentLinkedQueue.size() 要遍历链表，长度单独计数
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // 以下只在本 lane 的 run 中使用；scheduled 的 CAS 保证相邻两次 run 之间的可见性
+        private final Task[] run = new Task[batchSize];
+        private final Outcome[] outcomes = new Outcome[batchSize];
+        private final LiftRide[] rides = new LiftRide[batchSize];
+        private final long[] eventIds = new long[batchSize];
+        private final boolean[] claimed = new boolean[batchSize];
+        private final long[] claimedEventIds = new long[batchSize];
+        // store 的进度：next 之前的骑行已处理完，restClaimed 表示从 next 起的 eventID 已认领
+        private int next;
+        private boolean restClaimed;
+        private boolean anyStored;
+
+        Lane() {
+            for (int i = 0; i < rides.length; i++) {
+                rides[i] = new LiftRide();
+            }
+        }
+
+        void submit(Task task) {
+            queue.offer(task);
+            int queued = size.incrementAndGet();
+            if (queued >= batchSize || lingerMillis == 0) {
+                schedule();
+            } else if (queued == 1) {
+                scheduleAfterLinger();
+            }
+        }
+
+        void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                pool.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+
+        private void scheduleAfterLinger() {
+            try {
+                lingerTimer.schedule(this::schedule, lingerMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                schedule();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                int count = 0;
+                Task task;
+                while (count < batchSize && (task = queue.poll()) != null) {
+                    size.decrementAndGet();
+                    run[count++] = task;
+                }
+                if (count > 0) {
+                    if (!store(count)) {
+                        failQueued();
+                    }
+                    settle(count);
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // 放下 scheduled 之后再看一次，submit 与 run 结束交错时不会漏掉
+            int queued = size.get();
+            if (queued >= batchSize) {
+                schedule();
+            } else if (queued > 0) {
+                scheduleAfterLinger();
+            }
+        }
+
+        /**
+         * Claims the rides' eventIDs in one call, appends the rides in one pass and flushes the sink
+         * once, retrying a failing sink until it recovers. If the lanes close first, every ride
+         * that was going to be acked is marked {@link Outcome#FAILED} instead and false is returned.
+         */
+        private boolean store(int count) {
+            // 放弃重试时，还没轮到的消息也要重新入队
+            Arrays.fill(outcomes, 0, count, Outcome.FAILED);
+            // 解码不需要 appendLock
+            for (int i = 0; i < count; i++) {
+                MessageTransport.Message message = run[i].message;
+                try {
+                    Consumer.decode(message.body(), message.contentType(), rides[i]);
+                    eventIds[i] = rides[i].getEventID();
+                } catch (RuntimeException e) {
+                    System.err.println("Error decoding message: " + e.getMessage());
+                    outcomes[i] = Outcome.REJECTED;
+                    eventIds[i] = 0;
+                }
+            }
+            next = 0;
+            restClaimed = false;
+            anyStored = false;
+            boolean stored;
+            // 认领 eventID 到追加完成之间不能有快照，见 ConsumerSnapshotter#appendLock
+            if (appendLock != null) {
+                appendLock.lock();
+            }
+            try {
+                // 暂停重试时放开 appendLock，存储故障期间快照照常进行
+                stored = retryUntilStored(() -> claimAndAppend(count), appendLock);
+            } finally {
+                if (appendLock != null) {
+                    appendLock.unlock();
+                }
+            }
+            // 刷盘失败不退回 broker：这些骑行已经追加并建了索引，重新投递会存两份
+            stored = stored && (!anyStored || retryUntilStored(sink::flush, null));
+            if (stored) {
+                if (deduplicator != null) {
+                    int claimedCount = 0;
+                    for (int i = 0; i < count; i++) {
+                        if (claimed[i]) {
+                            claimedEventIds[claimedCount++] = eventIds[i];
+                        }
+                    }
+                    deduplicator.commit(claimedEventIds, claimedCount);
+                }
+                return true;
+            }
+            System.err.println("Lanes closed while the ride store was failing, requeueing " + count + " messages");
+            if (deduplicator != null) {
+                deduplicator.release(eventIds, claimed, 0, count);
+            }
+            for (int i = 0; i < count; i++) {
+                if (outcomes[i] != Outcome.REJECTED) {
+                    outcomes[i] = Outcome.FAILED;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Claims the eventIDs of the rides not yet appended and appends them, from {@link #next} on.
+         * If an append fails the claims from that ride on are given back, so that no claim is left
+         * without its ride while the retry pause lets a snapshot in; the next attempt claims them
+         * again.
+         */
+        private void claimAndAppend(int count) throws IOException {
+            if (deduplicator != null && !restClaimed) {
+                deduplicator.tryClaim(eventIds, claimed, next, count);
+                restClaimed = true;
+            }
+            for (; next < count; next++) {
+                if (outcomes[next] == Outcome.REJECTED) {
+                    continue;
+                }
+                if (deduplicator != null && eventIds[next] != 0 && !claimed[next]) {
+                    // 重复投递（或暂停期间另一份已认领）：不再存储，直接确认
+                    outcomes[next] = Outcome.STORED;
+                    continue;
+                }
+                try {
+                    sink.append(rides[next]);
+                } catch (IOException e) {
+                    if (deduplicator != null) {
+                        deduplicator.release(eventIds, claimed, next, count);
+                        restClaimed = false;
+                    }
+                    throw e;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error storing message: " + e.getMessage());
+                    outcomes[next] = Outcome.REJECTED;
+                    continue;
+                }
+                outcomes[next] = Outcome.STORED;
+                anyStored = true;
+            }
+        }
+
+        /**
+         * Requeues every ride still queued on this lane after the current run gave up. They are
+         * settled before the run's own rides and in reverse, like {@link #settle}, so that the
+         * requeued rides go back to the broker in their original order.
+         */
+        private void failQueued() {
+            List<Task> queued = new ArrayList<>();
+            Task task;
+            while ((task = queue.poll()) != null) {
+                size.decrementAndGet();
+                queued.add(task);
+            }
+            if (!queued.isEmpty()) {
+                System.err.println("Requeueing " + queued.size() + " messages queued behind the failed batch");
+            }
+            for (int i = queued.size() - 1; i >= 0; i--) {
+                try {
+                    queued.get(i).owner.settle(queued.get(i), Outcome.FAILED);
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to settle message: " + e.getMessage());
+                }
+            }
+        }
+
+        // 逆序结算：requeue 的消息依次放回队首，保持原来的顺序
+        private void settle(int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                Task task = run[i];
+                run[i] = null;
+                try {
+                    task.owner.settle(task, outcomes[i]);
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to settle message: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
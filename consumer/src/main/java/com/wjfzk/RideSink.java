@@ -0,0 +1,28 @@
+package com.wjfzk;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the consumer puts decoded rides. {@link #append} may buffer; a ride only counts as stored
+ * once a later {@link #flush} has returned, and the consumer acks a batch only after that.
+ */
+public interface RideSink extends Closeable {
+
+    /** Called for each ride a sink reads back from storage, e.g. while recovering at startup. */
+    interface RideListener {
+        void onRide(LiftRide ride);
+    }
+
+    /** Adds one ride. The sink copies what it needs, so {@code ride} may be reused by the caller. */
+    void append(LiftRide ride) throws IOException;
+
+    /** Makes every ride appended so far durable. */
+    void flush() throws IOException;
+
+    /** Rides stored so far, including ones appended but not yet flushed. */
+    long rideCount();
+
+    @Override
+    void close() throws IOException;
+}
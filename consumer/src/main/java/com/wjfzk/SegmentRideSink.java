@@ -0,0 +1,444 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Local append-only ride store. Rides are written as fixed-size records to segment files through
+ * a write buffer; {@link #flush} writes the buffer out and forces the active segment, so a batch
+ * is durable once it returns. When a segment reaches {@code segmentBytes} a new one is started.
+ * The force runs outside the store's lock, so appends and reads carry on during an fsync.
+ *
+ * <p>The records written since the last successful force are also kept in memory. A failed force
+ * may leave them in any state on disk (the kernel can drop the dirty pages and report success on
+ * the next fsync), so after a failure the next flush truncates the segment back to the last
+ * durable record and writes them again before forcing. A flush that fails therefore can simply be
+ * retried; the rides stay appended and indexed.
+ *
+ * <pre>
+ * record: int resortID | int seasonID | int dayID | int skierID | int liftID | int time   (big-endian)
+ * </pre>
+ *
+ * <p>Every ride gets a sequence number in write order. Two in-memory indexes map a skierID and a
+ * resort/day pair to the sequence numbers of their rides; they are rebuilt by scanning the segments
+ * when the store is opened. Given a snapshot of the indexes ({@link #writeSnapshot}) and the ride
+ * count it covers, only the rides after that checkpoint are scanned. A torn record at the end of
+ * the last segment (partial write, or a zero-filled tail after a crash) is cut off during the scan.
+ */
+public class SegmentRideSink implements RideSink, Snapshottable {
+    private static final String SEGMENT_PREFIX = "rides-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    static final int RECORD_BYTES = 24;
+    // 写缓冲和恢复时的读块都按记录大小对齐
+    private static final int WRITE_BUFFER_BYTES = RECORD_BYTES * 2730;
+    private static final int SCAN_BUFFER_BYTES = RECORD_BYTES * 43690;
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final SkierRideStore skierIndex;
+    private final Map<Long, IntList> resortDayIndex = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(RECORD_BYTES);
+    private final RideListener recoveryListener;
+    // 上次 force 成功之后写入的记录（[durableRides, totalRides)），force 失败后据此重写
+    private ByteBuffer unforced = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+    private boolean rewriteUnforced;
+    // 每次 force 失败加一；force 期间若有别的 flush 失败过，这次成功也不可信
+    private long forceFailures;
+    private Segment active;
+    private int totalRides;
+    private int durableRides;
+
+    public SegmentRideSink(Path directory, int segmentBytes, int maxSkierId) throws IOException {
+        this(directory, segmentBytes, maxSkierId, null);
+    }
+
+    /** {@code recoveryListener}, if not null, sees every ride found while scanning existing segments. */
+    public SegmentRideSink(Path directory, int segmentBytes, int maxSkierId, RideListener recoveryListener)
+            throws IOException {
+        this(directory, segmentBytes, maxSkierId, recoveryListener, null, 0);
+    }
+
+    /**
+     * Opens the store with its indexes restored from {@code snapshot}, which must cover exactly the
+     * first {@code checkpoint} rides; only later rides are scanned and passed to
+     * {@code recoveryListener}. A null snapshot scans everything.
+     */
+    public SegmentRideSink(Path directory, int segmentBytes, int maxSkierId, RideListener recoveryListener,
+                           ByteBuffer snapshot, long checkpoint) throws IOException {
+        this.directory = directory;
+        this.recoveryListener = recoveryListener;
+        this.recordsPerSegment = Math.max(1, segmentBytes / RECORD_BYTES);
+        if (snapshot == null) {
+            this.skierIndex = new SkierRideStore(maxSkierId, 4);
+            checkpoint = 0;
+        } else {
+            this.skierIndex = SkierRideStore.readSnapshot(snapshot, 4);
+            if (skierIndex.maxSkierId() != maxSkierId) {
+                throw new IllegalArgumentException("Snapshot was taken with maxSkierId " + skierIndex.maxSkierId());
+            }
+            readResortDayIndex(snapshot);
+        }
+        Files.createDirectories(directory);
+        recover(checkpoint);
+    }
+
+    /** Complete records in the segments under {@code directory}, without opening the store. */
+    public static long storedRides(Path directory) throws IOException {
+        long rides = 0;
+        if (Files.isDirectory(directory)) {
+            for (Path path : segmentPaths(directory)) {
+                rides += Files.size(path) / RECORD_BYTES;
+            }
+        }
+        return rides;
+    }
+
+    @Override
+    public synchronized void append(LiftRide ride) throws IOException {
+        int skierId = ride.getSkierID();
+        if (skierId < 1 || skierId > skierIndex.maxSkierId()) {
+            throw new IllegalArgumentException("skierID out of range: " + skierId);
+        }
+        if (active == null || active.records == recordsPerSegment) {
+            rotate();
+        } else if (writeBuffer.remaining() < RECORD_BYTES) {
+            drainWriteBuffer();
+        }
+        int start = writeBuffer.position();
+        writeBuffer.putInt(ride.getResortID())
+                .putInt(ride.getSeasonID())
+                .putInt(ride.getDayID())
+                .putInt(skierId)
+                .putInt(ride.getLiftID())
+                .putInt(ride.getTime());
+        if (unforced.remaining() < RECORD_BYTES) {
+            unforced = ByteBuffer.allocate(unforced.capacity() * 2).put(unforced.flip());
+        }
+        unforced.put(writeBuffer.array(), start, RECORD_BYTES);
+        active.records++;
+        index(totalRides++, ride.getResortID(), ride.getDayID(), skierId);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        FileChannel channel;
+        int target;
+        long failures;
+        synchronized (this) {
+            if (durableRides == totalRides) {
+                return; // 其他线程的 flush 已经覆盖了这些记录
+            }
+            writeOut();
+            channel = active.channel;
+            target = totalRides;
+            failures = forceFailures;
+        }
+        // fsync 在锁外进行，其间其他 lane 可以继续追加
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            synchronized (this) {
+                forceFailures++;
+                rewriteUnforced = true;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (forceFailures != failures) {
+                throw new IOException("A concurrent flush of " + active.path.getFileName() + " failed");
+            }
+            markDurable(channel, target);
+        }
+    }
+
+    // 轮转时旧段已 force 过，durableRides 已前移；只在仍是同一段时推进
+    private void markDurable(FileChannel channel, int target) {
+        if (channel != active.channel || target <= durableRides) {
+            return;
+        }
+        int forced = (target - durableRides) * RECORD_BYTES;
+        unforced.flip().position(forced);
+        unforced.compact();
+        durableRides = target;
+    }
+
+    @Override
+    public synchronized long rideCount() {
+        return totalRides;
+    }
+
+    /** The skier's rides in write order; empty if there are none. */
+    public synchronized List<LiftRide> ridesForSkier(int skierId) throws IOException {
+        if (skierId < 1 || skierId > skierIndex.maxSkierId()) {
+            return new ArrayList<>();
+        }
+        return readRides(skierIndex.rides(skierId));
+    }
+
+    /** Every ride at the resort on that day, in write order. */
+    public synchronized List<LiftRide> ridesForResortDay(int resortId, int dayId) throws IOException {
+        IntList ids = resortDayIndex.get(resortDayKey(resortId, dayId));
+        return ids == null ? new ArrayList<>() : readRides(ids.toArray());
+    }
+
+    private List<LiftRide> readRides(int[] sequenceNumbers) throws IOException {
+        writeOut();
+        List<LiftRide> rides = new ArrayList<>(sequenceNumbers.length);
+        for (int sequence : sequenceNumbers) {
+            Segment segment = segmentFor(sequence);
+            readBuffer.clear();
+            long position = (long) (sequence - segment.firstRide) * RECORD_BYTES;
+            while (readBuffer.hasRemaining()) {
+                if (segment.channel.read(readBuffer, position + readBuffer.position()) < 0) {
+                    throw new IOException("Unexpected end of " + segment.path.getFileName());
+                }
+            }
+            readBuffer.flip();
+            rides.add(readRecord(readBuffer, new LiftRide()));
+        }
+        return rides;
+    }
+
+    private Segment segmentFor(int sequence) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).firstRide <= sequence) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return segments.get(low);
+    }
+
+    private void index(int sequence, int resortId, int dayId, int skierId) {
+        skierIndex.append(skierId, sequence);
+        resortDayIndex.computeIfAbsent(resortDayKey(resortId, dayId), k -> new IntList()).add(sequence);
+    }
+
+    private static long resortDayKey(int resortId, int dayId) {
+        return ((long) resortId << 32) | (dayId & 0xFFFFFFFFL);
+    }
+
+    private static LiftRide readRecord(ByteBuffer buffer, LiftRide into) {
+        return into.set(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                buffer.getInt());
+    }
+
+    private void drainWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            active.channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Writes the buffered records to the active segment. After a failed force it instead cuts the
+     * segment back to the last durable record and writes every unforced record again.
+     */
+    private void writeOut() throws IOException {
+        if (!rewriteUnforced) {
+            drainWriteBuffer();
+            return;
+        }
+        long durableBytes = (long) (durableRides - active.firstRide) * RECORD_BYTES;
+        active.channel.truncate(durableBytes);
+        ByteBuffer records = unforced.duplicate().flip();
+        long position = durableBytes;
+        while (records.hasRemaining()) {
+            position += active.channel.write(records, position);
+        }
+        active.channel.position(position);
+        writeBuffer.clear();
+        rewriteUnforced = false;
+    }
+
+    private void rotate() throws IOException {
+        if (active != null) {
+            writeOut();
+            try {
+                active.channel.force(false);
+            } catch (IOException e) {
+                forceFailures++;
+                rewriteUnforced = true;
+                throw e;
+            }
+            durableRides = totalRides;
+            unforced.clear();
+        }
+        Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segments.size(), SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = new Segment(path, channel, totalRides);
+        segments.add(active);
+    }
+
+    private static List<Path> segmentPaths(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    // 顺序扫描段文件重建索引，并截掉最后一段末尾不完整的记录；checkpoint 之前的记录已由快照恢复，直接跳过
+    private void recover(long checkpoint) throws IOException {
+        long start = System.nanoTime();
+        List<Path> paths = segmentPaths(directory);
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_BYTES);
+        LiftRide ride = new LiftRide();
+        for (Path path : paths) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, channel, totalRides);
+            int skipped = (int) Math.max(0, Math.min(checkpoint - totalRides, channel.size() / RECORD_BYTES));
+            totalRides += skipped;
+            segment.records = skipped;
+            long position = (long) skipped * RECORD_BYTES;
+            long readPosition = position;
+            boolean torn = false;
+            scan.clear();
+            while (!torn) {
+                int read = channel.read(scan, readPosition);
+                if (read <= 0) {
+                    break;
+                }
+                readPosition += read;
+                scan.flip();
+                while (scan.remaining() >= RECORD_BYTES) {
+                    readRecord(scan, ride);
+                    // 全零的尾部或写了一半的记录都会读出非法的 skierID
+                    if (ride.getSkierID() < 1 || ride.getSkierID() > skierIndex.maxSkierId()) {
+                        torn = true;
+                        break;
+                    }
+                    index(totalRides++, ride.getResortID(), ride.getDayID(), ride.getSkierID());
+                    if (recoveryListener != null) {
+                        recoveryListener.onRide(ride);
+                    }
+                    segment.records++;
+                    position += RECORD_BYTES;
+                }
+                scan.compact();
+            }
+            if (channel.size() != position) {
+                System.err.println("Truncating " + path.getFileName() + " from " + channel.size() + " to "
+                        + position + " bytes");
+                channel.truncate(position);
+            }
+            channel.position(position);
+            segments.add(segment);
+            active = segment;
+        }
+        if (totalRides < checkpoint) {
+            throw new IOException("Segments hold " + totalRides + " rides but the snapshot covers " + checkpoint);
+        }
+        durableRides = totalRides;
+        System.out.printf(" [*] Recovered %d rides (%d from snapshot) from %d segments in %d ms%n", totalRides,
+                checkpoint, segments.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Layout: the skier index ({@link SkierRideStore#writeSnapshot}), then {@code int entries} and
+     * per resort/day {@code long key | int count | int[count] sequence numbers}.
+     */
+    @Override
+    public synchronized long snapshotBytes() {
+        long bytes = skierIndex.snapshotBytes() + 4;
+        for (IntList ids : resortDayIndex.values()) {
+            bytes += 8 + 4 + 4L * ids.size;
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void writeSnapshot(ByteBuffer out) {
+        skierIndex.writeSnapshot(out);
+        out.putInt(resortDayIndex.size());
+        for (Map.Entry<Long, IntList> entry : resortDayIndex.entrySet()) {
+            IntList ids = entry.getValue();
+            out.putLong(entry.getKey()).putInt(ids.size);
+            out.asIntBuffer().put(ids.values, 0, ids.size);
+            out.position(out.position() + 4 * ids.size);
+        }
+    }
+
+    private void readResortDayIndex(ByteBuffer in) {
+        int entries = in.getInt();
+        for (int i = 0; i < entries; i++) {
+            long key = in.getLong();
+            int size = in.getInt();
+            int[] values = new int[Math.max(16, size + (size >> 1))];
+            IntBuffer ints = in.asIntBuffer();
+            ints.get(values, 0, size);
+            in.position(in.position() + 4 * size);
+            resortDayIndex.put(key, new IntList(values, size));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (active != null) {
+            flush();
+        }
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+        segments.clear();
+        active = null;
+    }
+
+    private static class Segment {
+        final Path path;
+        final FileChannel channel;
+        final int firstRide;
+        int records;
+
+        Segment(Path path, FileChannel channel, int firstRide) {
+            this.path = path;
+            this.channel = channel;
+            this.firstRide = firstRide;
+        }
+    }
+
+    private static class IntList {
+        private int[] values;
+        private int size;
+
+        IntList() {
+            this(new int[16], 0);
+        }
+
+        IntList(int[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size + (size >> 1));
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
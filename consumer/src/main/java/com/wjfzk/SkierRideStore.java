@@ -0,0 +1,149 @@
+package com.wjfzk;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-skier ride store backed by a dense array indexed by skierID. Each skier's rides live in a
+ * primitive int array that is allocated on the first ride and grows on demand, so there is no
+ * boxing and no per-entry map node. Appends take one of a fixed set of striped locks, so writers
+ * for different skiers rarely contend and never block on a list-wide lock.
+ *
+ * <p>Snapshot layout: {@code int maxSkierId | int[maxSkierId + 1] counts | each skier's values in
+ * skierID order}, all copied with bulk {@link IntBuffer} transfers.
+ */
+public class SkierRideStore implements Snapshottable {
+    public static final int DEFAULT_MAX_SKIER_ID = 100000;
+    private static final int DEFAULT_INITIAL_CAPACITY = 8;
+    private static final int STRIPES = 1024; // 必须是 2 的幂
+
+    private final int maxSkierId;
+    private final int initialCapacity;
+    private final int[][] values;
+    private final int[] counts;
+    private final Object[] locks = new Object[STRIPES];
+
+    public SkierRideStore() {
+        this(DEFAULT_MAX_SKIER_ID, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public SkierRideStore(int maxSkierId, int initialCapacity) {
+        this.maxSkierId = maxSkierId;
+        this.initialCapacity = Math.max(1, initialCapacity);
+        this.values = new int[maxSkierId + 1][];
+        this.counts = new int[maxSkierId + 1];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public void append(int skierId, int value) {
+        checkSkierId(skierId);
+        synchronized (locks[skierId & (STRIPES - 1)]) {
+            int count = counts[skierId];
+            int[] rides = values[skierId];
+            if (rides == null) {
+                rides = new int[initialCapacity];
+                values[skierId] = rides;
+            } else if (count == rides.length) {
+                rides = Arrays.copyOf(rides, count + (count >> 1) + 1);
+                values[skierId] = rides;
+            }
+            rides[count] = value;
+            counts[skierId] = count + 1;
+        }
+    }
+
+    public int rideCount(int skierId) {
+        checkSkierId(skierId);
+        synchronized (locks[skierId & (STRIPES - 1)]) {
+            return counts[skierId];
+        }
+    }
+
+    /** Copy of the skier's rides in arrival order; empty if the skier has none. */
+    public int[] rides(int skierId) {
+        checkSkierId(skierId);
+        synchronized (locks[skierId & (STRIPES - 1)]) {
+            int[] rides = values[skierId];
+            return rides == null ? new int[0] : Arrays.copyOf(rides, counts[skierId]);
+        }
+    }
+
+    public int maxSkierId() {
+        return maxSkierId;
+    }
+
+    /** Total rides across all skiers. Not an atomic snapshot while appends are running. */
+    public long totalRides() {
+        long total = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int id = stripe; id <= maxSkierId; id += STRIPES) {
+                    total += counts[id];
+                }
+            }
+        }
+        return total;
+    }
+
+    /** Approximate heap footprint in bytes, assuming compressed oops and 16-byte array headers. */
+    public long footprintBytes() {
+        long bytes = 16L + 4L * values.length + 16L + 4L * counts.length;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int id = stripe; id <= maxSkierId; id += STRIPES) {
+                    if (values[id] != null) {
+                        bytes += 16L + 4L * values[id].length;
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public long snapshotBytes() {
+        return 4L + 4L * counts.length + 4L * totalRides();
+    }
+
+    @Override
+    public void writeSnapshot(ByteBuffer out) {
+        out.putInt(maxSkierId);
+        IntBuffer ints = out.asIntBuffer();
+        ints.put(counts);
+        for (int id = 1; id <= maxSkierId; id++) {
+            if (counts[id] > 0) {
+                ints.put(values[id], 0, counts[id]);
+            }
+        }
+        out.position(out.position() + 4 * ints.position());
+    }
+
+    /** Reads a store written by {@link #writeSnapshot} and advances {@code in} past it. */
+    public static SkierRideStore readSnapshot(ByteBuffer in) {
+        return readSnapshot(in, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public static SkierRideStore readSnapshot(ByteBuffer in, int initialCapacity) {
+        SkierRideStore store = new SkierRideStore(in.getInt(), initialCapacity);
+        IntBuffer ints = in.asIntBuffer();
+        ints.get(store.counts);
+        for (int id = 1; id <= store.maxSkierId; id++) {
+            int count = store.counts[id];
+            if (count > 0) {
+                store.values[id] = new int[Math.max(count, store.initialCapacity)];
+                ints.get(store.values[id], 0, count);
+            }
+        }
+        in.position(in.position() + 4 * ints.position());
+        return store;
+    }
+
+    private void checkSkierId(int skierId) {
+        if (skierId < 1 || skierId > maxSkierId) {
+            throw new IllegalArgumentException("skierID out of range: " + skierId);
+        }
+    }
+}
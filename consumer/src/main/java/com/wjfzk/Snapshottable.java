@@ -0,0 +1,16 @@
+package com.wjfzk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * State that {@link ConsumerSnapshotter} can copy into a snapshot file. Both methods are called
+ * while writers are paused, so implementations need no extra locking against appends. Each class
+ * restores itself from the same layout with its own {@code readSnapshot}/{@code restoreSnapshot}.
+ */
+public interface Snapshottable {
+
+    /** Exact number of bytes {@link #writeSnapshot} will write. */
+    long snapshotBytes();
+
+    void writeSnapshot(ByteBuffer out);
+}
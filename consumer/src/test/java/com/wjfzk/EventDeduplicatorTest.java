@@ -0,0 +1,107 @@
+package com.wjfzk;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EventDeduplicatorTest {
+
+    private static final long WINDOW_MS = 60_000;
+
+    @Test
+    void redeliveredRideIsAckedButStoredOnce() throws Exception {
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 1e-6, WINDOW_MS);
+        MemoryRideSink sink = new MemoryRideSink(new SkierRideStore());
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        RideLanes lanes = new RideLanes(2, 1, 0, timer, sink, deduplicator);
+        BlockingQueue<RideLanes.Outcome> outcomes = new LinkedBlockingQueue<>();
+        RideLanes.Owner owner = (task, outcome) -> outcomes.add(outcome);
+        try {
+            byte[] body = LiftRideCodec.encode(new LiftRide(1, 2024, 1, 42, 7, 100).setEventID(123_456_789L));
+            // 第一次投递存储后，broker 重新投递同一条消息（例如 ack 丢失）
+            lanes.submit(42, new RideLanes.Task(owner, 0, new MessageTransport.Message(1, body, LiftRideCodec.CONTENT_TYPE_BINARY)));
+            assertEquals(RideLanes.Outcome.STORED, outcomes.poll(5, TimeUnit.SECONDS));
+            lanes.submit(42, new RideLanes.Task(owner, 1, new MessageTransport.Message(2, body, LiftRideCodec.CONTENT_TYPE_BINARY)));
+            assertEquals(RideLanes.Outcome.STORED, outcomes.poll(5, TimeUnit.SECONDS));
+
+            assertEquals(1, sink.rideCount());
+            assertEquals(1, deduplicator.duplicates());
+        } finally {
+            lanes.close();
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    void releasedClaimAcceptsTheRedelivery() {
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 1e-6, WINDOW_MS);
+        assertTrue(deduplicator.tryClaim(7));
+        deduplicator.release(new long[] {7}, 1);
+        assertTrue(deduplicator.tryClaim(7));
+    }
+
+    @Test
+    void batchClaimRejectsACopyInTheSameBatch() {
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 1e-6, WINDOW_MS);
+        long[] eventIds = {7, 0, 7, 8};
+        boolean[] claimed = new boolean[eventIds.length];
+        deduplicator.tryClaim(eventIds, claimed, 0, eventIds.length);
+        assertArrayEquals(new boolean[] {true, false, false, true}, claimed);
+        assertEquals(1, deduplicator.duplicates());
+
+        // 交还后面的认领，再认领一次时仍然拿得到
+        deduplicator.release(eventIds, claimed, 1, eventIds.length);
+        assertArrayEquals(new boolean[] {true, false, false, false}, claimed);
+        deduplicator.tryClaim(eventIds, claimed, 3, eventIds.length);
+        assertTrue(claimed[3]);
+    }
+
+    @Test
+    void concurrentCopyIsRejectedWhileTheFirstIsInFlight() {
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 1e-6, WINDOW_MS);
+        assertTrue(deduplicator.tryClaim(7));
+        assertFalse(deduplicator.tryClaim(7));
+        deduplicator.commit(new long[] {7}, 1);
+        assertFalse(deduplicator.tryClaim(7));
+        assertEquals(2, deduplicator.duplicates());
+    }
+
+    @Test
+    void snapshotKeepsStoredAndInFlightIds() {
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 1e-6, WINDOW_MS);
+        assertTrue(deduplicator.tryClaim(1));
+        deduplicator.commit(new long[] {1}, 1);
+        // 已追加但尚未刷盘的骑行：快照的 checkpoint 包含它
+        assertTrue(deduplicator.tryClaim(2));
+
+        ByteBuffer snapshot = ByteBuffer.allocate((int) deduplicator.snapshotBytes());
+        deduplicator.writeSnapshot(snapshot);
+        assertEquals(snapshot.capacity(), snapshot.position());
+
+        EventDeduplicator restored = new EventDeduplicator(1000, 1e-6, WINDOW_MS);
+        restored.restoreSnapshot(snapshot.flip());
+        assertFalse(restored.tryClaim(1));
+        assertFalse(restored.tryClaim(2));
+        assertTrue(restored.tryClaim(3));
+    }
+
+    @Test
+    void snapshotFromDifferentlySizedFiltersIsRejected() {
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 1e-6, WINDOW_MS);
+        ByteBuffer snapshot = ByteBuffer.allocate((int) deduplicator.snapshotBytes());
+        deduplicator.writeSnapshot(snapshot);
+
+        EventDeduplicator other = new EventDeduplicator(5000, 1e-6, WINDOW_MS);
+        assertThrows(IllegalArgumentException.class, () -> other.restoreSnapshot(snapshot.flip()));
+    }
+}
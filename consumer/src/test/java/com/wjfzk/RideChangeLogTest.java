@@ -0,0 +1,58 @@
+package com.wjfzk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class RideChangeLogTest {
+
+    private static final int WRITERS = 4;
+    private static final int CHANGES_PER_WRITER = 10_000;
+
+    @Test
+    void concurrentRecordsAreAllReturned() throws Exception {
+        RideChangeLog log = new RideChangeLog(WRITERS * CHANGES_PER_WRITER);
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < CHANGES_PER_WRITER; i++) {
+                    log.record(1, 2025, writer, i);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        RideChangeLog.Changes changes = log.since(0);
+        assertFalse(changes.reset());
+        assertEquals(WRITERS * CHANGES_PER_WRITER, changes.version());
+        Set<Long> seen = new HashSet<>();
+        for (int[] key : changes.skierDays()) {
+            assertEquals(1, key[0]);
+            assertEquals(2025, key[1]);
+            seen.add((long) key[2] << 32 | key[3]);
+        }
+        assertEquals(WRITERS * CHANGES_PER_WRITER, seen.size());
+    }
+
+    @Test
+    void callerMoreThanACapacityBehindIsReset() {
+        RideChangeLog log = new RideChangeLog(4);
+        for (int i = 0; i < 6; i++) {
+            log.record(1, 2025, 1, i);
+        }
+        assertTrue(log.since(1).reset());
+        RideChangeLog.Changes changes = log.since(2);
+        assertFalse(changes.reset());
+        assertEquals(6, changes.version());
+        assertEquals(2, changes.skierDays()[0][3]);
+        assertEquals(5, changes.skierDays()[3][3]);
+    }
+}
@@ -0,0 +1,101 @@
+package com.wjfzk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.junit.jupiter.api.Test;
+
+class RideLanesTest {
+
+    private static final int RIDES = 3;
+
+    @Test
+    void ridesQueuedBehindAFailedBatchAreRequeuedInOrder() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        RideLanes lanes = new RideLanes(1, 1, 0, timer, new FailingSink(), null);
+        BlockingQueue<long[]> settled = new LinkedBlockingQueue<>();
+        RideLanes.Owner owner = (task, outcome) ->
+                settled.add(new long[] {task.seq, outcome == RideLanes.Outcome.FAILED ? 1 : 0});
+        try {
+            byte[] body = LiftRideCodec.encode(new LiftRide(1, 2024, 1, 42, 7, 100).setEventID(1));
+            for (int seq = 0; seq < RIDES; seq++) {
+                lanes.submit(42, new RideLanes.Task(owner, seq, new MessageTransport.Message(seq + 1, body,
+                        LiftRideCodec.CONTENT_TYPE_BINARY)));
+            }
+            // 第一条在重试失败的存储，后两条排在它后面
+            Thread.sleep(50);
+            lanes.close();
+
+            List<Long> order = new ArrayList<>();
+            for (int i = 0; i < RIDES; i++) {
+                long[] outcome = settled.poll(5, TimeUnit.SECONDS);
+                assertNotNull(outcome);
+                assertEquals(1, outcome[1], "ride " + outcome[0] + " was not requeued");
+                order.add(outcome[0]);
+            }
+            // 逆序结算：依次放回队首后恢复原来的顺序
+            assertEquals(List.of(2L, 1L, 0L), order);
+        } finally {
+            lanes.close();
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    void snapshotIsNotBlockedWhileTheStoreIsFailing() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 0.01, 60_000);
+        RideLanes lanes = new RideLanes(1, 1, 0, timer, new FailingSink(), deduplicator, snapshotLock.readLock());
+        try {
+            byte[] body = LiftRideCodec.encode(new LiftRide(1, 2024, 1, 42, 7, 100).setEventID(1));
+            lanes.submit(42, new RideLanes.Task((task, outcome) -> { }, 0,
+                    new MessageTransport.Message(1, body, LiftRideCodec.CONTENT_TYPE_BINARY)));
+            Thread.sleep(50);
+            // 快照取写锁：重试暂停期间 lane 不持有 appendLock
+            assertTrue(snapshotLock.writeLock().tryLock(5, TimeUnit.SECONDS));
+            try {
+                // 没追加成功的骑行也不占着认领
+                assertTrue(deduplicator.tryClaim(1));
+                deduplicator.release(new long[] {1}, 1);
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+        } finally {
+            lanes.close();
+            timer.shutdownNow();
+        }
+    }
+
+    /** A store whose disk is gone. */
+    private static final class FailingSink implements RideSink {
+        @Override
+        public void append(LiftRide ride) throws IOException {
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public long rideCount() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
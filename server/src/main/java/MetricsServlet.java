@@ -0,0 +1,22 @@
+import com.wjfzk.ServerMetrics;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+@WebServlet(name = "MetricsServlet", urlPatterns = "/metrics")
+public class MetricsServlet extends HttpServlet {
+
+  // Prometheus 文本格式
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    resp.setContentType(CONTENT_TYPE);
+    resp.setStatus(HttpServletResponse.SC_OK);
+    PrintWriter out = resp.getWriter();
+    ServerMetrics.get().writePrometheus(out);
+  }
+}
@@ -0,0 +1,56 @@
+import com.google.gson.Gson;
+import com.wjfzk.RideQueryService;
+import com.wjfzk.RideRequestParser;
+import com.wjfzk.ServerMetrics;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * GET /resorts/{resortID}/seasons/{seasonID}/day/{dayID}/skiers: number of distinct skiers at the
+ * resort that day, from the consumer's aggregates via the read cache.
+ */
+@WebServlet(name = "ResortServlet", urlPatterns = "/resorts/*")
+public class ResortServlet extends HttpServlet {
+
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  private final Gson jsonConverter = new Gson();
+  private final ServerMetrics metrics = ServerMetrics.get();
+  private final RideQueryService queries = RideQueryService.get();
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    resp.setContentType("application/json");
+    RideRequestParser parser = RideRequestParser.forCurrentThread();
+    String error = parser.parseResortPath(req.getPathInfo());
+    if (error != null) {
+      writeErrorResponse(resp, error, HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    if (parser.getSeasonId() != RideRequestParser.FIXED_SEASON_ID) {
+      writeErrorResponse(resp, RideRequestParser.SEASON_NOT_FOUND, HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    String body;
+    try {
+      body = queries.resortDaySkiers(parser.getResortId(), parser.getSeasonId(), parser.getDayId());
+    } catch (IOException ex) {
+      resp.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+      writeErrorResponse(resp, "Ride data is unavailable: " + ex.getMessage(),
+          HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+    resp.setStatus(HttpServletResponse.SC_OK);
+    metrics.recordResponse(HttpServletResponse.SC_OK);
+    resp.getWriter().write(body);
+  }
+
+  private void writeErrorResponse(HttpServletResponse resp, String message, int statusCode) throws IOException {
+    resp.setStatus(statusCode);
+    metrics.recordResponse(statusCode);
+    resp.getWriter().write(jsonConverter.toJson(new SkierServlet.ErrorResponse(message)));
+  }
+}
@@ -1,184 +1,498 @@
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonSyntaxException;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.wjfzk.BatchingPublisher;
+import com.wjfzk.ChannelPoolPublisher;
+import com.wjfzk.InProcessBroker;
+import com.wjfzk.InProcessTransport;
+import com.wjfzk.LiftRideCodec;
+import com.wjfzk.MessageTransport;
+import com.wjfzk.QueuePartitions;
+import com.wjfzk.RabbitMqTransport;
+import com.wjfzk.RideRequestParser;
+import com.wjfzk.RidePublisher;
+import com.wjfzk.RideQueryService;
+import com.wjfzk.RideRouter;
+import com.wjfzk.ServerMetrics;
+import com.wjfzk.ServerSettings;
+import com.wjfzk.SpillJournal;
+import com.wjfzk.SpillingPublisher;
+import com.wjfzk.UnconfirmedPublishException;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
-@WebServlet(name = "SkierServlet", urlPatterns = "/skiers/*")
+@WebServlet(name = "SkierServlet", urlPatterns = "/skiers/*", asyncSupported = true)
 public class SkierServlet extends HttpServlet {
 
+  // 消息通道："rabbitmq" 连接 broker，"inprocess" 使用同一 JVM 内的队列（见 InProcessBroker）
+  private static final String DEFAULT_TRANSPORT = "rabbitmq";
   private static final String RABBITMQ_HOST = "44.246.128.90";
   private static final int CHANNEL_POOL_CAPACITY = 300;
   private static final String TARGET_QUEUE = "skier_queue";
-  private static final int FIXED_SEASON_ID = 2025;
+  // 按 skierID 分区：分区数大于 1 时经 direct exchange 发往 skier_queue.<n>，须与消费端的 consumer.partitions 一致
+  private static final int DEFAULT_QUEUE_PARTITIONS = 1;
+  private static final String DEFAULT_QUEUE_EXCHANGE = "skier_exchange";
+  private static final String BATCH_PATH = "/batch";
+  private static final int SC_MULTI_STATUS = 207;
 
-  private Connection mqConnection;
-  private BlockingQueue<Channel> channelPool;
+  // 发布模式："batched" 使用带 publisher confirms 的批量发布，"pool" 为原来的 channel 池
+  private static final String DEFAULT_PUBLISHER_MODE = "batched";
+  private static final int DEFAULT_BUFFER_CAPACITY = 10000;
+  private static final int DEFAULT_PUBLISHER_THREADS = 4;
+  private static final int DEFAULT_BATCH_SIZE = 100;
+  private static final int DEFAULT_LINGER_MS = 2;
+  private static final int DEFAULT_CONFIRM_TIMEOUT_MS = 5000;
+  // 消息格式："binary" 为定长二进制编码（见 LiftRideCodec），"json" 为兼容格式
+  private static final String DEFAULT_WIRE_FORMAT = "binary";
+  // 异步模式：请求占用一个 in-flight 名额直到发布完成，名额用尽时立即返回 503
+  private static final String DEFAULT_ASYNC_ENABLED = "true";
+  private static final int DEFAULT_MAX_IN_FLIGHT = 2000;
+  private static final int DEFAULT_ASYNC_TIMEOUT_MS = 10000;
+  private static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+  // POST /skiers/batch 的单次上限
+  private static final int DEFAULT_BATCH_MAX_ITEMS = 1000;
+  private static final int DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+  // broker 不可用时把消息写入本地 journal，恢复后后台重放
+  private static final String DEFAULT_SPILL_ENABLED = "true";
+  private static final int DEFAULT_SPILL_SEGMENT_BYTES = 64 * 1024 * 1024;
+  private static final String DEFAULT_SPILL_FSYNC = "interval";
+  private static final int DEFAULT_SPILL_REPLAY_INTERVAL_MS = 1000;
+
+  private MessageTransport transport;
+  private RideRouter router;
+  private RidePublisher publisher;
+  private int confirmTimeoutMs;
+  private boolean binaryWireFormat;
+  private boolean asyncEnabled;
+  private Semaphore inFlightBudget;
+  private int asyncTimeoutMs;
+  private String retryAfterSeconds;
+  private int maxBatchItems;
+  private int maxBatchBytes;
   private final Gson jsonConverter = new Gson();
+  private final ServerMetrics metrics = ServerMetrics.get();
+  private final RideQueryService queries = RideQueryService.get();
 
   @Override
   public void init() throws ServletException {
     try {
-      ConnectionFactory factory = new ConnectionFactory();
-      factory.setHost(RABBITMQ_HOST);
-      factory.setUsername("guest");
-      factory.setPassword("guest");
-      mqConnection = factory.newConnection();
-
-      channelPool = new ArrayBlockingQueue<>(CHANNEL_POOL_CAPACITY);
-      for (int i = 0; i < CHANNEL_POOL_CAPACITY; i++) {
-        Channel channel = mqConnection.createChannel();
-        channel.queueDeclare(TARGET_QUEUE, true, false, false, null);
-        channelPool.offer(channel);
-      }
+      transport = openTransport();
+      QueuePartitions partitions = new QueuePartitions(
+          ServerSettings.get(getServletConfig(), "queue.exchange", DEFAULT_QUEUE_EXCHANGE),
+          ServerSettings.get(getServletConfig(), "queue", TARGET_QUEUE),
+          ServerSettings.getInt(getServletConfig(), "queue.partitions", DEFAULT_QUEUE_PARTITIONS));
+      partitions.declare(transport);
+      router = new RideRouter(partitions);
+      confirmTimeoutMs = ServerSettings.getInt(getServletConfig(), "publisher.confirmTimeoutMs", DEFAULT_CONFIRM_TIMEOUT_MS);
+      binaryWireFormat = !"json".equalsIgnoreCase(ServerSettings.get(getServletConfig(), "wire.format", DEFAULT_WIRE_FORMAT));
+      asyncEnabled = Boolean.parseBoolean(ServerSettings.get(getServletConfig(), "async.enabled", DEFAULT_ASYNC_ENABLED));
+      inFlightBudget = new Semaphore(ServerSettings.getInt(getServletConfig(), "async.maxInFlight", DEFAULT_MAX_IN_FLIGHT));
+      asyncTimeoutMs = ServerSettings.getInt(getServletConfig(), "async.timeoutMs", DEFAULT_ASYNC_TIMEOUT_MS);
+      retryAfterSeconds = String.valueOf(ServerSettings.getInt(getServletConfig(), "async.retryAfterSeconds", DEFAULT_RETRY_AFTER_SECONDS));
+      maxBatchItems = ServerSettings.getInt(getServletConfig(), "batch.maxItems", DEFAULT_BATCH_MAX_ITEMS);
+      maxBatchBytes = ServerSettings.getInt(getServletConfig(), "batch.maxBytes", DEFAULT_BATCH_MAX_BYTES);
+      publisher = createPublisher();
     } catch (IOException | TimeoutException ex) {
-      throw new ServletException("Failed to connect to RabbitMQ", ex);
+      throw new ServletException("Failed to open the message transport", ex);
     }
   }
 
-  @Override
-  protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("application/json");
+  private MessageTransport openTransport() throws IOException, TimeoutException {
+    String kind = ServerSettings.get(getServletConfig(), "transport", DEFAULT_TRANSPORT);
+    if ("inprocess".equalsIgnoreCase(kind)) {
+      return new InProcessTransport(InProcessBroker.shared());
+    }
+    ConnectionFactory factory = new ConnectionFactory();
+    factory.setHost(ServerSettings.get(getServletConfig(), "rabbitmq.host", RABBITMQ_HOST));
+    factory.setPort(ServerSettings.getInt(getServletConfig(), "rabbitmq.port", ConnectionFactory.DEFAULT_AMQP_PORT));
+    factory.setUsername(ServerSettings.get(getServletConfig(), "rabbitmq.username", ConnectionFactory.DEFAULT_USER));
+    factory.setPassword(ServerSettings.get(getServletConfig(), "rabbitmq.password", ConnectionFactory.DEFAULT_PASS));
+    factory.setVirtualHost(ServerSettings.get(getServletConfig(), "rabbitmq.vhost", ConnectionFactory.DEFAULT_VHOST));
+    return new RabbitMqTransport(factory.newConnection());
+  }
 
-    // URL 验证和参数提取
-    String pathInfo = request.getPathInfo();
-    if (pathInfo == null || !validatePathFormat(pathInfo)) {
-      writeErrorResponse(response, "Invalid URL format! Expected: /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}", HttpServletResponse.SC_BAD_REQUEST);
-      return;
+  private RidePublisher createPublisher() throws IOException {
+    RidePublisher brokerPublisher = createBrokerPublisher();
+    if (!Boolean.parseBoolean(ServerSettings.get(getServletConfig(), "spill.enabled", DEFAULT_SPILL_ENABLED))) {
+      return brokerPublisher;
     }
-    String[] segments = pathInfo.split("/");
-    int resortId = safeParseInt(segments[1], response, "Invalid resortID!");
-    String dayId = segments[5];
-    int skierId = safeParseInt(segments[7], response, "Invalid skierID!");
+    Path spillDir = Paths.get(ServerSettings.get(getServletConfig(), "spill.dir",
+        Paths.get(System.getProperty("java.io.tmpdir"), "skier-spill").toString()));
+    SpillJournal journal = new SpillJournal(spillDir,
+        ServerSettings.getInt(getServletConfig(), "spill.segmentBytes", DEFAULT_SPILL_SEGMENT_BYTES),
+        SpillJournal.FsyncPolicy.valueOf(ServerSettings.get(getServletConfig(), "spill.fsync", DEFAULT_SPILL_FSYNC).toUpperCase()));
+    return new SpillingPublisher(brokerPublisher, journal, transport::isOpen,
+        ServerSettings.getInt(getServletConfig(), "spill.replayIntervalMs", DEFAULT_SPILL_REPLAY_INTERVAL_MS),
+        confirmTimeoutMs);
+  }
 
-    if (!validateDay(dayId) || resortId < 1 || resortId > 10 || skierId < 1 || skierId > 100000) {
-      writeErrorResponse(response, "Invalid parameters: resortID, dayID, or skierID out of range!", HttpServletResponse.SC_BAD_REQUEST);
-      return;
+  private RidePublisher createBrokerPublisher() throws IOException {
+    String mode = ServerSettings.get(getServletConfig(), "publisher.mode", DEFAULT_PUBLISHER_MODE);
+    if ("pool".equalsIgnoreCase(mode)) {
+      return new ChannelPoolPublisher(transport, router,
+          ServerSettings.getInt(getServletConfig(), "publisher.channelPoolCapacity", CHANNEL_POOL_CAPACITY));
     }
+    return new BatchingPublisher(transport, router,
+        ServerSettings.getInt(getServletConfig(), "publisher.bufferCapacity", DEFAULT_BUFFER_CAPACITY),
+        ServerSettings.getInt(getServletConfig(), "publisher.threads", DEFAULT_PUBLISHER_THREADS),
+        ServerSettings.getInt(getServletConfig(), "publisher.batchSize", DEFAULT_BATCH_SIZE),
+        ServerSettings.getInt(getServletConfig(), "publisher.lingerMs", DEFAULT_LINGER_MS),
+        confirmTimeoutMs);
+  }
 
-    // 请求体读取与 JSON 解析
-    String reqBody = readRequestBody(request);
-    System.out.println("Request body: " + reqBody);
-    JsonObject payload;
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    metrics.requestStarted();
+    boolean handedOff = false;
     try {
-      payload = jsonConverter.fromJson(reqBody, JsonObject.class);
-      if (payload == null || !payload.isJsonObject()) {
-        writeErrorResponse(response, "Invalid JSON format.", HttpServletResponse.SC_BAD_REQUEST);
-        return;
+      handedOff = handlePost(request, response);
+    } finally {
+      if (!handedOff) {
+        metrics.requestFinished();
       }
-    } catch (JsonSyntaxException ex) {
-      writeErrorResponse(response, "Invalid JSON syntax.", HttpServletResponse.SC_BAD_REQUEST);
-      return;
     }
+  }
 
-    // 必填字段验证
-    if (!payload.has("liftID") || !payload.has("time")) {
-      writeErrorResponse(response, "Missing required fields (liftID, time)", HttpServletResponse.SC_BAD_REQUEST);
-      return;
+  // 返回 true 表示请求已转为异步，由 finishAsync 写响应
+  private boolean handlePost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("application/json");
+    if (BATCH_PATH.equals(request.getPathInfo())) {
+      return handleBatch(request, response);
     }
 
-    // 添加 URL 参数到 JSON 数据
-    payload.addProperty("resortID", resortId);
-    payload.addProperty("dayID", dayId);
-    payload.addProperty("skierID", skierId);
-    payload.addProperty("seasonID", FIXED_SEASON_ID);
-    payload.addProperty("time", payload.get("time").getAsString());
-    payload.addProperty("liftID", payload.get("liftID").getAsInt());
-
-    // 发布消息到 RabbitMQ
-    try {
-      publishToQueue(payload);
-      writeSuccessResponse(response, "Skier processed successfully in queue: " + TARGET_QUEUE);
-    } catch (Exception ex) {
-      writeErrorResponse(response, "Failed to send message to RabbitMQ: " + ex.getMessage(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    // URL 验证、请求体读取与 JSON 解析（单次扫描，不分配中间对象）
+    RideRequestParser parser = RideRequestParser.forCurrentThread();
+    long stageStart = System.nanoTime();
+    String error = parser.parsePath(request.getPathInfo());
+    stageStart = recordStage(ServerMetrics.Stage.PATH_VALIDATION, stageStart);
+    if (error == null) {
+      error = parser.readBody(request.getInputStream());
+      stageStart = recordStage(ServerMetrics.Stage.BODY_READ, stageStart);
+    }
+    if (error == null) {
+      error = parser.parseBody();
     }
+    if (error != null) {
+      writeErrorResponse(response, error, HttpServletResponse.SC_BAD_REQUEST);
+      return false;
+    }
+    String contentType = parser.writeMessage(binaryWireFormat);
+    recordStage(ServerMetrics.Stage.JSON_PARSE, stageStart);
+
+    // 发布消息到消息队列
+    byte[] message = parser.copyMessage();
+    return completePublish(request, response, () -> publisher.publish(message, contentType),
+        this::writeSuccessResponse, this::writePublishFailure);
   }
 
-  private void publishToQueue(JsonObject message) throws InterruptedException, IOException {
-    Channel channel = channelPool.take();
+  // POST /skiers/batch：NDJSON 或连续的二进制记录，每条按单次 POST 校验，有效的一起发布
+  private boolean handleBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    RideRequestParser parser = RideRequestParser.forCurrentThread();
+    List<BatchItem> items = new ArrayList<>();
+    int count;
     try {
-      channel.basicPublish("", TARGET_QUEUE, null, message.toString().getBytes(StandardCharsets.UTF_8));
+      long stageStart = System.nanoTime();
+      String error = parser.readBody(request.getInputStream(), maxBatchBytes);
+      stageStart = recordStage(ServerMetrics.Stage.BODY_READ, stageStart);
+      if (error != null) {
+        writeErrorResponse(response, error, HttpServletResponse.SC_BAD_REQUEST);
+        return false;
+      }
+      String requestType = request.getContentType();
+      boolean binaryBody = requestType != null && requestType.startsWith(LiftRideCodec.CONTENT_TYPE_BINARY);
+      count = parser.parseBatch(binaryBody, binaryWireFormat, maxBatchItems,
+          (index, itemError, message, contentType) -> items.add(new BatchItem(index, itemError, message, contentType)));
+      recordStage(ServerMetrics.Stage.JSON_PARSE, stageStart);
     } finally {
-      channelPool.offer(channel);
+      // 每条消息都已复制出来；批量请求撑大的缓冲区不留在容器线程上
+      parser.releaseBody();
     }
+    if (count <= 0) {
+      writeErrorResponse(response, count < 0 ? "Batch exceeds " + maxBatchItems + " rides." : "Empty batch.",
+          HttpServletResponse.SC_BAD_REQUEST);
+      return false;
+    }
+    return completePublish(request, response, () -> publishBatch(items), resp -> writeBatchResponse(resp, items),
+        (resp, failure) -> {
+          // 超时时还没有结果的条目记为 503，客户端只重发这些
+          for (BatchItem item : items) {
+            item.finish(failure);
+          }
+          resp.setHeader("Retry-After", retryAfterSeconds);
+          writeBatchResponse(resp, items);
+        });
   }
 
-  // 验证 URL 格式是否正确：预期格式 /{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}
-  private boolean validatePathFormat(String path) {
-    String[] parts = path.split("/");
-    return parts.length == 8;
+  // 逐条交给 publisher（批量发布器会把它们合并进同一批次），每条的结果记录在 BatchItem 上
+  private CompletableFuture<Void> publishBatch(List<BatchItem> items) {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[items.size()];
+    for (int i = 0; i < futures.length; i++) {
+      BatchItem item = items.get(i);
+      futures[i] = item.status() != HttpServletResponse.SC_BAD_REQUEST
+          ? publisher.publish(item.body, item.contentType).handle((ignored, failure) -> item.finish(failure))
+          : CompletableFuture.completedFuture(null);
+    }
+    return CompletableFuture.allOf(futures);
   }
 
-  // 验证 dayID 是否满足正则表达式要求
-  private boolean validateDay(String day) {
-    return day.matches("^([1-9]|[1-9][0-9]|[12][0-9][0-9]|3[0-5][0-9]|36[0-6])$");
+  private void writeBatchResponse(HttpServletResponse resp, List<BatchItem> items) throws IOException {
+    BatchResponse result = new BatchResponse(items);
+    int status = result.rejected == 0 ? HttpServletResponse.SC_CREATED : SC_MULTI_STATUS;
+    resp.setStatus(status);
+    metrics.recordResponse(status);
+    resp.getWriter().write(jsonConverter.toJson(result));
   }
 
-  private int safeParseInt(String value, HttpServletResponse response, String errorMessage) throws IOException {
-    try {
-      return Integer.parseInt(value);
-    } catch (NumberFormatException e) {
-      writeErrorResponse(response, errorMessage, HttpServletResponse.SC_BAD_REQUEST);
-      return -1;
+  private long recordStage(ServerMetrics.Stage stage, long startNanos) {
+    long now = System.nanoTime();
+    metrics.stage(stage).record(now - startNanos);
+    return now;
+  }
+
+  // 异步模式下发布期间释放容器线程，响应只在容器线程上写（AsyncContext.start），不在发布线程上写
+  // 返回 true 表示请求已转为异步
+  private boolean completePublish(HttpServletRequest request, HttpServletResponse response,
+                                  Supplier<CompletableFuture<?>> work, ResponseWriter onSuccess,
+                                  FailureWriter onFailure) throws IOException {
+    if (!asyncEnabled) {
+      // 等待 broker 确认后才返回
+      try {
+        work.get().get(confirmTimeoutMs, TimeUnit.MILLISECONDS);
+        onSuccess.write(response);
+      } catch (ExecutionException ex) {
+        onFailure.write(response, ex.getCause());
+      } catch (TimeoutException | InterruptedException ex) {
+        onFailure.write(response, ex);
+      }
+      return false;
     }
+    if (!inFlightBudget.tryAcquire()) {
+      writeServiceUnavailable(response, "Server is at capacity, retry later.");
+      return false;
+    }
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(asyncTimeoutMs);
+    AtomicBoolean finished = new AtomicBoolean(false);
+    asyncContext.addListener(new AsyncListener() {
+      @Override
+      public void onTimeout(AsyncEvent event) throws IOException {
+        finishAsync(asyncContext, finished, onSuccess, onFailure, new TimeoutException("Timed out waiting for the message broker"));
+      }
+
+      @Override
+      public void onError(AsyncEvent event) throws IOException {
+        finishAsync(asyncContext, finished, onSuccess, onFailure, event.getThrowable());
+      }
+
+      @Override
+      public void onComplete(AsyncEvent event) {
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {
+      }
+    });
+
+    work.get().whenComplete((ignored, failure) -> {
+      // 名额跟着发布走：请求超时后发布可能仍在进行，完成时才归还
+      inFlightBudget.release();
+      if (finished.get()) {
+        return;
+      }
+      try {
+        asyncContext.start(() -> {
+          try {
+            finishAsync(asyncContext, finished, onSuccess, onFailure, failure);
+          } catch (IOException ex) {
+            System.out.println("Failed to write async response: " + ex.getMessage());
+          }
+        });
+      } catch (IllegalStateException ex) {
+        // 超时或出错的响应已经写完，AsyncContext 已结束
+      }
+    });
+    return true;
   }
 
-  private String readRequestBody(HttpServletRequest req) throws IOException {
-    StringBuilder builder = new StringBuilder();
-    try (BufferedReader br = req.getReader()) {
-      String line;
-      while ((line = br.readLine()) != null) {
-        builder.append(line);
+  // 只有第一个到达的结果（发布完成、超时或出错）会写响应
+  private void finishAsync(AsyncContext asyncContext, AtomicBoolean finished, ResponseWriter onSuccess,
+                           FailureWriter onFailure, Throwable failure) throws IOException {
+    if (!finished.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      HttpServletResponse resp = (HttpServletResponse) asyncContext.getResponse();
+      if (failure == null) {
+        onSuccess.write(resp);
+      } else {
+        onFailure.write(resp, failure);
       }
+    } finally {
+      metrics.requestFinished();
+      asyncContext.complete();
+    }
+  }
+
+  private void writePublishFailure(HttpServletResponse resp, Throwable failure) throws IOException {
+    Throwable cause = unwrap(failure);
+    int status = statusFor(cause);
+    if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+      writeServiceUnavailable(resp, cause.getMessage());
+    } else {
+      writeErrorResponse(resp, "Failed to send message to the message broker: " + cause.getMessage(), status);
     }
-    return builder.toString();
+  }
+
+  private static Throwable unwrap(Throwable failure) {
+    return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+  }
+
+  // 缓冲区已满或等待确认超时都属于过载，返回 503 让客户端退避重试；
+  // 未确认的消息可能已入队，重试时带同一个 eventID，由消费端去重
+  private static int statusFor(Throwable cause) {
+    return cause instanceof RejectedExecutionException || cause instanceof TimeoutException
+        || cause instanceof UnconfirmedPublishException
+        ? HttpServletResponse.SC_SERVICE_UNAVAILABLE
+        : HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+  }
+
+  private void writeServiceUnavailable(HttpServletResponse resp, String message) throws IOException {
+    resp.setHeader("Retry-After", retryAfterSeconds);
+    writeErrorResponse(resp, message, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
   }
 
   private void writeErrorResponse(HttpServletResponse resp, String message, int statusCode) throws IOException {
     resp.setStatus(statusCode);
+    metrics.recordResponse(statusCode);
     PrintWriter writer = resp.getWriter();
     writer.write(jsonConverter.toJson(new ErrorResponse(message)));
   }
 
-  private void writeSuccessResponse(HttpServletResponse resp, String message) throws IOException {
+  private void writeSuccessResponse(HttpServletResponse resp) throws IOException {
     resp.setStatus(HttpServletResponse.SC_CREATED);
+    metrics.recordResponse(HttpServletResponse.SC_CREATED);
     PrintWriter writer = resp.getWriter();
-    writer.write(jsonConverter.toJson(new SuccessResponse(message)));
+    writer.write(jsonConverter.toJson(new SuccessResponse("Skier processed successfully in queue: " + TARGET_QUEUE)));
   }
 
   @Override
   public void destroy() {
     try {
-      if (mqConnection != null) {
-        for (Channel ch : channelPool) {
-          ch.close();
-        }
-        mqConnection.close();
+      if (publisher != null) {
+        publisher.close();
       }
-    } catch (IOException | TimeoutException ex) {
-      System.out.println("Failed to close RabbitMQ connection: " + ex.getMessage());
+      if (transport != null) {
+        transport.close();
+      }
+    } catch (IOException ex) {
+      System.out.println("Failed to close the message transport: " + ex.getMessage());
     }
   }
 
+  // GET 某 skier 当天的统计，经读缓存取自消费端的聚合数据
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-    resp.setContentType("text/html");
+    resp.setContentType("application/json");
+    RideRequestParser parser = RideRequestParser.forCurrentThread();
+    String error = parser.parsePath(req.getPathInfo());
+    if (error != null) {
+      writeErrorResponse(resp, error, HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    if (parser.getSeasonId() != RideRequestParser.FIXED_SEASON_ID) {
+      writeErrorResponse(resp, RideRequestParser.SEASON_NOT_FOUND, HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    String body;
+    try {
+      body = queries.skierDay(parser.getResortId(), parser.getSeasonId(), parser.getDayId(), parser.getSkierId());
+    } catch (IOException ex) {
+      writeServiceUnavailable(resp, "Ride data is unavailable: " + ex.getMessage());
+      return;
+    }
     resp.setStatus(HttpServletResponse.SC_OK);
-    PrintWriter out = resp.getWriter();
-    out.println("<h1>Hello World!</h1>");
+    metrics.recordResponse(HttpServletResponse.SC_OK);
+    resp.getWriter().write(body);
+  }
+
+  private interface ResponseWriter {
+    void write(HttpServletResponse resp) throws IOException;
+  }
+
+  private interface FailureWriter {
+    void write(HttpServletResponse resp, Throwable failure) throws IOException;
+  }
+
+  static class BatchItem {
+    final transient byte[] body;
+    final transient String contentType;
+    int index;
+    int status;
+    String message;
+
+    BatchItem(int index, String error, byte[] body, String contentType) {
+      this.index = index;
+      this.body = body;
+      this.contentType = contentType;
+      this.status = error == null ? 0 : HttpServletResponse.SC_BAD_REQUEST;
+      this.message = error;
+    }
+
+    // 发布结果与请求超时可能同时到达，先到者决定该条的状态
+    synchronized Void finish(Throwable failure) {
+      if (status != 0) {
+        return null;
+      }
+      if (failure == null) {
+        status = HttpServletResponse.SC_CREATED;
+      } else {
+        Throwable cause = unwrap(failure);
+        status = statusFor(cause);
+        message = cause.getMessage();
+      }
+      return null;
+    }
+
+    synchronized int status() {
+      return status;
+    }
+  }
+
+  static class BatchResponse {
+    int accepted;
+    int rejected;
+    List<BatchItem> results;
+
+    BatchResponse(List<BatchItem> items) {
+      for (BatchItem item : items) {
+        if (item.status() == HttpServletResponse.SC_CREATED) {
+          accepted++;
+        } else {
+          rejected++;
+        }
+      }
+      this.results = items;
+    }
   }
 
   static class ErrorResponse {
@@ -0,0 +1,199 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Decouples request threads from the broker. Messages go into a bounded ring buffer and a few
+ * publisher threads drain it in micro-batches (up to {@code batchSize} messages or
+ * {@code lingerMillis}, whichever comes first). Each batch is published on a confirm-mode channel
+ * and every message's future completes only after the broker has confirmed the batch.
+ *
+ * <p>A failed future says whether the broker might hold the message: messages that were never
+ * written to a channel, or that the broker nacked, fail with the original cause, while messages
+ * written but left without a confirm fail with {@link UnconfirmedPublishException}.
+ */
+public class BatchingPublisher implements RidePublisher {
+
+  private static final long POLL_INTERVAL_MS = 100;
+
+  private final MessageTransport transport;
+  private final RideRouter router;
+  private final BlockingQueue<PendingMessage> ringBuffer;
+  private final int batchSize;
+  private final long lingerNanos;
+  private final long confirmTimeoutMillis;
+  private final List<Thread> publisherThreads = new ArrayList<>();
+  private volatile boolean running = true;
+  private final ServerMetrics metrics = ServerMetrics.get();
+
+  public BatchingPublisher(MessageTransport transport, RideRouter router, int bufferCapacity, int threadCount,
+                           int batchSize, long lingerMillis, long confirmTimeoutMillis) throws IOException {
+    this.transport = transport;
+    this.router = router;
+    this.ringBuffer = new ArrayBlockingQueue<>(bufferCapacity);
+    this.batchSize = batchSize;
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    this.confirmTimeoutMillis = confirmTimeoutMillis;
+
+    for (int i = 0; i < threadCount; i++) {
+      MessageTransport.PublishChannel channel = openChannel();
+      Thread thread = new Thread(() -> drainLoop(channel), "ride-publisher-" + i);
+      thread.setDaemon(true);
+      publisherThreads.add(thread);
+    }
+    publisherThreads.forEach(Thread::start);
+    metrics.registerGauge("skier_publish_buffer_capacity", "Capacity of the publish buffer.", () -> bufferCapacity);
+    metrics.registerGauge("skier_publish_buffer_size", "Messages waiting in the publish buffer.", ringBuffer::size);
+  }
+
+  @Override
+  public CompletableFuture<Void> publish(byte[] body, String contentType) {
+    PendingMessage message = new PendingMessage(router.routingKey(body, contentType), body, contentType);
+    if (!running || !ringBuffer.offer(message)) {
+      message.future.completeExceptionally(new RejectedExecutionException("Publish buffer is full"));
+    }
+    return message.future;
+  }
+
+  private MessageTransport.PublishChannel openChannel() throws IOException {
+    return transport.openPublishChannel(router.exchange(), true);
+  }
+
+  private void drainLoop(MessageTransport.PublishChannel initialChannel) {
+    MessageTransport.PublishChannel channel = initialChannel;
+    List<PendingMessage> batch = new ArrayList<>(batchSize);
+    while (running || !ringBuffer.isEmpty()) {
+      try {
+        PendingMessage first = ringBuffer.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        fillBatch(batch);
+        channel = publishBatch(channel, batch);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        failAll(batch, ex);
+        break;
+      } finally {
+        batch.clear();
+      }
+    }
+    closeQuietly(channel);
+  }
+
+  // 在 linger 时间内尽量凑满一个批次
+  private void fillBatch(List<PendingMessage> batch) throws InterruptedException {
+    long deadline = System.nanoTime() + lingerNanos;
+    while (batch.size() < batchSize) {
+      ringBuffer.drainTo(batch, batchSize - batch.size());
+      long remaining = deadline - System.nanoTime();
+      if (batch.size() >= batchSize || remaining <= 0) {
+        return;
+      }
+      PendingMessage next = ringBuffer.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      batch.add(next);
+    }
+  }
+
+  /**
+   * Publishes the batch and waits for its confirms. Returns the channel to use for the next
+   * batch, which is a fresh one if this batch failed (waitForConfirms closes the channel).
+   */
+  private MessageTransport.PublishChannel publishBatch(MessageTransport.PublishChannel channel, List<PendingMessage> batch) throws InterruptedException {
+    int sent = 0;
+    try {
+      if (channel == null || !channel.isOpen()) {
+        channel = openChannel();
+      }
+      long publishStart = System.nanoTime();
+      for (PendingMessage message : batch) {
+        metrics.stage(ServerMetrics.Stage.CHANNEL_ACQUIRE).record(publishStart - message.enqueuedNanos);
+        channel.publish(message.routingKey, message.body, message.contentType);
+        sent++;
+      }
+      long confirmStart = System.nanoTime();
+      metrics.stage(ServerMetrics.Stage.PUBLISH).record(confirmStart - publishStart);
+      channel.waitForConfirms(confirmTimeoutMillis);
+      metrics.stage(ServerMetrics.Stage.CONFIRM).recordSince(confirmStart);
+      for (PendingMessage message : batch) {
+        message.future.complete(null);
+      }
+      return channel;
+    } catch (MessageTransport.NackedException ex) {
+      // 被 nack 的消息 broker 没有入队，可以重发；其余消息都已确认
+      boolean[] nacked = new boolean[batch.size()];
+      for (int position : ex.positions()) {
+        nacked[position] = true;
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        if (nacked[i]) {
+          batch.get(i).future.completeExceptionally(ex);
+        } else {
+          batch.get(i).future.complete(null);
+        }
+      }
+      closeQuietly(channel);
+      return null;
+    } catch (IOException | TimeoutException | RuntimeException ex) {
+      // 已写进 channel 的消息 broker 可能已经收到，结果未知；之后的消息肯定没有发出
+      failAll(batch.subList(0, sent), new UnconfirmedPublishException(ex));
+      failAll(batch.subList(sent, batch.size()), ex);
+      closeQuietly(channel);
+      return null;
+    }
+  }
+
+  private static void failAll(List<PendingMessage> batch, Throwable cause) {
+    for (PendingMessage message : batch) {
+      message.future.completeExceptionally(cause);
+    }
+  }
+
+  private static void closeQuietly(MessageTransport.PublishChannel channel) {
+    if (channel != null && channel.isOpen()) {
+      channel.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    for (Thread thread : publisherThreads) {
+      try {
+        thread.join(confirmTimeoutMillis + POLL_INTERVAL_MS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    List<PendingMessage> leftovers = new ArrayList<>();
+    ringBuffer.drainTo(leftovers);
+    failAll(leftovers, new RejectedExecutionException("Publisher is shutting down"));
+  }
+
+  private static class PendingMessage {
+    final String routingKey;
+    final byte[] body;
+    final String contentType;
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    final long enqueuedNanos = System.nanoTime();
+
+    PendingMessage(String routingKey, byte[] body, String contentType) {
+      this.routingKey = routingKey;
+      this.body = body;
+      this.contentType = contentType;
+    }
+  }
+}
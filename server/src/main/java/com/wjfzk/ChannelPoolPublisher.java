@@ -0,0 +1,59 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The original publishing path: the calling thread borrows a channel from a fixed pool and does
+ * one unconfirmed publish per message.
+ */
+public class ChannelPoolPublisher implements RidePublisher {
+
+  private final RideRouter router;
+  private final BlockingQueue<MessageTransport.PublishChannel> channelPool;
+  private final ServerMetrics metrics = ServerMetrics.get();
+
+  public ChannelPoolPublisher(MessageTransport transport, RideRouter router, int poolCapacity) throws IOException {
+    this.router = router;
+    this.channelPool = new ArrayBlockingQueue<>(poolCapacity);
+    for (int i = 0; i < poolCapacity; i++) {
+      channelPool.offer(transport.openPublishChannel(router.exchange(), false));
+    }
+    metrics.registerGauge("skier_channel_pool_capacity", "Channels in the publish channel pool.", () -> poolCapacity);
+    metrics.registerGauge("skier_channel_pool_in_use", "Channels currently borrowed from the pool.",
+        () -> poolCapacity - channelPool.size());
+  }
+
+  @Override
+  public CompletableFuture<Void> publish(byte[] body, String contentType) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    try {
+      long waitStart = System.nanoTime();
+      MessageTransport.PublishChannel channel = channelPool.take();
+      metrics.stage(ServerMetrics.Stage.CHANNEL_ACQUIRE).recordSince(waitStart);
+      try {
+        long publishStart = System.nanoTime();
+        channel.publish(router.routingKey(body, contentType), body, contentType);
+        metrics.stage(ServerMetrics.Stage.PUBLISH).recordSince(publishStart);
+      } finally {
+        channelPool.offer(channel);
+      }
+      result.complete(null);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      result.completeExceptionally(ex);
+    } catch (IOException ex) {
+      result.completeExceptionally(ex);
+    }
+    return result;
+  }
+
+  @Override
+  public void close() {
+    for (MessageTransport.PublishChannel channel : channelPool) {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.wjfzk;
+
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram. Recording is a short scan over the bucket bounds plus two
+ * lock-free increments, and the memory footprint never grows, so it can stay on in production.
+ */
+public class LatencyHistogram {
+
+  // 桶上界（微秒），覆盖 10us ~ 10s
+  private static final long[] BOUNDS_MICROS = {
+      10, 25, 50, 100, 250, 500,
+      1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+      100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000
+  };
+  private static final long[] BOUNDS_NANOS = new long[BOUNDS_MICROS.length];
+
+  static {
+    for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+      BOUNDS_NANOS[i] = TimeUnit.MICROSECONDS.toNanos(BOUNDS_MICROS[i]);
+    }
+  }
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_NANOS.length + 1);
+  private final LongAdder sumNanos = new LongAdder();
+
+  public void record(long nanos) {
+    int i = 0;
+    while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+      i++;
+    }
+    buckets.incrementAndGet(i);
+    sumNanos.add(nanos);
+  }
+
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /** Writes the _bucket, _sum and _count series in Prometheus text format. */
+  void writePrometheus(PrintWriter out, String name, String labels) {
+    String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+    long cumulative = 0;
+    for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+      cumulative += buckets.get(i);
+      out.printf("%s_bucket%sle=\"%s\"} %d%n", name, prefix,
+          BigDecimal.valueOf(BOUNDS_MICROS[i]).movePointLeft(6).stripTrailingZeros().toPlainString(), cumulative);
+    }
+    cumulative += buckets.get(BOUNDS_NANOS.length);
+    out.printf("%s_bucket%sle=\"+Inf\"} %d%n", name, prefix, cumulative);
+    String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+    out.printf("%s_sum%s %s%n", name, suffix,
+        BigDecimal.valueOf(sumNanos.sum()).movePointLeft(9).toPlainString());
+    out.printf("%s_count%s %d%n", name, suffix, cumulative);
+  }
+}
@@ -0,0 +1,129 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded read-through cache for query responses. Keys are spread over a fixed number of
+ * stripes, each an access-ordered {@link LinkedHashMap} that evicts its least recently used entry
+ * when full, so lookups for different keys rarely contend. Entries also expire after a TTL, which
+ * bounds how stale an answer can be when the write that changed it went through another server.
+ *
+ * <p>{@link #invalidate} drops a key and bumps its stripe's generation; a load that started
+ * before the bump is returned to its caller but not cached, so it cannot put back a value the
+ * invalidation was meant to remove.
+ */
+public class ReadCache {
+
+  /** Produces the value for a missing key. */
+  public interface Loader {
+    String load() throws IOException;
+  }
+
+  private static final int STRIPES = 16; // 必须是 2 的幂
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final long ttlNanos;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public ReadCache(int capacity, long ttlMillis) {
+    int perStripe = Math.max(1, capacity / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(perStripe);
+    }
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+  }
+
+  /** Cached value if present and fresh, otherwise {@code loader}'s result, which is then cached. */
+  public String get(String key, Loader loader) throws IOException {
+    Stripe stripe = stripeFor(key);
+    long generation;
+    synchronized (stripe) {
+      Entry entry = stripe.get(key);
+      if (entry != null && System.nanoTime() - entry.loadedNanos < ttlNanos) {
+        hits.increment();
+        return entry.value;
+      }
+      generation = stripe.generation;
+    }
+    misses.increment();
+    String value = loader.load();
+    synchronized (stripe) {
+      if (stripe.generation == generation) {
+        stripe.put(key, new Entry(value, System.nanoTime()));
+      }
+    }
+    return value;
+  }
+
+  public void invalidate(String key) {
+    Stripe stripe = stripeFor(key);
+    synchronized (stripe) {
+      stripe.remove(key);
+      stripe.generation++;
+    }
+  }
+
+  /** Invalidates every key. */
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+        stripe.generation++;
+      }
+    }
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  private Stripe stripeFor(String key) {
+    int h = key.hashCode();
+    return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+  }
+
+  private static class Stripe extends LinkedHashMap<String, Entry> {
+    private static final long serialVersionUID = 1L;
+    private final int capacity;
+    long generation;
+
+    Stripe(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  private static class Entry {
+    final String value;
+    final long loadedNanos;
+
+    Entry(String value, long loadedNanos) {
+      this.value = value;
+      this.loadedNanos = loadedNanos;
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package com.wjfzk;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Hands serialized lift-ride messages to the {@link MessageTransport}. The returned future
+ * completes once the message is safely handed off (or confirmed by the broker, depending on the
+ * implementation).
+ */
+public interface RidePublisher extends AutoCloseable {
+
+  /** @param contentType {@link LiftRideCodec#CONTENT_TYPE_BINARY} or {@link LiftRideCodec#CONTENT_TYPE_JSON} */
+  CompletableFuture<Void> publish(byte[] body, String contentType);
+
+  @Override
+  void close();
+}
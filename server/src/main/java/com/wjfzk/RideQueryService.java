@@ -0,0 +1,160 @@
+package com.wjfzk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Answers the read endpoints from the consumer's pre-aggregated state, with a {@link ReadCache}
+ * in front, shared by every servlet in the webapp. Invalidation follows the consumer's writes:
+ * once the first query arrives, a background task polls the consumer's {@code /changes} every
+ * {@code read.changesPollMs} for the skier/days whose aggregates changed since the last poll and
+ * drops the answers they feed. If a poll fails, or the consumer's change log has moved past the
+ * last version seen, the whole cache is dropped. Settings come from {@code -Dskier.read.*} system
+ * properties, see {@link ServerSettings}.
+ */
+public final class RideQueryService {
+
+  private static final String DEFAULT_CONSUMER_URL = "http://localhost:8081";
+  private static final int DEFAULT_TIMEOUT_MS = 500;
+  private static final int DEFAULT_CACHE_CAPACITY = 100000;
+  private static final int DEFAULT_CACHE_TTL_MS = 1000;
+  private static final int DEFAULT_CHANGES_POLL_MS = 100;
+
+  private static final RideQueryService INSTANCE = new RideQueryService();
+
+  private final String consumerUrl;
+  private final Duration timeout;
+  private final HttpClient httpClient;
+  private final ReadCache cache;
+  private final long changesPollMillis;
+  private final AtomicBoolean polling = new AtomicBoolean();
+  private final Gson gson = new Gson();
+  private final ServerMetrics metrics = ServerMetrics.get();
+  // 以下只在轮询线程中使用；-1 表示还没有与 consumer 对齐
+  private long changesVersion = -1;
+  private boolean pollFailing;
+
+  private RideQueryService() {
+    this.consumerUrl = ServerSettings.get(null, "read.consumerUrl", DEFAULT_CONSUMER_URL);
+    this.timeout = Duration.ofMillis(ServerSettings.getInt(null, "read.timeoutMs", DEFAULT_TIMEOUT_MS));
+    this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+    this.cache = new ReadCache(ServerSettings.getInt(null, "read.cacheCapacity", DEFAULT_CACHE_CAPACITY),
+        ServerSettings.getInt(null, "read.cacheTtlMs", DEFAULT_CACHE_TTL_MS));
+    this.changesPollMillis = ServerSettings.getInt(null, "read.changesPollMs", DEFAULT_CHANGES_POLL_MS);
+    metrics.registerGauge("skier_read_cache_hits", "Queries answered from the read cache.", cache::hits);
+    metrics.registerGauge("skier_read_cache_misses", "Queries forwarded to the consumer.", cache::misses);
+    metrics.registerGauge("skier_read_cache_size", "Entries in the read cache.", cache::size);
+  }
+
+  public static RideQueryService get() {
+    return INSTANCE;
+  }
+
+  /** JSON with the skier's ride count, vertical and lifts for that day. */
+  public String skierDay(int resortId, int seasonId, int dayId, int skierId) throws IOException {
+    String path = "/skiers/" + resortId + "/seasons/" + seasonId + "/days/" + dayId + "/skiers/" + skierId;
+    return query(skierKey(resortId, seasonId, dayId, skierId), path);
+  }
+
+  /** JSON with the number of distinct skiers at the resort that day. */
+  public String resortDaySkiers(int resortId, int seasonId, int dayId) throws IOException {
+    String path = "/resorts/" + resortId + "/seasons/" + seasonId + "/day/" + dayId + "/skiers";
+    return query(resortKey(resortId, seasonId, dayId), path);
+  }
+
+  private String query(String key, String path) throws IOException {
+    startPolling();
+    long start = System.nanoTime();
+    boolean[] loaded = new boolean[1];
+    String body = cache.get(key, () -> {
+      loaded[0] = true;
+      return fetch(path);
+    });
+    metrics.read(!loaded[0]).recordSince(start);
+    return body;
+  }
+
+  // 没有读请求的服务器（例如压测时）不必轮询
+  private void startPolling() {
+    if (changesPollMillis <= 0 || !polling.compareAndSet(false, true)) {
+      return;
+    }
+    ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "read-cache-invalidator");
+      thread.setDaemon(true);
+      return thread;
+    });
+    poller.scheduleWithFixedDelay(this::pollChanges, 0, changesPollMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void pollChanges() {
+    Changes changes;
+    try {
+      changes = gson.fromJson(fetch("/changes?since=" + changesVersion), Changes.class);
+      if (changes == null) {
+        throw new JsonParseException("empty body");
+      }
+    } catch (IOException | RuntimeException ex) {
+      // 不知道错过了哪些写入，只能全部丢弃
+      cache.clear();
+      changesVersion = -1;
+      if (!pollFailing) {
+        System.out.println("Polling consumer changes failed, dropping the read cache: " + ex.getMessage());
+        pollFailing = true;
+      }
+      return;
+    }
+    pollFailing = false;
+    if (changes.reset) {
+      cache.clear();
+    } else if (changes.skierDays != null) {
+      for (int[] key : changes.skierDays) {
+        if (key == null || key.length != 4) {
+          continue;
+        }
+        cache.invalidate(skierKey(key[0], key[1], key[2], key[3]));
+        cache.invalidate(resortKey(key[0], key[1], key[2]));
+      }
+    }
+    changesVersion = changes.version;
+  }
+
+  private String fetch(String path) throws IOException {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(consumerUrl + path)).timeout(timeout).GET().build();
+    HttpResponse<String> response;
+    try {
+      response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while querying the consumer", ex);
+    }
+    if (response.statusCode() != 200) {
+      throw new IOException("Consumer answered " + response.statusCode() + " for " + path);
+    }
+    return response.body();
+  }
+
+  private static String skierKey(int resortId, int seasonId, int dayId, int skierId) {
+    return "s:" + resortId + ':' + seasonId + ':' + dayId + ':' + skierId;
+  }
+
+  private static String resortKey(int resortId, int seasonId, int dayId) {
+    return "r:" + resortId + ':' + seasonId + ':' + dayId;
+  }
+
+  private static class Changes {
+    long version;
+    boolean reset;
+    int[][] skierDays;
+  }
+}
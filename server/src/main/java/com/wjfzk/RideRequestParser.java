@@ -0,0 +1,698 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Single-pass parser for {@code POST /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}}
+ * (the same path also addresses {@code GET}, and {@link #parseResortPath} handles the resort query).
+ * It scans the path in place, reads the body into a reused byte buffer, pulls {@code liftID} and
+ * {@code time} out of the JSON without building a tree, and writes the outgoing queue message
+ * into a reused output buffer. One instance is kept per thread, so none of this allocates in the
+ * steady state except the final copy handed to the publisher.
+ *
+ * <p>Every {@code parse*}/{@code read*} method returns {@code null} on success or the error
+ * message to send back with a 400.
+ */
+public final class RideRequestParser {
+
+  public static final String INVALID_URL = "Invalid URL format! Expected: /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}";
+  public static final String INVALID_RESORT_URL = "Invalid URL format! Expected: /resorts/{resortID}/seasons/{seasonID}/day/{dayID}/skiers";
+  public static final String INVALID_RESORT = "Invalid resortID!";
+  public static final String INVALID_SKIER = "Invalid skierID!";
+  public static final String OUT_OF_RANGE = "Invalid parameters: resortID, dayID, or skierID out of range!";
+  public static final String RESORT_OUT_OF_RANGE = "Invalid parameters: resortID or dayID out of range!";
+  public static final String INVALID_JSON_FORMAT = "Invalid JSON format.";
+  public static final String INVALID_JSON_SYNTAX = "Invalid JSON syntax.";
+  public static final String MISSING_FIELDS = "Missing required fields (liftID, time)";
+  public static final String MISSING_RIDE_FIELDS = "Missing required fields (resortID, dayID, skierID)";
+  public static final String INVALID_FIELDS = "Ride fields must be integers.";
+  public static final String BODY_TOO_LARGE = "Request body too large.";
+  public static final String SEASON_NOT_FOUND = "Season not found: rides are stored under season 2025.";
+
+  public static final int FIXED_SEASON_ID = 2025;
+
+  private static final int MAX_BODY_BYTES = 64 * 1024;
+  private static final int INITIAL_BODY_BYTES = 512;
+  private static final int MAX_DIGITS = 9;
+  private static final int MAX_EVENT_ID_DIGITS = 18;
+  private static final byte[] LIFT_ID_KEY = ascii("liftID");
+  private static final byte[] TIME_KEY = ascii("time");
+  private static final byte[] RESORT_ID_KEY = ascii("resortID");
+  private static final byte[] DAY_ID_KEY = ascii("dayID");
+  private static final byte[] SKIER_ID_KEY = ascii("skierID");
+  private static final byte[] EVENT_ID_KEY = ascii("eventID");
+
+  private static final int F_LIFT = 1;
+  private static final int F_TIME = 2;
+  private static final int F_RESORT = 4;
+  private static final int F_DAY = 8;
+  private static final int F_SKIER = 16;
+  private static final int F_EVENT = 32;
+  private static final int RIDE_FIELDS = F_RESORT | F_DAY | F_SKIER;
+
+  private static final ThreadLocal<RideRequestParser> PER_THREAD = ThreadLocal.withInitial(RideRequestParser::new);
+
+  private byte[] body = new byte[INITIAL_BODY_BYTES];
+  private int bodyLength;
+  private int pos;
+  private int limit;
+  private final byte[] out = new byte[256];
+  private final LiftRide scratch = new LiftRide();
+  private int outLength;
+
+  private int resortId;
+  private int seasonId;
+  private int dayId;
+  private int skierId;
+  private int liftId;
+  private int time;
+  private long eventId;
+
+  public static RideRequestParser forCurrentThread() {
+    return PER_THREAD.get();
+  }
+
+  // ---------------------------------------------------------------- path
+
+  public String parsePath(String path) {
+    if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+      return INVALID_URL;
+    }
+    int end = path.indexOf('/', 1);
+    if (end < 0) {
+      return INVALID_URL;
+    }
+    resortId = parseSegment(path, 1, end);
+    int start = expectLiteral(path, end, "/seasons/");
+    if (start < 0 || (end = path.indexOf('/', start)) < 0) {
+      return INVALID_URL;
+    }
+    seasonId = parseSegment(path, start, end);
+    start = expectLiteral(path, end, "/days/");
+    if (start < 0 || (end = path.indexOf('/', start)) < 0) {
+      return INVALID_URL;
+    }
+    dayId = parseSegment(path, start, end);
+    start = expectLiteral(path, end, "/skiers/");
+    if (start < 0 || start == path.length() || path.indexOf('/', start) >= 0) {
+      return INVALID_URL;
+    }
+    skierId = parseSegment(path, start, path.length());
+
+    if (resortId < 0) {
+      return INVALID_RESORT;
+    }
+    if (skierId < 0) {
+      return INVALID_SKIER;
+    }
+    if (seasonId < 0) {
+      return INVALID_URL;
+    }
+    return validateRide();
+  }
+
+  /** Path info of {@code GET /resorts/{resortID}/seasons/{seasonID}/day/{dayID}/skiers}. */
+  public String parseResortPath(String path) {
+    if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+      return INVALID_RESORT_URL;
+    }
+    int end = path.indexOf('/', 1);
+    if (end < 0) {
+      return INVALID_RESORT_URL;
+    }
+    resortId = parseSegment(path, 1, end);
+    int start = expectLiteral(path, end, "/seasons/");
+    if (start < 0 || (end = path.indexOf('/', start)) < 0) {
+      return INVALID_RESORT_URL;
+    }
+    seasonId = parseSegment(path, start, end);
+    start = expectLiteral(path, end, "/day/");
+    if (start < 0 || (end = path.indexOf('/', start)) < 0 || !path.startsWith("/skiers", end)
+        || end + "/skiers".length() != path.length()) {
+      return INVALID_RESORT_URL;
+    }
+    dayId = parseSegment(path, start, end);
+    skierId = 0;
+
+    if (resortId < 0) {
+      return INVALID_RESORT;
+    }
+    if (seasonId < 0) {
+      return INVALID_RESORT_URL;
+    }
+    return isValidResort(resortId) && isValidDay(dayId) ? null : RESORT_OUT_OF_RANGE;
+  }
+
+  public static boolean isValidResort(int resortId) {
+    return resortId >= 1 && resortId <= 10;
+  }
+
+  public static boolean isValidDay(int dayId) {
+    return dayId >= 1 && dayId <= 366;
+  }
+
+  public static boolean isValidSkier(int skierId) {
+    return skierId >= 1 && skierId <= 100000;
+  }
+
+  private static int expectLiteral(String path, int from, String literal) {
+    return path.startsWith(literal, from) ? from + literal.length() : -1;
+  }
+
+  /** Parses an unsigned decimal without leading zeros; returns -1 if the segment is not one. */
+  private static int parseSegment(String path, int start, int end) {
+    int length = end - start;
+    if (length == 0 || length > MAX_DIGITS || (path.charAt(start) == '0' && length > 1)) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      char c = path.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  // ---------------------------------------------------------------- body
+
+  public String readBody(InputStream in) throws IOException {
+    return readBody(in, MAX_BODY_BYTES);
+  }
+
+  public String readBody(InputStream in, int maxBytes) throws IOException {
+    bodyLength = 0;
+    // 按 maxBytes 而不是缓冲区容量判断：缓冲区可能被之前的批量请求撑大过，多读到一个字节即超限
+    int cap = maxBytes + 1;
+    while (bodyLength < cap) {
+      if (bodyLength == body.length) {
+        body = Arrays.copyOf(body, (int) Math.min(body.length * 2L, cap));
+      }
+      int n = in.read(body, bodyLength, Math.min(body.length, cap) - bodyLength);
+      if (n == -1) {
+        return null;
+      }
+      bodyLength += n;
+    }
+    return BODY_TOO_LARGE;
+  }
+
+  /** Drops a body buffer grown past the single-ride limit, e.g. by a batch, once it has been parsed. */
+  public void releaseBody() {
+    bodyLength = 0;
+    if (body.length > MAX_BODY_BYTES + 1) {
+      body = new byte[INITIAL_BODY_BYTES];
+    }
+  }
+
+  int bodyCapacity() {
+    return body.length;
+  }
+
+  public String parseBody() {
+    pos = 0;
+    limit = bodyLength;
+    return parseObject(false);
+  }
+
+  /**
+   * Parses the JSON object between {@code pos} and {@code limit}. Single POSTs take resortID,
+   * dayID and skierID from the path, so only batch items ({@code rideFields}) read them here.
+   */
+  private String parseObject(boolean rideFields) {
+    skipWhitespace();
+    if (pos >= limit || body[pos] != '{') {
+      return INVALID_JSON_FORMAT;
+    }
+    pos++;
+    int seen = 0;
+    boolean validFields = true;
+    eventId = 0;
+
+    skipWhitespace();
+    if (peek() == '}') {
+      pos++;
+    } else {
+      while (true) {
+        skipWhitespace();
+        int keyStart = pos + 1;
+        if (!skipString()) {
+          return INVALID_JSON_SYNTAX;
+        }
+        int keyEnd = pos - 1;
+        skipWhitespace();
+        if (peek() != ':') {
+          return INVALID_JSON_SYNTAX;
+        }
+        pos++;
+        skipWhitespace();
+
+        int field = fieldFor(keyStart, keyEnd, rideFields);
+        if (field != 0) {
+          seen |= field;
+          long value = readIntValue(field == F_EVENT ? MAX_EVENT_ID_DIGITS : MAX_DIGITS);
+          if (value == Long.MIN_VALUE) {
+            return INVALID_JSON_SYNTAX;
+          }
+          if (value == Long.MAX_VALUE || (field == F_EVENT && value < 1)) {
+            validFields = false;
+          } else if (field == F_EVENT) {
+            eventId = value;
+          } else {
+            setField(field, (int) value);
+          }
+        } else if (!skipValue(0)) {
+          return INVALID_JSON_SYNTAX;
+        }
+
+        skipWhitespace();
+        int c = peek();
+        pos++;
+        if (c == '}') {
+          break;
+        }
+        if (c != ',') {
+          return INVALID_JSON_SYNTAX;
+        }
+      }
+    }
+    skipWhitespace();
+    if (pos != limit) {
+      return INVALID_JSON_SYNTAX;
+    }
+    if ((seen & (F_LIFT | F_TIME)) != (F_LIFT | F_TIME)) {
+      return MISSING_FIELDS;
+    }
+    if (rideFields && (seen & RIDE_FIELDS) != RIDE_FIELDS) {
+      return MISSING_RIDE_FIELDS;
+    }
+    if (!validFields) {
+      return INVALID_FIELDS;
+    }
+    if (eventId == 0) {
+      // 客户端没有带 eventID 时由服务端生成，此时客户端重试无法去重，只能去掉 broker 重投
+      eventId = LiftRide.newEventID();
+    }
+    return rideFields ? validateRide() : null;
+  }
+
+  // ---------------------------------------------------------------- batch
+
+  /** Receives each item of a batch in order; exactly one of {@code error} and {@code message} is set. */
+  public interface BatchItemHandler {
+    void onItem(int index, String error, byte[] message, String contentType);
+  }
+
+  /**
+   * Splits the body read by {@link #readBody} into rides, validates each with the same rules as a
+   * single POST and hands every valid one to {@code handler} already encoded for the queue. The
+   * body is NDJSON (one ride object per line) or, if {@code binaryBody}, back-to-back
+   * {@link LiftRideCodec} records. Returns the number of items, or -1 without calling the
+   * handler if there are more than {@code maxItems}.
+   */
+  public int parseBatch(boolean binaryBody, boolean preferBinary, int maxItems, BatchItemHandler handler) {
+    int items = binaryBody ? countRecords() : countLines();
+    if (items > maxItems) {
+      return -1;
+    }
+    if (binaryBody) {
+      int offset = 0;
+      for (int i = 0; i < items; i++) {
+        String error;
+        try {
+          offset += LiftRideCodec.decode(body, offset, bodyLength - offset, scratch);
+          resortId = scratch.getResortID();
+          dayId = scratch.getDayID();
+          skierId = scratch.getSkierID();
+          liftId = scratch.getLiftID();
+          time = scratch.getTime();
+          eventId = scratch.getEventID() != 0 ? scratch.getEventID() : LiftRide.newEventID();
+          error = validateRide();
+        } catch (IllegalArgumentException ex) {
+          error = ex.getMessage();
+        }
+        emit(i, error, preferBinary, handler);
+      }
+      return items;
+    }
+    int index = 0;
+    for (int start = 0; start < bodyLength; ) {
+      int end = nextLineEnd(start);
+      pos = start;
+      limit = end;
+      skipWhitespace();
+      if (pos < end) {
+        pos = start;
+        emit(index++, parseObject(true), preferBinary, handler);
+      }
+      start = end + 1;
+    }
+    return index;
+  }
+
+  private void emit(int index, String error, boolean preferBinary, BatchItemHandler handler) {
+    if (error != null) {
+      handler.onItem(index, error, null, null);
+      return;
+    }
+    String contentType = writeMessage(preferBinary);
+    handler.onItem(index, null, copyMessage(), contentType);
+  }
+
+  // 按每条记录的版本字节确定长度；无法识别的版本把剩余字节算作一条（解码时报错）
+  private int countRecords() {
+    int count = 0;
+    for (int offset = 0; offset < bodyLength; count++) {
+      int length = LiftRideCodec.lengthOf(body[offset]);
+      offset = length > 0 ? offset + length : bodyLength;
+    }
+    return count;
+  }
+
+  private int countLines() {
+    int count = 0;
+    for (int start = 0; start < bodyLength; ) {
+      int end = nextLineEnd(start);
+      pos = start;
+      limit = end;
+      skipWhitespace();
+      if (pos < end) {
+        count++;
+      }
+      start = end + 1;
+    }
+    return count;
+  }
+
+  private int nextLineEnd(int start) {
+    int i = start;
+    while (i < bodyLength && body[i] != '\n') {
+      i++;
+    }
+    return i;
+  }
+
+  private String validateRide() {
+    if (!isValidDay(dayId) || !isValidResort(resortId) || !isValidSkier(skierId)) {
+      return OUT_OF_RANGE;
+    }
+    return null;
+  }
+
+  private int fieldFor(int keyStart, int keyEnd, boolean rideFields) {
+    if (keyEquals(keyStart, keyEnd, LIFT_ID_KEY)) {
+      return F_LIFT;
+    }
+    if (keyEquals(keyStart, keyEnd, TIME_KEY)) {
+      return F_TIME;
+    }
+    if (keyEquals(keyStart, keyEnd, EVENT_ID_KEY)) {
+      return F_EVENT;
+    }
+    if (!rideFields) {
+      return 0;
+    }
+    if (keyEquals(keyStart, keyEnd, RESORT_ID_KEY)) {
+      return F_RESORT;
+    }
+    if (keyEquals(keyStart, keyEnd, DAY_ID_KEY)) {
+      return F_DAY;
+    }
+    return keyEquals(keyStart, keyEnd, SKIER_ID_KEY) ? F_SKIER : 0;
+  }
+
+  private void setField(int field, int value) {
+    switch (field) {
+      case F_LIFT:
+        liftId = value;
+        break;
+      case F_TIME:
+        time = value;
+        break;
+      case F_RESORT:
+        resortId = value;
+        break;
+      case F_DAY:
+        dayId = value;
+        break;
+      default:
+        skierId = value;
+    }
+  }
+
+  private int peek() {
+    return pos < limit ? body[pos] : -1;
+  }
+
+  private void skipWhitespace() {
+    while (pos < limit) {
+      byte b = body[pos];
+      if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+        return;
+      }
+      pos++;
+    }
+  }
+
+  private boolean keyEquals(int start, int end, byte[] key) {
+    return Arrays.equals(body, start, end, key, 0, key.length);
+  }
+
+  /**
+   * Reads a JSON value that should hold an integer of at most {@code maxDigits} digits, either
+   * bare ({@code 12}) or quoted ({@code "12"}), the way Gson's {@code getAsInt} accepted both.
+   * Returns the value, {@code Long.MAX_VALUE} if it is valid JSON but not such an integer, or
+   * {@code Long.MIN_VALUE} on a syntax error.
+   */
+  private long readIntValue(int maxDigits) {
+    int start = pos;
+    boolean quoted = peek() == '"';
+    if (!skipValue(0)) {
+      return Long.MIN_VALUE;
+    }
+    int from = quoted ? start + 1 : start;
+    int to = quoted ? pos - 1 : pos;
+    boolean negative = from < to && body[from] == '-';
+    if (negative) {
+      from++;
+    }
+    if (from == to || to - from > maxDigits) {
+      return Long.MAX_VALUE;
+    }
+    long value = 0;
+    for (int i = from; i < to; i++) {
+      byte b = body[i];
+      if (b < '0' || b > '9') {
+        return Long.MAX_VALUE;
+      }
+      value = value * 10 + (b - '0');
+    }
+    return negative ? -value : value;
+  }
+
+  private boolean skipValue(int depth) {
+    if (depth > 32) {
+      return false;
+    }
+    int c = peek();
+    switch (c) {
+      case '"':
+        return skipString();
+      case '{':
+      case '[':
+        return skipContainer(c == '{' ? '}' : ']', depth);
+      case 't':
+        return skipLiteral("true");
+      case 'f':
+        return skipLiteral("false");
+      case 'n':
+        return skipLiteral("null");
+      default:
+        return skipNumber();
+    }
+  }
+
+  private boolean skipString() {
+    if (peek() != '"') {
+      return false;
+    }
+    pos++;
+    while (pos < limit) {
+      byte b = body[pos++];
+      if (b == '\\') {
+        pos++;
+      } else if (b == '"') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean skipContainer(char close, int depth) {
+    pos++;
+    skipWhitespace();
+    if (peek() == close) {
+      pos++;
+      return true;
+    }
+    while (true) {
+      skipWhitespace();
+      if (close == '}') {
+        if (!skipString()) {
+          return false;
+        }
+        skipWhitespace();
+        if (peek() != ':') {
+          return false;
+        }
+        pos++;
+        skipWhitespace();
+      }
+      if (!skipValue(depth + 1)) {
+        return false;
+      }
+      skipWhitespace();
+      int c = peek();
+      pos++;
+      if (c == close) {
+        return true;
+      }
+      if (c != ',') {
+        return false;
+      }
+    }
+  }
+
+  private boolean skipLiteral(String literal) {
+    if (limit - pos < literal.length()) {
+      return false;
+    }
+    for (int i = 0; i < literal.length(); i++) {
+      if (body[pos + i] != literal.charAt(i)) {
+        return false;
+      }
+    }
+    pos += literal.length();
+    return true;
+  }
+
+  private boolean skipNumber() {
+    int start = pos;
+    while (pos < limit) {
+      byte b = body[pos];
+      if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+        pos++;
+      } else {
+        break;
+      }
+    }
+    return pos > start;
+  }
+
+  // ---------------------------------------------------------------- message
+
+  /**
+   * Writes the outgoing message into the per-thread output buffer and returns its content type.
+   * Binary is used when requested and the ride fits the fixed-width layout, JSON otherwise.
+   */
+  public String writeMessage(boolean preferBinary) {
+    if (preferBinary && LiftRideCodec.fitsBinary(resortId, FIXED_SEASON_ID, dayId, skierId, liftId, time)) {
+      outLength = LiftRideCodec.encode(resortId, FIXED_SEASON_ID, dayId, skierId, liftId, time, eventId, out, 0);
+      return LiftRideCodec.CONTENT_TYPE_BINARY;
+    }
+    writeJsonMessage();
+    return LiftRideCodec.CONTENT_TYPE_JSON;
+  }
+
+  /** Writes the outgoing JSON message into the per-thread output buffer. */
+  public void writeJsonMessage() {
+    outLength = 0;
+    writeAscii("{\"resortID\":");
+    writeInt(resortId);
+    writeAscii(",\"seasonID\":");
+    writeInt(FIXED_SEASON_ID);
+    writeAscii(",\"dayID\":");
+    writeInt(dayId);
+    writeAscii(",\"skierID\":");
+    writeInt(skierId);
+    writeAscii(",\"liftID\":");
+    writeInt(liftId);
+    writeAscii(",\"time\":");
+    writeInt(time);
+    writeAscii(",\"eventID\":");
+    writeLong(eventId);
+    out[outLength++] = '}';
+  }
+
+  /** Copy of the last written message, safe to hand to another thread. */
+  public byte[] copyMessage() {
+    return Arrays.copyOf(out, outLength);
+  }
+
+  private void writeAscii(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      out[outLength++] = (byte) s.charAt(i);
+    }
+  }
+
+  private void writeInt(int value) {
+    writeLong(value);
+  }
+
+  private void writeLong(long value) {
+    if (value < 0) {
+      out[outLength++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    for (int i = outLength + digits - 1; i >= outLength; i--) {
+      out[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    outLength += digits;
+  }
+
+  private static byte[] ascii(String s) {
+    byte[] bytes = new byte[s.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) s.charAt(i);
+    }
+    return bytes;
+  }
+
+  public int getResortId() {
+    return resortId;
+  }
+
+  // 路径里的 season；POST 的骑行一律按 FIXED_SEASON_ID 存储
+  public int getSeasonId() {
+    return seasonId;
+  }
+
+  public int getDayId() {
+    return dayId;
+  }
+
+  public int getSkierId() {
+    return skierId;
+  }
+
+  public int getLiftId() {
+    return liftId;
+  }
+
+  public int getTime() {
+    return time;
+  }
+
+  public long getEventId() {
+    return eventId;
+  }
+}
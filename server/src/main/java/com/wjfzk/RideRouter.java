@@ -0,0 +1,40 @@
+package com.wjfzk;
+
+import com.google.gson.JsonParser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Picks the routing key for a ride message from its skierID, so every ride of a skier lands in
+ * the same {@link QueuePartitions} partition. The skierID is read back from the encoded message
+ * (a fixed offset in the binary format), which keeps {@link RidePublisher#publish} and the spill
+ * journal's replay unaware of routing.
+ */
+public final class RideRouter {
+
+  private final QueuePartitions partitions;
+
+  public RideRouter(QueuePartitions partitions) {
+    this.partitions = partitions;
+  }
+
+  public String exchange() {
+    return partitions.exchange();
+  }
+
+  public String routingKey(byte[] body, String contentType) {
+    if (partitions.count() == 1) {
+      return partitions.queue(0);
+    }
+    int skierId;
+    try {
+      skierId = LiftRideCodec.isBinary(contentType)
+          ? LiftRideCodec.skierID(body, 0, body.length)
+          : JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject().get("skierID").getAsInt();
+    } catch (RuntimeException ex) {
+      // 解析不出 skierID 的消息照常投递，由消费端拒收
+      skierId = 0;
+    }
+    return partitions.routingKeyFor(skierId);
+  }
+}
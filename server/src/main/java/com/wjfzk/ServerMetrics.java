@@ -0,0 +1,126 @@
+package com.wjfzk;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics for the server, rendered by {@code MetricsServlet} in Prometheus text
+ * format. Stage histograms and counters are updated on the request path; gauges are sampled
+ * from their owners only when scraped.
+ */
+public final class ServerMetrics {
+
+  public enum Stage {
+    PATH_VALIDATION("path_validation"),
+    BODY_READ("body_read"),
+    JSON_PARSE("json_parse"),
+    // channel 池模式下为 take() 等待，批量模式下为消息在发布缓冲区中的等待
+    CHANNEL_ACQUIRE("channel_acquire"),
+    PUBLISH("publish"),
+    CONFIRM("confirm");
+
+    private final String label;
+
+    Stage(String label) {
+      this.label = label;
+    }
+  }
+
+  private static final int[] TRACKED_STATUSES = {200, 201, 400, 500, 503};
+  private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+  private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+  private final LongAdder[] responses = new LongAdder[TRACKED_STATUSES.length];
+  private final LongAdder otherResponses = new LongAdder();
+  // GET 查询耗时，按是否命中缓存分开统计
+  private final LatencyHistogram cachedReads = new LatencyHistogram();
+  private final LatencyHistogram uncachedReads = new LatencyHistogram();
+  private final AtomicInteger inFlightRequests = new AtomicInteger();
+  private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+
+  private ServerMetrics() {
+    for (int i = 0; i < stages.length; i++) {
+      stages[i] = new LatencyHistogram();
+    }
+    for (int i = 0; i < responses.length; i++) {
+      responses[i] = new LongAdder();
+    }
+    registerGauge("skier_in_flight_requests", "POST requests currently being handled.", inFlightRequests::get);
+  }
+
+  public static ServerMetrics get() {
+    return INSTANCE;
+  }
+
+  public LatencyHistogram stage(Stage stage) {
+    return stages[stage.ordinal()];
+  }
+
+  /** Latency of GET queries, split by whether the read cache answered them. */
+  public LatencyHistogram read(boolean cacheHit) {
+    return cacheHit ? cachedReads : uncachedReads;
+  }
+
+  public void recordResponse(int statusCode) {
+    for (int i = 0; i < TRACKED_STATUSES.length; i++) {
+      if (TRACKED_STATUSES[i] == statusCode) {
+        responses[i].increment();
+        return;
+      }
+    }
+    otherResponses.increment();
+  }
+
+  public void requestStarted() {
+    inFlightRequests.incrementAndGet();
+  }
+
+  public void requestFinished() {
+    inFlightRequests.decrementAndGet();
+  }
+
+  /** Registers (or replaces) a gauge that is sampled at scrape time. */
+  public void registerGauge(String name, String help, LongSupplier value) {
+    gauges.put(name, new Gauge(help, value));
+  }
+
+  public void writePrometheus(PrintWriter out) {
+    out.println("# HELP skier_stage_duration_seconds Time spent in each stage of POST /skiers.");
+    out.println("# TYPE skier_stage_duration_seconds histogram");
+    for (Stage stage : Stage.values()) {
+      stage(stage).writePrometheus(out, "skier_stage_duration_seconds", "stage=\"" + stage.label + "\"");
+    }
+
+    out.println("# HELP skier_read_duration_seconds Time to answer a GET query, by read cache outcome.");
+    out.println("# TYPE skier_read_duration_seconds histogram");
+    cachedReads.writePrometheus(out, "skier_read_duration_seconds", "cache=\"hit\"");
+    uncachedReads.writePrometheus(out, "skier_read_duration_seconds", "cache=\"miss\"");
+
+    out.println("# HELP skier_responses_total Responses by HTTP status code.");
+    out.println("# TYPE skier_responses_total counter");
+    for (int i = 0; i < TRACKED_STATUSES.length; i++) {
+      out.printf("skier_responses_total{code=\"%d\"} %d%n", TRACKED_STATUSES[i], responses[i].sum());
+    }
+    out.printf("skier_responses_total{code=\"other\"} %d%n", otherResponses.sum());
+
+    for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      out.printf("# HELP %s %s%n", entry.getKey(), entry.getValue().help);
+      out.printf("# TYPE %s gauge%n", entry.getKey());
+      out.printf("%s %d%n", entry.getKey(), entry.getValue().value.getAsLong());
+    }
+  }
+
+  private static class Gauge {
+    final String help;
+    final LongSupplier value;
+
+    Gauge(String help, LongSupplier value) {
+      this.help = help;
+      this.value = value;
+    }
+  }
+}
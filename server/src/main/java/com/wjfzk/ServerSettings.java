@@ -0,0 +1,36 @@
+package com.wjfzk;
+
+import javax.servlet.ServletConfig;
+
+/**
+ * Reads tunables for the servlets. A servlet init-param wins, then a {@code -Dskier.<name>}
+ * system property (handy for Tomcat's setenv.sh), then the built-in default.
+ */
+public final class ServerSettings {
+
+  private static final String PROPERTY_PREFIX = "skier.";
+
+  private ServerSettings() {
+  }
+
+  public static String get(ServletConfig config, String name, String defaultValue) {
+    String value = config == null ? null : config.getInitParameter(name);
+    if (value == null) {
+      value = System.getProperty(PROPERTY_PREFIX + name);
+    }
+    return value == null || value.isBlank() ? defaultValue : value.trim();
+  }
+
+  public static int getInt(ServletConfig config, String name, int defaultValue) {
+    String value = get(config, name, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException ex) {
+      System.out.println("Ignoring invalid value for " + name + ": " + value);
+      return defaultValue;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package com.wjfzk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+/**
+ * Local write-ahead journal for messages that could not be published. Records are appended to a
+ * memory-mapped segment file; when a segment fills up a new one is started. Sealed segments are
+ * replayed in order and deleted once every record in them has been confirmed by the broker.
+ *
+ * <pre>
+ * record: int length | byte state (0 pending, 1 delivered) | byte format (0 json, 1 binary) | body
+ * </pre>
+ * A zero length marks the end of the records in a segment (mapped files start zero-filled).
+ *
+ * <p>Each record is flipped to "delivered" in place right after its confirm arrives, so a restart
+ * in the middle of a replay only re-sends records whose confirm was never seen.
+ */
+public class SpillJournal implements Closeable {
+
+  public enum FsyncPolicy {
+    /** force() after every append. */
+    ALWAYS,
+    /** force() from {@link #sync()}, which the owner calls on a timer. */
+    INTERVAL,
+    /** Leave write-back to the OS page cache. */
+    NEVER
+  }
+
+  private static final String SEGMENT_PREFIX = "spill-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final int HEADER_BYTES = 6;
+  private static final int END_MARKER_BYTES = 4;
+  private static final byte PENDING = 0;
+  private static final byte DELIVERED = 1;
+  private static final byte FORMAT_JSON = 0;
+  private static final byte FORMAT_BINARY = 1;
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final FsyncPolicy fsyncPolicy;
+  private long nextSegmentId;
+
+  private Path activePath;
+  private FileChannel activeChannel;
+  private MappedByteBuffer activeBuffer;
+  private int activeRecords;
+  private boolean dirty;
+
+  public SpillJournal(Path directory, int segmentBytes, FsyncPolicy fsyncPolicy) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.fsyncPolicy = fsyncPolicy;
+    Files.createDirectories(directory);
+    // 之前运行遗留的段文件全部视为已封存，等待重放
+    for (Path segment : listSegments()) {
+      nextSegmentId = Math.max(nextSegmentId, segmentId(segment) + 1);
+    }
+  }
+
+  public synchronized void append(byte[] body, String contentType) throws IOException {
+    int needed = HEADER_BYTES + body.length;
+    if (needed + END_MARKER_BYTES > segmentBytes) {
+      throw new IOException("Message of " + body.length + " bytes does not fit a journal segment");
+    }
+    if (activeBuffer == null || activeBuffer.remaining() < needed + END_MARKER_BYTES) {
+      rotate();
+    }
+    activeBuffer.putInt(body.length);
+    activeBuffer.put(PENDING);
+    activeBuffer.put(LiftRideCodec.isBinary(contentType) ? FORMAT_BINARY : FORMAT_JSON);
+    activeBuffer.put(body);
+    activeRecords++;
+    dirty = true;
+    if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+      activeBuffer.force();
+      dirty = false;
+    }
+  }
+
+  public synchronized void sync() {
+    if (dirty && activeBuffer != null && fsyncPolicy != FsyncPolicy.NEVER) {
+      activeBuffer.force();
+    }
+    dirty = false;
+  }
+
+  public synchronized boolean hasPendingRecords() throws IOException {
+    return activeRecords > 0 || listSegments().size() > (activePath == null ? 0 : 1);
+  }
+
+  /** Seals the active segment if it holds records and returns every sealed segment, oldest first. */
+  public synchronized List<Path> sealForReplay() throws IOException {
+    if (activeRecords > 0) {
+      sealActive();
+    }
+    List<Path> sealed = listSegments();
+    sealed.remove(activePath);
+    return sealed;
+  }
+
+  /**
+   * Sends every pending record of a sealed segment through {@code publisher}, {@code chunkSize}
+   * at a time, and marks each one delivered once its future completes. Deletes the segment and
+   * returns {@code true} when nothing is left; returns {@code false} at the first failure.
+   */
+  public boolean replay(Path segment, int chunkSize, long timeoutMillis,
+                        BiFunction<byte[], String, CompletableFuture<Void>> publisher)
+      throws IOException, InterruptedException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    }
+    List<Integer> positions = new ArrayList<>(chunkSize);
+    List<CompletableFuture<Void>> futures = new ArrayList<>(chunkSize);
+    int pos = 0;
+    while (true) {
+      int length = pos + END_MARKER_BYTES <= buffer.limit() ? buffer.getInt(pos) : 0;
+      if (length > 0 && buffer.get(pos + 4) == PENDING) {
+        byte[] body = new byte[length];
+        buffer.get(pos + HEADER_BYTES, body);
+        String contentType = buffer.get(pos + 5) == FORMAT_BINARY
+            ? LiftRideCodec.CONTENT_TYPE_BINARY : LiftRideCodec.CONTENT_TYPE_JSON;
+        positions.add(pos);
+        futures.add(publisher.apply(body, contentType));
+      }
+      if (length <= 0 || positions.size() == chunkSize) {
+        boolean delivered = awaitChunk(buffer, positions, futures, timeoutMillis);
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+          buffer.force();
+        }
+        if (!delivered) {
+          return false;
+        }
+        positions.clear();
+        futures.clear();
+      }
+      if (length <= 0) {
+        break;
+      }
+      pos += HEADER_BYTES + length;
+    }
+    Files.deleteIfExists(segment);
+    return true;
+  }
+
+  private static boolean awaitChunk(MappedByteBuffer buffer, List<Integer> positions,
+                                    List<CompletableFuture<Void>> futures, long timeoutMillis)
+      throws InterruptedException {
+    boolean allDelivered = true;
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        futures.get(i).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        buffer.put(positions.get(i) + 4, DELIVERED);
+      } catch (ExecutionException | TimeoutException ex) {
+        allDelivered = false;
+      }
+    }
+    return allDelivered;
+  }
+
+  private void rotate() throws IOException {
+    sealActive();
+    activePath = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+    activeChannel = FileChannel.open(activePath, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    activeBuffer = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    activeRecords = 0;
+  }
+
+  private void sealActive() throws IOException {
+    if (activeBuffer == null) {
+      return;
+    }
+    if (fsyncPolicy != FsyncPolicy.NEVER) {
+      activeBuffer.force();
+    }
+    activeChannel.close();
+    if (activeRecords == 0) {
+      Files.deleteIfExists(activePath);
+    }
+    activeBuffer = null;
+    activeChannel = null;
+    activePath = null;
+    activeRecords = 0;
+    dirty = false;
+  }
+
+  private List<Path> listSegments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      List<Path> segments = new ArrayList<>();
+      files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+              && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+          .sorted()
+          .forEach(segments::add);
+      return segments;
+    }
+  }
+
+  private static long segmentId(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    sealActive();
+  }
+}
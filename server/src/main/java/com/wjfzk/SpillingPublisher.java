@@ -0,0 +1,108 @@
+package com.wjfzk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Wraps a publisher so that a broker failure does not fail the request: the message is appended
+ * to a {@link SpillJournal} instead and the returned future still completes normally. A background
+ * task drains the journal back through the wrapped publisher once the broker is reachable again.
+ *
+ * <p>Only messages the broker certainly does not hold are spilled: ones never sent because the
+ * connection was down, and ones it nacked. Two failures are passed through untouched:
+ * <ul>
+ *   <li>Load shedding ({@link RejectedExecutionException}), so an overloaded server still answers
+ *       503 rather than filling the disk.</li>
+ *   <li>{@link UnconfirmedPublishException}, because the broker may already hold the message and
+ *       replaying it would queue a second copy. The client's retry resends the same eventID,
+ *       which the consumer drops if the first copy did arrive.</li>
+ * </ul>
+ * A replayed chunk whose confirm is lost is sent again on the next replay; those copies also
+ * carry the ride's eventID.
+ */
+public class SpillingPublisher implements RidePublisher {
+
+  private static final int REPLAY_CHUNK_SIZE = 500;
+
+  private final RidePublisher delegate;
+  private final SpillJournal journal;
+  private final BooleanSupplier brokerAvailable;
+  private final long confirmTimeoutMillis;
+  private final ScheduledExecutorService replayer;
+
+  public SpillingPublisher(RidePublisher delegate, SpillJournal journal, BooleanSupplier brokerAvailable,
+                           long replayIntervalMillis, long confirmTimeoutMillis) {
+    this.delegate = delegate;
+    this.journal = journal;
+    this.brokerAvailable = brokerAvailable;
+    this.confirmTimeoutMillis = confirmTimeoutMillis;
+    this.replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "spill-replayer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    replayer.scheduleWithFixedDelay(this::syncAndReplay, replayIntervalMillis, replayIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public CompletableFuture<Void> publish(byte[] body, String contentType) {
+    return delegate.publish(body, contentType).handle((ignored, failure) -> {
+      if (failure == null) {
+        return null;
+      }
+      Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+      if (cause instanceof RejectedExecutionException || cause instanceof UnconfirmedPublishException) {
+        throw new CompletionException(cause);
+      }
+      try {
+        journal.append(body, contentType);
+        return null;
+      } catch (IOException ex) {
+        ex.addSuppressed(cause);
+        throw new CompletionException(ex);
+      }
+    });
+  }
+
+  private void syncAndReplay() {
+    journal.sync();
+    try {
+      if (!brokerAvailable.getAsBoolean() || !journal.hasPendingRecords()) {
+        return;
+      }
+      for (Path segment : journal.sealForReplay()) {
+        if (!journal.replay(segment, REPLAY_CHUNK_SIZE, confirmTimeoutMillis, delegate::publish)) {
+          return;
+        }
+        System.out.println("Replayed spilled messages from " + segment.getFileName());
+      }
+    } catch (IOException ex) {
+      System.out.println("Spill journal replay failed: " + ex.getMessage());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void close() {
+    replayer.shutdownNow();
+    try {
+      replayer.awaitTermination(confirmTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    delegate.close();
+    try {
+      journal.close();
+    } catch (IOException ex) {
+      System.out.println("Failed to close spill journal: " + ex.getMessage());
+    }
+  }
+}
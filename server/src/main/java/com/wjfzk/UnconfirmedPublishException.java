@@ -0,0 +1,15 @@
+package com.wjfzk;
+
+import java.io.IOException;
+
+/**
+ * The message was handed to the broker but no confirm came back (timeout, or the channel closed
+ * while waiting), so it may or may not be queued. Sending it again is only safe because every
+ * ride carries an eventID that the consumer deduplicates on.
+ */
+public class UnconfirmedPublishException extends IOException {
+
+  public UnconfirmedPublishException(Throwable cause) {
+    super("Broker did not confirm the message: " + cause.getMessage(), cause);
+  }
+}
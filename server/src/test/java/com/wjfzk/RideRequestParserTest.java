@@ -0,0 +1,58 @@
+package com.wjfzk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class RideRequestParserTest {
+
+  private static final int SINGLE_MAX_BYTES = 64 * 1024;
+  private static final int BATCH_MAX_BYTES = 1 << 20;
+
+  @Test
+  void oversizedSinglePostIsRejectedAfterABatch() throws Exception {
+    RideRequestParser parser = new RideRequestParser();
+    StringBuilder batch = new StringBuilder();
+    while (batch.length() < 4 * SINGLE_MAX_BYTES) {
+      batch.append("{\"resortID\":1,\"dayID\":1,\"skierID\":42,\"liftID\":7,\"time\":100}\n");
+    }
+    assertNull(parser.readBody(stream(batch.toString()), BATCH_MAX_BYTES));
+    assertTrue(parser.parseBatch(false, true, Integer.MAX_VALUE, (index, error, message, type) -> { }) > 0);
+
+    // 即使没有 releaseBody，单条请求也按自己的上限判断
+    String oversized = "{\"liftID\":7,\"time\":100,\"pad\":\"" + "x".repeat(SINGLE_MAX_BYTES) + "\"}";
+    assertEquals(RideRequestParser.BODY_TOO_LARGE, parser.readBody(stream(oversized)));
+
+    parser.releaseBody();
+    assertTrue(parser.bodyCapacity() <= SINGLE_MAX_BYTES + 1);
+    assertEquals(RideRequestParser.BODY_TOO_LARGE, parser.readBody(stream(oversized)));
+  }
+
+  @Test
+  void bodyOfExactlyTheLimitIsAccepted() throws Exception {
+    RideRequestParser parser = new RideRequestParser();
+    String prefix = "{\"liftID\":7,\"time\":100,\"pad\":\"";
+    String body = prefix + "x".repeat(SINGLE_MAX_BYTES - prefix.length() - 2) + "\"}";
+    assertEquals(SINGLE_MAX_BYTES, body.length());
+    assertNull(parser.readBody(stream(body)));
+    assertNull(parser.parseBody());
+  }
+
+  @Test
+  void pathSeasonIsKept() {
+    RideRequestParser parser = new RideRequestParser();
+    assertNull(parser.parsePath("/1/seasons/2024/days/1/skiers/123"));
+    assertEquals(2024, parser.getSeasonId());
+    assertNull(parser.parseResortPath("/1/seasons/2025/day/1/skiers"));
+    assertEquals(RideRequestParser.FIXED_SEASON_ID, parser.getSeasonId());
+  }
+
+  private static InputStream stream(String body) {
+    return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,274 @@
+package com.wjfzk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs {@link SpillingPublisher} over {@link BatchingPublisher} against a stand-in broker that can
+ * be down, nack everything, or keep messages but lose their confirms, and checks that every ride
+ * ends up queued exactly once by eventID.
+ */
+class SpillingPublisherTest {
+
+  private static final int RIDES = 200;
+  private static final long CONFIRM_TIMEOUT_MS = 200;
+  private static final long REPLAY_INTERVAL_MS = 50;
+
+  @TempDir
+  Path spillDir;
+
+  private final StandInBroker broker = new StandInBroker();
+  private SpillingPublisher publisher;
+
+  @AfterEach
+  void close() {
+    if (publisher != null) {
+      publisher.close();
+    }
+  }
+
+  @Test
+  void ridesPublishedDuringAnOutageAreReplayedOnce() throws Exception {
+    SpillJournal journal = start();
+    broker.mode = Mode.DOWN;
+
+    List<Long> eventIds = publishAll(RIDES);
+    assertTrue(journal.hasPendingRecords());
+    assertEquals(0, broker.queued().size());
+
+    broker.mode = Mode.UP;
+    awaitReplayed(journal, RIDES);
+    assertExactlyOnce(eventIds, broker.queued());
+  }
+
+  @Test
+  void nackedRidesAreReplayedOnce() throws Exception {
+    SpillJournal journal = start();
+    broker.mode = Mode.NACK;
+
+    List<Long> eventIds = publishAll(RIDES);
+    assertEquals(0, broker.queued().size());
+
+    broker.mode = Mode.UP;
+    awaitReplayed(journal, RIDES);
+    assertExactlyOnce(eventIds, broker.queued());
+  }
+
+  @Test
+  void ridesWithLostConfirmsAreNotSpilled() throws Exception {
+    SpillJournal journal = start();
+    broker.mode = Mode.LOST_CONFIRMS;
+
+    List<byte[]> bodies = new ArrayList<>();
+    List<Long> eventIds = new ArrayList<>();
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < RIDES; i++) {
+      LiftRide ride = ride(i);
+      byte[] body = LiftRideCodec.encode(ride);
+      bodies.add(body);
+      eventIds.add(ride.getEventID());
+      futures.add(publisher.publish(body, LiftRideCodec.CONTENT_TYPE_BINARY));
+    }
+    for (CompletableFuture<Void> future : futures) {
+      ExecutionException failure = assertThrows(ExecutionException.class,
+          () -> future.get(10, TimeUnit.SECONDS));
+      assertInstanceOf(UnconfirmedPublishException.class, failure.getCause());
+    }
+    assertFalse(journal.hasPendingRecords());
+    assertEquals(RIDES, broker.queued().size());
+
+    // 客户端收到 503 后用同一个 eventID 重试：队列里有两份，去重后仍是一份
+    broker.mode = Mode.UP;
+    for (byte[] body : bodies) {
+      publisher.publish(body, LiftRideCodec.CONTENT_TYPE_BINARY).get(10, TimeUnit.SECONDS);
+    }
+    Thread.sleep(3 * REPLAY_INTERVAL_MS);
+    List<LiftRide> queued = broker.queued();
+    assertEquals(2 * RIDES, queued.size());
+    assertEquals(new HashSet<>(eventIds), eventIdsOf(queued));
+  }
+
+  private SpillJournal start() throws IOException {
+    SpillJournal journal = new SpillJournal(spillDir, 1 << 20, SpillJournal.FsyncPolicy.NEVER);
+    RideRouter router = new RideRouter(new QueuePartitions("", "skier_queue", 1));
+    BatchingPublisher batching = new BatchingPublisher(broker, router, 1024, 2, 50, 2, CONFIRM_TIMEOUT_MS);
+    BooleanSupplier available = broker::isOpen;
+    publisher = new SpillingPublisher(batching, journal, available, REPLAY_INTERVAL_MS, CONFIRM_TIMEOUT_MS);
+    return journal;
+  }
+
+  private List<Long> publishAll(int count) throws Exception {
+    List<Long> eventIds = new ArrayList<>();
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      LiftRide ride = ride(i);
+      eventIds.add(ride.getEventID());
+      futures.add(publisher.publish(LiftRideCodec.encode(ride), LiftRideCodec.CONTENT_TYPE_BINARY));
+    }
+    for (CompletableFuture<Void> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    return eventIds;
+  }
+
+  private void awaitReplayed(SpillJournal journal, int expected) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while ((journal.hasPendingRecords() || broker.queued().size() < expected) && System.nanoTime() < deadline) {
+      Thread.sleep(REPLAY_INTERVAL_MS);
+    }
+    // 再等几轮重放，确认不会再投递一次
+    Thread.sleep(3 * REPLAY_INTERVAL_MS);
+    assertFalse(journal.hasPendingRecords());
+  }
+
+  private static void assertExactlyOnce(List<Long> eventIds, List<LiftRide> queued) {
+    assertEquals(eventIds.size(), queued.size());
+    assertEquals(new HashSet<>(eventIds), eventIdsOf(queued));
+  }
+
+  private static Set<Long> eventIdsOf(List<LiftRide> rides) {
+    Set<Long> eventIds = new HashSet<>();
+    for (LiftRide ride : rides) {
+      eventIds.add(ride.getEventID());
+    }
+    return eventIds;
+  }
+
+  private static LiftRide ride(int i) {
+    return new LiftRide(1, 2024, 1, i + 1, 1 + i % 40, 1 + i % 360).setEventID(LiftRide.newEventID());
+  }
+
+  private enum Mode {
+    UP,
+    /** Connection lost: nothing can be sent. */
+    DOWN,
+    /** Every message is received and rejected. */
+    NACK,
+    /** Every message is queued but its confirm never arrives. */
+    LOST_CONFIRMS
+  }
+
+  /** Holds one queue in memory; {@link #mode} decides how publishes fare. */
+  private static final class StandInBroker implements MessageTransport {
+    private final List<byte[]> queue = new ArrayList<>();
+    volatile Mode mode = Mode.UP;
+
+    synchronized List<LiftRide> queued() {
+      List<LiftRide> rides = new ArrayList<>(queue.size());
+      for (byte[] body : queue) {
+        rides.add(LiftRideCodec.decode(body));
+      }
+      return rides;
+    }
+
+    @Override
+    public void declareQueue(String queue) {
+    }
+
+    @Override
+    public void declareExchange(String exchange) {
+    }
+
+    @Override
+    public void bindQueue(String queue, String exchange, String routingKey) {
+    }
+
+    @Override
+    public synchronized long queueDepth(String queue) {
+      return this.queue.size();
+    }
+
+    @Override
+    public PublishChannel openPublishChannel(String exchange, boolean confirms) throws IOException {
+      if (mode == Mode.DOWN) {
+        throw new IOException("Connection refused");
+      }
+      return new StandInChannel();
+    }
+
+    @Override
+    public Subscription subscribe(List<String> queues, int prefetch, DeliveryHandler handler) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return mode != Mode.DOWN;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private final class StandInChannel implements PublishChannel {
+      private final List<byte[]> unconfirmed = new ArrayList<>();
+      private boolean open = true;
+
+      @Override
+      public void publish(String routingKey, byte[] body, String contentType) throws IOException {
+        if (!open || mode == Mode.DOWN) {
+          open = false;
+          throw new IOException("Channel is closed");
+        }
+        unconfirmed.add(body);
+      }
+
+      @Override
+      public void waitForConfirms(long timeoutMillis) throws IOException, TimeoutException {
+        List<byte[]> batch = new ArrayList<>(unconfirmed);
+        unconfirmed.clear();
+        switch (mode) {
+          case UP:
+            synchronized (StandInBroker.this) {
+              queue.addAll(batch);
+            }
+            return;
+          case NACK:
+            open = false;
+            int[] positions = new int[batch.size()];
+            for (int i = 0; i < positions.length; i++) {
+              positions[i] = i;
+            }
+            throw new NackedException(positions);
+          case LOST_CONFIRMS:
+            synchronized (StandInBroker.this) {
+              queue.addAll(batch);
+            }
+            open = false;
+            throw new TimeoutException("No confirm within " + timeoutMillis + " ms");
+          default:
+            open = false;
+            throw new IOException("Channel is closed");
+        }
+      }
+
+      @Override
+      public boolean isOpen() {
+        return open;
+      }
+
+      @Override
+      public void close() {
+        open = false;
+      }
+    }
+  }
+}